@@ -0,0 +1,115 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * This is a benchmark of command processing: tokenizing alone, and the whole
+ * processLine for add, next and change lines against a waiting room of a
+ * given size. Run with -prof gc to see the bytes allocated per command.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandBenchmark {
+
+	// Constant for the lines of the command mix: three adds and three nexts,
+	// so the size stays steady, and a change in place of each null line
+	private static final String[] LINES = {
+		"add urgent Wilford Hatheway", null, "next", "add immediate Brenton Jamison",
+		"next", "add Emergency Kylie Carter", null, "next"
+	};
+	
+	@Param({"10", "1000", "100000"})
+	private int size;               // number of waiting patients
+	
+	private TriageQueue priQueue;   // queue the commands operate on
+	private CommandTokenizer tokens; // tokenizer reused for every line
+	private PrintStream out;        // discards the command output
+	private int line;               // next line of the mix
+	private StringBuilder change;   // change line reused for every change
+
+	
+	/**
+	 * Fill the queue with the sample patient mix
+	 */
+	@Setup(Level.Trial)
+	public void setUp() {
+		priQueue = new PatientPriorityQueue();
+		new Workload(42).fill(priQueue, size);
+		tokens = new CommandTokenizer();
+		out = new PrintStream(OutputStream.nullOutputStream());
+		change = new StringBuilder();
+	}
+
+	
+	/**
+	 * Tokenize one line of the mix and parse its arguments
+	 * 
+	 * @param blackhole Consumes the parsed values
+	 */
+	@Benchmark
+	public void tokenize(Blackhole blackhole) {
+		tokens.reset(nextLine());
+		while (tokens.next()) {
+			blackhole.consume(tokens.priorityCode());
+			blackhole.consume(tokens.tokenAsInt());
+		}
+	}
+
+	
+	/**
+	 * Run one line of the mix through processLine. The mix adds and serves
+	 * the same number of patients, so the size stays steady.
+	 * 
+	 * @throws IOException
+	 */
+	@Benchmark
+	public void processLine() throws IOException {
+		TriageSystem.processLine(nextLine(), priQueue, tokens, out);
+	}
+
+	
+	/**
+	 * Return the next line of the mix. A change targets the patient added
+	 * just before it, who is still waiting, so every change finds its
+	 * patient instead of timing the error for an unknown arrival number.
+	 * 
+	 * @return Return the line
+	 */
+	private CharSequence nextLine() {
+		int i = line++ & 7;
+		if (LINES[i] != null) {
+			return LINES[i];
+		}
+		change.setLength(0);
+		change.append("change ").append(priQueue.getNextPatientNumber() - 1)
+		      .append(i == 1 ? " minimal" : " immediate");
+		return change;
+	}
+
+}
@@ -0,0 +1,115 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This is a benchmark of filling a waiting room from empty and of serving
+ * every patient in it, timed as one shot per iteration.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class FillBenchmark {
+
+	@Param({"heap", "arena", "primitive", "bucket", "concurrent", "pairing"})
+	private String engine;        // queue engine under test
+	
+	@Param({"10", "1000", "100000", "10000000"})
+	private int size;             // number of patients
+	
+	private int[] priorityCodes;  // priority code of each patient
+	private String[] names;       // name of each patient
+	private TriageQueue priQueue; // queue under test
+
+	
+	/**
+	 * Create the patients once per trial
+	 */
+	@Setup(Level.Trial)
+	public void createPatients() {
+		Workload workload = new Workload(42);
+		priorityCodes = new int[size];
+		names = new String[size];
+		for (int i = 0; i < size; i++) {
+			priorityCodes[i] = workload.nextPriority();
+			names[i] = "Patient " + i;
+		}
+	}
+
+	
+	/**
+	 * Start every invocation with a full queue
+	 */
+	@Setup(Level.Invocation)
+	public void fill() {
+		priQueue = TriageSystem.createQueue(engine);
+		priQueue.addPatients(priorityCodes, names, size);
+	}
+
+	
+	/**
+	 * Add every patient with addPatient
+	 * 
+	 * @return Return the filled queue
+	 */
+	@Benchmark
+	public TriageQueue addPatientOneByOne() {
+		TriageQueue empty = TriageSystem.createQueue(engine);
+		for (int i = 0; i < size; i++) {
+			empty.addPatient(priorityCodes[i], names[i]);
+		}
+		return empty;
+	}
+
+	
+	/**
+	 * Add every patient with one addPatients batch
+	 * 
+	 * @return Return the filled queue
+	 */
+	@Benchmark
+	public TriageQueue addPatientsBulk() {
+		TriageQueue empty = TriageSystem.createQueue(engine);
+		empty.addPatients(priorityCodes, names, size);
+		return empty;
+	}
+
+	
+	/**
+	 * Serve every patient of the full queue
+	 * 
+	 * @return Return the last patient served
+	 */
+	@Benchmark
+	public Patient dequeueAll() {
+		Patient last = null;
+		Patient next = priQueue.dequeue();
+		while (next != null) {
+			last = next;
+			next = priQueue.dequeue();
+		}
+		return last;
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This is a benchmark of saving a waiting room and loading it back into an
+ * empty queue, through the same save and load commands the user types.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class PersistenceBenchmark {
+
+	@Param({"heap", "primitive"})
+	private String engine;          // queue engine under test
+	
+	@Param({"10", "1000", "100000", "10000000"})
+	private int size;               // number of waiting patients
+	
+	private TriageQueue priQueue;   // queue to save
+	private Path textFile;          // file for the text format
+	private Path binaryFile;        // file for the binary format
+	private CommandTokenizer tokens; // tokenizer for the commands
+	private PrintStream out;        // discards the command output
+
+	
+	/**
+	 * Fill the queue and create the files
+	 * 
+	 * @throws IOException
+	 */
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		priQueue = TriageSystem.createQueue(engine);
+		new Workload(42).fill(priQueue, size);
+		textFile = Files.createTempFile("triage", ".txt");
+		binaryFile = Files.createTempFile("triage", ".bin");
+		tokens = new CommandTokenizer();
+		out = new PrintStream(OutputStream.nullOutputStream());
+	}
+
+	
+	/**
+	 * Delete the files
+	 * 
+	 * @throws IOException
+	 */
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(textFile);
+		Files.deleteIfExists(binaryFile);
+	}
+
+	
+	/**
+	 * Save with the text format and load it back
+	 * 
+	 * @return Return the loaded queue
+	 * @throws IOException
+	 */
+	@Benchmark
+	public TriageQueue textRoundTrip() throws IOException {
+		TriageSystem.processLine("save " + textFile, priQueue, tokens, out);
+		TriageQueue loaded = TriageSystem.createQueue(engine);
+		TriageSystem.processLine("load " + textFile, loaded, tokens, out);
+		return loaded;
+	}
+
+	
+	/**
+	 * Save with the binary format and load it back
+	 * 
+	 * @return Return the loaded queue
+	 * @throws IOException
+	 */
+	@Benchmark
+	public TriageQueue binaryRoundTrip() throws IOException {
+		TriageSystem.processLine("save --binary " + binaryFile, priQueue, tokens, out);
+		TriageQueue loaded = TriageSystem.createQueue(engine);
+		TriageSystem.processLine("load --binary " + binaryFile, loaded, tokens, out);
+		return loaded;
+	}
+
+}
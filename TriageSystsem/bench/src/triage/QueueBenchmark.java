@@ -0,0 +1,120 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * This is a benchmark of the queue operations on a waiting room of a given
+ * size. The queue is filled once per trial and every benchmark leaves the
+ * number of waiting patients unchanged.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx8g"})
+public class QueueBenchmark {
+
+	@Param({"heap", "primitive", "bucket", "concurrent", "pairing"})
+	private String engine;      // queue engine under test
+	
+	@Param({"10", "1000", "100000", "10000000"})
+	private int size;           // number of waiting patients
+	
+	private TriageQueue priQueue; // queue under test
+	private Workload workload;    // source of priorities and arrival numbers
+
+	
+	/**
+	 * Fill the queue with the sample patient mix
+	 */
+	@Setup(Level.Trial)
+	public void fill() {
+		priQueue = TriageSystem.createQueue(engine);
+		workload = new Workload(42);
+		workload.fill(priQueue, size);
+	}
+
+	
+	/**
+	 * Look at the next patient
+	 * 
+	 * @return Return the next patient
+	 */
+	@Benchmark
+	public Patient peek() {
+		return priQueue.peek();
+	}
+
+	
+	/**
+	 * Preview the next ten patients without serving them
+	 * 
+	 * @return Return the next ten patients
+	 */
+	@Benchmark
+	public ArrayList<Patient> peekTopTen() {
+		return priQueue.peek(10);
+	}
+
+	
+	/**
+	 * Add a patient and serve the next one, keeping the size steady
+	 * 
+	 * @return Return the patient served
+	 */
+	@Benchmark
+	public Patient addPatientThenDequeue() {
+		priQueue.addPatient(workload.nextPriority(), "Walk In");
+		return priQueue.dequeue();
+	}
+
+	
+	/**
+	 * Add a patient who leaves again before being seen, keeping the size
+	 * steady. The heaps leave a tombstone and compact now and then.
+	 * 
+	 * @return Return the patient removed
+	 */
+	@Benchmark
+	public Patient addPatientThenRemove() {
+		int arrival = priQueue.getNextPatientNumber();
+		priQueue.addPatient(workload.nextPriority(), "Walk Out");
+		return priQueue.removeByArrival(arrival);
+	}
+
+	
+	/**
+	 * Re-triage a random waiting patient the way the change command does: look
+	 * the arrival number up and then change the priority code
+	 * 
+	 * @return Return true if the patient was found
+	 */
+	@Benchmark
+	public boolean lookupAndChange() {
+		// The oldest waiting patients are always within this range
+		int arrival = priQueue.getNextPatientNumber() - 1 - workload.nextInt(size);
+		return priQueue.findByArrival(arrival) != null
+		       && priQueue.changeByArrival(arrival, workload.nextPriority());
+	}
+
+}
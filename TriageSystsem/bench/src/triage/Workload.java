@@ -0,0 +1,75 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.SplittableRandom;
+
+/**
+ * This is the patient mix used by the benchmarks. Priority codes follow the
+ * sample patients.txt: 4 immediate, 4 emergency, 1 urgent and 4 minimal out
+ * of every 13 patients.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+final class Workload {
+
+	// Constant for the priority code of each of the 13 sample patients
+	private static final int[] SAMPLE_MIX = {3, 1, 1, 4, 2, 4, 1, 4, 2, 1, 4, 2, 2};
+	
+	private SplittableRandom random; // source of the mix
+
+	
+	/**
+	 * Creates a workload with a fixed seed, so every run sees the same patients.
+	 * 
+	 * @param seed The seed of the workload
+	 */
+	Workload(long seed) {
+		this.random = new SplittableRandom(seed);
+	}
+
+	
+	/**
+	 * Return the next priority code of the mix
+	 * 
+	 * @return Return a priority code from 1 to 4
+	 */
+	int nextPriority() {
+		return SAMPLE_MIX[random.nextInt(SAMPLE_MIX.length)];
+	}
+
+	
+	/**
+	 * Return a random int below a bound
+	 * 
+	 * @param bound The exclusive upper bound
+	 * @return Return a random int from 0 to bound - 1
+	 */
+	int nextInt(int bound) {
+		return random.nextInt(bound);
+	}
+
+	
+	/**
+	 * Fill a queue with patients of the mix
+	 * 
+	 * @param priQueue The queue to fill
+	 * @param count    Number of patients to add
+	 */
+	void fill(TriageQueue priQueue, int count) {
+		int batch = Math.min(count, 65536);
+		int[] priorityCodes = new int[batch];
+		String[] names = new String[batch];
+		for (int added = 0; added < count; added += batch) {
+			int n = Math.min(batch, count - added);
+			for (int i = 0; i < n; i++) {
+				priorityCodes[i] = nextPriority();
+				names[i] = "Patient " + (added + i);
+			}
+			priQueue.addPatients(priorityCodes, names, n);
+		}
+	}
+
+}
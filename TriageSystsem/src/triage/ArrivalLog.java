@@ -0,0 +1,328 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * This is the list of waiting patients in arrival order, kept in chunks of
+ * 1024 positions so that a point-in-time snapshot costs one reference per
+ * chunk instead of one per patient.
+ * 
+ * A patient who leaves has its position cleared, and the log is compacted
+ * once cleared positions outnumber the patients. A snapshot shares the
+ * chunks of the log: adding a patient only writes past the end that the
+ * snapshot knows, and the first change to a chunk after a snapshot copies
+ * the chunk, so snapshots never see later changes and can be read by
+ * another thread while the log keeps changing.
+ * 
+ * Arrival numbers must be added in increasing order. The log itself is not
+ * thread-safe; snapshots are.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class ArrivalLog implements Iterable<Patient> {
+
+	private static final int CHUNK_SHIFT = 10;
+	private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+	private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+	private Patient[][] chunks; // patients by position, null once they left
+	private int[][] numbers;    // arrival number of every position
+	private boolean[] shared;   // true if a snapshot may read the chunk
+	private int length;         // positions used, cleared ones included
+	private int count;          // positions holding a patient
+
+	
+	/**
+	 * Creates an empty log.
+	 */
+	public ArrivalLog() {
+		clear();
+	}
+
+	
+	/**
+	 * Remove every patient
+	 */
+	public void clear() {
+		chunks = new Patient[1][];
+		numbers = new int[1][];
+		shared = new boolean[1];
+		length = 0;
+		count = 0;
+	}
+
+	
+	/**
+	 * Return the number of patients in the log
+	 * 
+	 * @return Return the number of patients
+	 */
+	public int size() {
+		return count;
+	}
+
+	
+	/**
+	 * Add a patient after every patient in the log
+	 * 
+	 * @param patient The patient, with a higher arrival number than any
+	 *                patient added before
+	 */
+	public void add(Patient patient) {
+		int chunk = length >>> CHUNK_SHIFT;
+		if (chunk == chunks.length) {
+			chunks = Arrays.copyOf(chunks, chunk * 2);
+			numbers = Arrays.copyOf(numbers, chunk * 2);
+			shared = Arrays.copyOf(shared, chunk * 2);
+		}
+		if (chunks[chunk] == null) {
+			chunks[chunk] = new Patient[CHUNK_SIZE];
+			numbers[chunk] = new int[CHUNK_SIZE];
+		}
+		// Snapshots never read past their own length, so a shared chunk can be appended to
+		chunks[chunk][length & CHUNK_MASK] = patient;
+		numbers[chunk][length & CHUNK_MASK] = patient.getArrivalOrder();
+		length++;
+		count++;
+	}
+
+	
+	/**
+	 * Replace the patient with the same arrival number, for example after
+	 * its priority code changed
+	 * 
+	 * @param patient The new patient object
+	 * @return Return true if the arrival number was in the log, otherwise false
+	 */
+	public boolean set(Patient patient) {
+		int position = find(patient.getArrivalOrder());
+		if (position < 0) {
+			return false;
+		}
+		writable(position >>> CHUNK_SHIFT)[position & CHUNK_MASK] = patient;
+		return true;
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number
+	 * 
+	 * @param arrival The patient's arrival number
+	 * @return Return true if the patient was in the log, otherwise false
+	 */
+	public boolean remove(int arrival) {
+		int position = find(arrival);
+		if (position < 0) {
+			return false;
+		}
+		writable(position >>> CHUNK_SHIFT)[position & CHUNK_MASK] = null;
+		count--;
+		if (length - count > count && length - count >= CHUNK_SIZE) {
+			compact();
+		}
+		return true;
+	}
+
+	
+	/**
+	 * Return the patients as they are now. Later changes to the log do not
+	 * show up in the snapshot.
+	 * 
+	 * @return Return the snapshot
+	 */
+	public Snapshot snapshot() {
+		int used = (length + CHUNK_MASK) >>> CHUNK_SHIFT;
+		Arrays.fill(shared, 0, used, true);
+		return new Snapshot(Arrays.copyOf(chunks, used), length, count);
+	}
+
+	
+	/**
+	 * Return an iterator over the patients in arrival order. The log must
+	 * not change while it is used; use snapshot() for that.
+	 * 
+	 * @return Return the iterator
+	 */
+	@Override
+	public Iterator<Patient> iterator() {
+		return new Cursor(chunks, length);
+	}
+
+	
+	/**
+	 * Return the position of an arrival number that holds a patient
+	 * 
+	 * @param arrival The arrival number
+	 * @return Return the position, Return -1 if the patient is not in the log
+	 */
+	private int find(int arrival) {
+		int low = 0;
+		int high = length - 1;
+		while (low <= high) {
+			int middle = (low + high) >>> 1;
+			int number = numbers[middle >>> CHUNK_SHIFT][middle & CHUNK_MASK];
+			if (number < arrival) {
+				low = middle + 1;
+			} else if (number > arrival) {
+				high = middle - 1;
+			} else {
+				return chunks[middle >>> CHUNK_SHIFT][middle & CHUNK_MASK] == null ? -1 : middle;
+			}
+		}
+		return -1;
+	}
+
+	
+	/**
+	 * Return a chunk that no snapshot reads, copying it if needed
+	 * 
+	 * @param chunk Index of the chunk
+	 * @return Return the chunk's patients
+	 */
+	private Patient[] writable(int chunk) {
+		if (shared[chunk]) {
+			chunks[chunk] = chunks[chunk].clone();
+			shared[chunk] = false;
+		}
+		return chunks[chunk];
+	}
+
+	
+	/**
+	 * Move the patients to new chunks without the cleared positions.
+	 * Snapshots keep the old chunks.
+	 */
+	private void compact() {
+		Patient[][] oldChunks = chunks;
+		int oldLength = length;
+		int needed = Math.max(1, (count + CHUNK_MASK) >>> CHUNK_SHIFT);
+		chunks = new Patient[needed][];
+		numbers = new int[needed][];
+		shared = new boolean[needed];
+		length = 0;
+		count = 0;
+		for (int position = 0; position < oldLength; position++) {
+			Patient patient = oldChunks[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+			if (patient != null) {
+				add(patient);
+			}
+		}
+	}
+
+	
+	/**
+	 * This is a point-in-time view of the log in arrival order.
+	 */
+	public static class Snapshot implements Iterable<Patient> {
+
+		private final Patient[][] chunks; // chunks of the log when it was taken
+		private final int length;         // positions used when it was taken
+		private final int count;          // patients when it was taken
+
+	
+		/**
+		 * Creates a snapshot.
+		 * 
+		 * @param chunks Chunks of the log
+		 * @param length Positions used
+		 * @param count  Number of patients
+		 */
+		private Snapshot(Patient[][] chunks, int length, int count) {
+			this.chunks = chunks;
+			this.length = length;
+			this.count = count;
+		}
+
+	
+		/**
+		 * Return the number of patients in the snapshot
+		 * 
+		 * @return Return the number of patients
+		 */
+		public int size() {
+			return count;
+		}
+
+	
+		/**
+		 * Return an iterator over the patients in arrival order
+		 * 
+		 * @return Return the iterator
+		 */
+		@Override
+		public Iterator<Patient> iterator() {
+			return new Cursor(chunks, length);
+		}
+	}
+
+	
+	/**
+	 * This is an iterator over the positions of some chunks that skips the
+	 * cleared positions.
+	 */
+	private static class Cursor implements Iterator<Patient> {
+
+		private final Patient[][] chunks; // chunks to walk
+		private final int length;         // positions to walk
+		private int position;             // position of the next patient, length if none
+
+	
+		/**
+		 * Creates an iterator at the first patient.
+		 * 
+		 * @param chunks Chunks to walk
+		 * @param length Positions to walk
+		 */
+		private Cursor(Patient[][] chunks, int length) {
+			this.chunks = chunks;
+			this.length = length;
+			this.position = -1;
+			advance();
+		}
+
+	
+		/**
+		 * Check if there is another patient
+		 * 
+		 * @return Return true if there is another patient, otherwise false
+		 */
+		@Override
+		public boolean hasNext() {
+			return position < length;
+		}
+
+	
+		/**
+		 * Return the next patient
+		 * 
+		 * @return Return the next patient
+		 */
+		@Override
+		public Patient next() {
+			if (position >= length) {
+				throw new NoSuchElementException();
+			}
+			Patient patient = chunks[position >>> CHUNK_SHIFT][position & CHUNK_MASK];
+			advance();
+			return patient;
+		}
+
+	
+		/**
+		 * Move to the next position that holds a patient
+		 */
+		private void advance() {
+			position++;
+			while (position < length && chunks[position >>> CHUNK_SHIFT][position & CHUNK_MASK] == null) {
+				position++;
+			}
+		}
+	}
+
+}
@@ -0,0 +1,544 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
+
+/**
+ * This is a triage queue that keeps one FIFO ring buffer per priority code.
+ * Arrival numbers only grow, so a patient added to a ring is always behind
+ * every patient already in it and add, peek and dequeue take O(1) time.
+ * 
+ * A re-triaged patient keeps the old arrival number, so it cannot simply be
+ * appended to the new ring. It goes into a small per-level heap ordered by
+ * arrival instead, and the entry left in the old level is invalidated lazily:
+ * it is skipped and thrown away when it reaches the front. A patient removed
+ * without being seen leaves a stale entry the same way. Once stale entries
+ * outnumber the waiting patients, the levels are rebuilt from the waiting
+ * patients in linear time.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class BucketPatientQueue implements TriageQueue {
+
+	private static final int LEVELS = 4; // immediate, emergency, urgent, minimal
+	
+	private Ring[] rings;                         // patients in arrival order
+	private PriorityQueue<Patient>[] retriaged;   // re-triaged patients by arrival
+	private HashMap<Integer, Patient> live;       // arrival number -> current entry
+	private ArrivalLog log;                       // current entries in arrival order
+	private int nextPatientNumber;                // num assigned to next added patient
+	private NameIndex nameIndex;                  // waiting patients by name
+	private int staleEntries;                     // entries skipped once at the front
+
+	
+	/**
+	 * Creates an empty triage system with no patients.
+	 */
+	@SuppressWarnings("unchecked")
+	public BucketPatientQueue() {
+		this.rings = new Ring[LEVELS];
+		this.retriaged = (PriorityQueue<Patient>[]) new PriorityQueue<?>[LEVELS];
+		for (int i = 0; i < LEVELS; i++) {
+			rings[i] = new Ring();
+			retriaged[i] = new PriorityQueue<Patient>();
+		}
+		this.live = new HashMap<Integer, Patient>();
+		this.log = new ArrivalLog();
+		this.nextPatientNumber = 1;
+		this.nameIndex = new NameIndex(false);
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients in arrival order
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		ArrayList<Patient> copy = new ArrayList<Patient>(live.size());
+		for (Patient patient : log) {
+			copy.add(patient);
+		}
+		return copy;
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return log::iterator;
+	}
+
+	
+	/**
+	 * Return a snapshot of the waiting patients in arrival order, which
+	 * shares the chunks of the arrival log instead of copying the patients
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		return log.snapshot();
+	}
+
+	
+	/**
+	 * Add a patient to the end of the ring for its priority code
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time to the end of the ring for
+	 * its priority code
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		checkPriority(priorityCode);
+		Patient toAdd = new Patient(priorityCode, nextPatientNumber, patientName, arrivalTime);
+		rings[priorityCode - 1].add(toAdd);
+		live.put(nextPatientNumber, toAdd);
+		log.add(toAdd);
+		nameIndex.add(patientName, nextPatientNumber);
+		nextPatientNumber++;
+	}
+
+	
+	/**
+	 * Add a batch of patients in the given order
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			addPatient(priorityCodes[i], patientNames[i], arrivalTime);
+		}
+	}
+
+	
+	/**
+	 * Return the patient that will be seen next
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient peek() {
+		for (int level = 0; level < LEVELS; level++) {
+			Patient head = head(level);
+			if (head != null) {
+				return head;
+			}
+		}
+		return null;
+	}
+
+	
+	/**
+	 * Return the next k patients in the order they will be seen. Each level
+	 * merges its ring, which is already in arrival order, with a sorted copy
+	 * of its re-triaged patients, which are few, skipping stale entries.
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		ArrayList<Patient> next = new ArrayList<Patient>(Math.max(0, Math.min(k, live.size())));
+		for (int level = 0; level < LEVELS && next.size() < k; level++) {
+			Ring ring = rings[level];
+			Patient[] late = retriaged[level].toArray(new Patient[0]);
+			Arrays.sort(late);
+			int i = 0;
+			int j = 0;
+			while (next.size() < k && (i < ring.size() || j < late.length)) {
+				Patient entry;
+				if (j == late.length || (i < ring.size()
+						&& ring.get(i).getArrivalOrder() < late[j].getArrivalOrder())) {
+					entry = ring.get(i++);
+				} else {
+					entry = late[j++];
+				}
+				if (!isStale(entry)) {
+					next.add(entry);
+				}
+			}
+		}
+		return next;
+	}
+
+	
+	/**
+	 * Remove the patient that will be seen next
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		for (int level = 0; level < LEVELS; level++) {
+			Patient head = head(level);
+			if (head != null) {
+				// head() has already dropped the stale entries in front
+				if (head == rings[level].peek()) {
+					rings[level].poll();
+				} else {
+					retriaged[level].poll();
+				}
+				live.remove(head.getArrivalOrder());
+				log.remove(head.getArrivalOrder());
+				nameIndex.remove(head.getArrivalOrder());
+				return head;
+			}
+		}
+		return null;
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number. Its entry is left
+	 * behind and skipped once it is stale.
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		Patient removed = markRemoved(arrivalId);
+		if (staleEntries > live.size()) {
+			rebuild();
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Remove a batch of patients, leaving their entries behind, and rebuild
+	 * the levels at most once at the end
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (int i = 0; i < count; i++) {
+			Patient patient = markRemoved(arrivalIds[i]);
+			if (patient != null) {
+				removed.add(patient);
+			}
+		}
+		if (staleEntries > live.size()) {
+			rebuild();
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number. The
+	 * entry in the old level is left behind and skipped once it is stale.
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		checkPriority(newPriority);
+		Patient old = live.get(arrivalId);
+		if (old == null) {
+			return false;
+		}
+		Patient changed = new Patient(newPriority, arrivalId, old.getName(), old.getArrivalTime());
+		live.put(arrivalId, changed);
+		log.set(changed);
+		retriaged[newPriority - 1].add(changed);
+		staleEntries++;
+		if (staleEntries > live.size()) {
+			rebuild();
+		}
+		return true;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		return live.get(arrivalId);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (int arrival : nameIndex.find(prefix, limit)) {
+			found.add(live.get(arrival));
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber;
+	}
+
+	
+	/**
+	 * Replace the contents of the queue with the given patients, keeping their
+	 * arrival numbers
+	 * 
+	 * @param waiting           The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> waiting, int nextPatientNumber) {
+		ArrayList<Patient> byArrival = new ArrayList<Patient>(waiting);
+		byArrival.sort(Comparator.comparingInt(Patient::getArrivalOrder));
+		live.clear();
+		log.clear();
+		nameIndex.clear();
+		for (Patient patient : byArrival) {
+			checkPriority(patient.getPriorityCode());
+			live.put(patient.getArrivalOrder(), patient);
+			log.add(patient);
+			nameIndex.add(patient.getName(), patient.getArrivalOrder());
+		}
+		rebuild();
+		this.nextPatientNumber = nextPatientNumber;
+	}
+
+	
+	/**
+	 * Return the metrics the queue records
+	 * 
+	 * @return Return null, this queue is not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return null;
+	}
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	@Override
+	public int size() {
+		return live.size();
+	}
+
+	
+	/**
+	 * Take the patient with the given arrival number out of the waiting
+	 * patients, leaving its entry behind as a stale one
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	private Patient markRemoved(int arrivalId) {
+		Patient removed = live.remove(arrivalId);
+		if (removed != null) {
+			log.remove(arrivalId);
+			nameIndex.remove(arrivalId);
+			staleEntries++;
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Put every waiting patient back into the ring of its level in arrival
+	 * order, dropping all stale and re-triaged entries
+	 */
+	private void rebuild() {
+		for (int i = 0; i < LEVELS; i++) {
+			rings[i] = new Ring();
+			retriaged[i].clear();
+		}
+		for (Patient patient : log) {
+			rings[patient.getPriorityCode() - 1].add(patient);
+		}
+		staleEntries = 0;
+	}
+
+	
+	/**
+	 * Return the first valid patient of a level, dropping stale entries
+	 * 
+	 * @param level Index of the priority level
+	 * @return Return the first patient of the level, Return null if it is empty
+	 */
+	private Patient head(int level) {
+		Ring ring = rings[level];
+		while (ring.peek() != null && isStale(ring.peek())) {
+			ring.poll();
+			staleEntries--;
+		}
+		PriorityQueue<Patient> late = retriaged[level];
+		while (late.peek() != null && isStale(late.peek())) {
+			late.poll();
+			staleEntries--;
+		}
+		
+		Patient first = ring.peek();
+		Patient second = late.peek();
+		if (first == null) {
+			return second;
+		} else if (second == null) {
+			return first;
+		} else {
+			return first.getArrivalOrder() < second.getArrivalOrder() ? first : second;
+		}
+	}
+
+	
+	/**
+	 * Check if an entry was replaced by a change or already dequeued
+	 * 
+	 * @param entry The entry to check
+	 * @return Return true if the entry is no longer current, otherwise false
+	 */
+	private boolean isStale(Patient entry) {
+		return live.get(entry.getArrivalOrder()) != entry;
+	}
+
+	
+	/**
+	 * Check if the priority code is one of the accepted codes
+	 * 
+	 * @param priorityCode The priority code to check
+	 */
+	private static void checkPriority(int priorityCode) {
+		if (priorityCode < 1 || priorityCode > LEVELS) {
+			throw new IllegalArgumentException("invalid priority code: " + priorityCode);
+		}
+	}
+
+	
+	/**
+	 * This is a growable FIFO ring buffer of patients.
+	 */
+	private static class Ring {
+		
+		private Patient[] items = new Patient[16]; // circular storage
+		private int head;                          // index of the first item
+		private int count;                         // number of items
+
+		
+		/**
+		 * Add a patient to the end of the ring
+		 * 
+		 * @param patient The patient to add
+		 */
+		void add(Patient patient) {
+			if (count == items.length) {
+				Patient[] bigger = new Patient[items.length * 2];
+				for (int i = 0; i < count; i++) {
+					bigger[i] = items[(head + i) % items.length];
+				}
+				items = bigger;
+				head = 0;
+			}
+			items[(head + count) % items.length] = patient;
+			count++;
+		}
+
+		
+		/**
+		 * Return the first patient of the ring
+		 * 
+		 * @return Return the first patient, Return null if the ring is empty
+		 */
+		Patient peek() {
+			return count == 0 ? null : items[head];
+		}
+
+		
+		/**
+		 * Return a patient of the ring
+		 * 
+		 * @param index Position from the front of the ring
+		 * @return Return the patient at the position
+		 */
+		Patient get(int index) {
+			return items[(head + index) % items.length];
+		}
+
+		
+		/**
+		 * Return the number of patients in the ring
+		 * 
+		 * @return Return the number of patients in the ring
+		 */
+		int size() {
+			return count;
+		}
+
+		
+		/**
+		 * Remove the first patient of the ring
+		 * 
+		 * @return Return the first patient, Return null if the ring is empty
+		 */
+		Patient poll() {
+			if (count == 0) {
+				return null;
+			}
+			Patient first = items[head];
+			items[head] = null;
+			head = (head + 1) % items.length;
+			count--;
+			return first;
+		}
+	}
+
+}
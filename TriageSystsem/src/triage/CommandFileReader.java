@@ -0,0 +1,332 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * This is a reader for large files of commands. The file is read in blocks
+ * of whole lines, and each block is parsed on a fork-join pool into a chunk
+ * of compact command records while the next blocks are read. Chunks are
+ * handed out in file order, so the caller can apply them one at a time on a
+ * single thread exactly as if the lines were read one by one.
+ * 
+ * Lines end with "\n", "\r\n" or "\r" like for BufferedReader.readLine().
+ * Only a few blocks are parsed ahead, so the memory used does not depend on
+ * the size of the file.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class CommandFileReader implements Closeable {
+
+	static final byte ADD = 0;    // add with a valid priority word and a name
+	static final byte NEXT = 1;   // next without a shard number
+	static final byte CHANGE = 2; // change with an arrival number and a priority word
+	static final byte OTHER = 3;  // any other line, to run as typed
+
+	private static final int BLOCK_BYTES = 1024 * 1024;
+
+	private FileChannel channel;                   // the open file
+	private Charset charset;                       // encoding of the file
+	private ForkJoinPool pool;                     // pool that parses the blocks
+	private ArrayDeque<ForkJoinTask<Chunk>> ahead; // blocks being parsed, in file order
+	private int maxAhead;                          // most blocks parsed at once
+	private byte[] carry;                          // block holding the unfinished line
+	private int carryFrom;                         // start of the unfinished line
+	private int carryLength;                       // bytes of the unfinished line
+	private boolean endOfFile;                     // true once the last block was read
+
+	
+	/**
+	 * Opens a file of commands.
+	 * 
+	 * @param file    The file to read
+	 * @param charset Encoding of the file
+	 * @param pool    The pool to parse blocks on
+	 * @throws IOException
+	 */
+	public CommandFileReader(Path file, Charset charset, ForkJoinPool pool) throws IOException {
+		if (Files.isDirectory(file)) {
+			throw new FileNotFoundException(file + " (Is a directory)");
+		}
+		this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		this.charset = charset;
+		this.pool = pool;
+		this.ahead = new ArrayDeque<>();
+		this.maxAhead = 2 * pool.getParallelism() + 1;
+		this.carry = new byte[0];
+	}
+
+	
+	/**
+	 * Return the next chunk of commands in file order, waiting for it to be
+	 * parsed
+	 * 
+	 * @return Return the next chunk, Return null at the end of the file
+	 * @throws IOException
+	 */
+	public Chunk next() throws IOException {
+		while (!endOfFile && ahead.size() < maxAhead) {
+			ahead.add(pool.submit(readBlock()));
+		}
+		ForkJoinTask<Chunk> oldest = ahead.poll();
+		return oldest == null ? null : oldest.join();
+	}
+
+	
+	/**
+	 * Close the file
+	 * 
+	 * @throws IOException
+	 */
+	@Override
+	public void close() throws IOException {
+		ahead.clear();
+		channel.close();
+	}
+
+	
+	/**
+	 * Read the next block of whole lines. A line that does not fit in a
+	 * block makes the block grow.
+	 * 
+	 * @return Return the task that parses the block
+	 * @throws IOException
+	 */
+	private ParseTask readBlock() throws IOException {
+		byte[] block = new byte[Math.max(BLOCK_BYTES, 2 * carryLength)];
+		System.arraycopy(carry, carryFrom, block, 0, carryLength);
+		int filled = carryLength;
+		while (true) {
+			int read = 0;
+			while (filled < block.length
+			       && (read = channel.read(ByteBuffer.wrap(block, filled, block.length - filled))) >= 0) {
+				filled += read;
+			}
+			if (read < 0) {
+				endOfFile = true;
+				carryLength = 0;
+				return new ParseTask(block, filled, charset);
+			}
+
+			// Keep the unfinished last line for the next block
+			int end = filled;
+			while (end > 0 && block[end - 1] != '\n') {
+				end--;
+			}
+			if (end > 0) {
+				carry = block;
+				carryFrom = end;
+				carryLength = filled - end;
+				return new ParseTask(block, end, charset);
+			}
+			block = Arrays.copyOf(block, block.length * 2);
+		}
+	}
+
+	
+	/**
+	 * This is the task that parses one block of lines.
+	 */
+	private static class ParseTask extends RecursiveTask<Chunk> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final byte[] block;     // bytes of the lines
+		private final int length;       // number of bytes to parse
+		private final Charset charset;  // encoding of the lines
+
+	
+		/**
+		 * Creates a task for a block of lines.
+		 * 
+		 * @param block   Bytes of the lines
+		 * @param length  Number of bytes to parse
+		 * @param charset Encoding of the lines
+		 */
+		private ParseTask(byte[] block, int length, Charset charset) {
+			this.block = block;
+			this.length = length;
+			this.charset = charset;
+		}
+
+	
+		/**
+		 * Parse every line of the block
+		 * 
+		 * @return Return the chunk of commands
+		 */
+		@Override
+		protected Chunk compute() {
+			Chunk chunk = new Chunk(length / 24 + 16);
+			CommandTokenizer tokens = new CommandTokenizer();
+			int from = 0;
+			while (from < length) {
+				int to = from;
+				while (to < length && block[to] != '\n' && block[to] != '\r') {
+					to++;
+				}
+				chunk.parse(new String(block, from, to - from, charset), tokens);
+				if (to + 1 < length && block[to] == '\r' && block[to + 1] == '\n') {
+					to++;
+				}
+				from = to + 1;
+			}
+			return chunk;
+		}
+	}
+
+	
+	/**
+	 * This is a chunk of parsed commands, one record for every line. A record
+	 * is its kind, a priority code and an arrival number, and a text that is
+	 * the name for ADD and the whole line for the other kinds.
+	 */
+	public static class Chunk {
+
+		private byte[] kinds;     // kind of each record
+		private int[] codes;      // priority code for ADD and CHANGE, -1 if not valid
+		private int[] arrivals;   // arrival number for CHANGE, -1 if not a number
+		private String[] texts;   // name for ADD, otherwise the line
+		private int count;        // number of records
+
+	
+		/**
+		 * Creates an empty chunk.
+		 * 
+		 * @param capacity Number of records to make room for
+		 */
+		private Chunk(int capacity) {
+			this.kinds = new byte[capacity];
+			this.codes = new int[capacity];
+			this.arrivals = new int[capacity];
+			this.texts = new String[capacity];
+		}
+
+	
+		/**
+		 * Return the number of records
+		 * 
+		 * @return Return the number of records
+		 */
+		public int size() {
+			return count;
+		}
+
+	
+		/**
+		 * Return the kind of a record
+		 * 
+		 * @param i Index of the record
+		 * @return Return ADD, NEXT, CHANGE or OTHER
+		 */
+		public byte kind(int i) {
+			return kinds[i];
+		}
+
+	
+		/**
+		 * Return the priority code of an ADD or CHANGE record
+		 * 
+		 * @param i Index of the record
+		 * @return Return the priority code, -1 if the word was not valid
+		 */
+		public int code(int i) {
+			return codes[i];
+		}
+
+	
+		/**
+		 * Return the arrival number of a CHANGE record
+		 * 
+		 * @param i Index of the record
+		 * @return Return the arrival number, -1 if it was not a number
+		 */
+		public int arrival(int i) {
+			return arrivals[i];
+		}
+
+	
+		/**
+		 * Return the name of an ADD record or the line of any other record
+		 * 
+		 * @param i Index of the record
+		 * @return Return the name or the line
+		 */
+		public String text(int i) {
+			return texts[i];
+		}
+
+	
+		/**
+		 * Parse a line into a record the way the command handlers would read it
+		 * 
+		 * @param line   The line
+		 * @param tokens Tokenizer to reuse
+		 */
+		private void parse(String line, CommandTokenizer tokens) {
+			if (tokens.reset(line).next()) {
+				if (tokens.tokenEquals("add")) {
+					int code = tokens.next() ? tokens.priorityCode() : -1;
+					String name = code != -1 ? tokens.rest() : "";
+					if (!name.isEmpty()) {
+						add(ADD, code, -1, name);
+						return;
+					}
+				} else if (tokens.tokenEquals("next")) {
+					if (!tokens.hasNext()) {
+						add(NEXT, -1, -1, line);
+						return;
+					}
+				} else if (tokens.tokenEquals("change") && tokens.next()) {
+					int arrival = tokens.tokenAsInt();
+					if (tokens.next()) {
+						add(CHANGE, tokens.priorityCode(), arrival, line);
+						return;
+					}
+				}
+			}
+			add(OTHER, -1, -1, line);
+		}
+
+	
+		/**
+		 * Append a record, growing the arrays if needed
+		 * 
+		 * @param kind    Kind of the record
+		 * @param code    Priority code
+		 * @param arrival Arrival number
+		 * @param text    Name or line
+		 */
+		private void add(byte kind, int code, int arrival, String text) {
+			if (count == kinds.length) {
+				int capacity = count * 2;
+				kinds = Arrays.copyOf(kinds, capacity);
+				codes = Arrays.copyOf(codes, capacity);
+				arrivals = Arrays.copyOf(arrivals, capacity);
+				texts = Arrays.copyOf(texts, capacity);
+			}
+			kinds[count] = kind;
+			codes[count] = code;
+			arrivals[count] = arrival;
+			texts[count] = text;
+			count++;
+		}
+	}
+
+}
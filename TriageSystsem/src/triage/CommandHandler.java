@@ -0,0 +1,28 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.io.PrintStream;
+
+/**
+ * This is a command of the triage system. The tokenizer is positioned on the
+ * command name, so the handler reads its arguments with next().
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public interface CommandHandler {
+
+	/**
+	 * Execute the command
+	 * 
+	 * @param args     Tokenizer positioned on the command name
+	 * @param priQueue Priority queue to operate on
+	 * @param out      Where to write the command's output
+	 * @throws IOException
+	 */
+	void execute(CommandTokenizer args, TriageQueue priQueue, PrintStream out) throws IOException;
+
+}
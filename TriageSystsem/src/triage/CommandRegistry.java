@@ -0,0 +1,67 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.Arrays;
+
+/**
+ * This is the table of commands of the triage system. The table is small, so
+ * a command is found by comparing the current token with each name in place,
+ * without creating a String for the token.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class CommandRegistry {
+
+	private String[] names;            // command names
+	private CommandHandler[] handlers; // handler of each command
+	private int count;                 // number of commands
+
+	
+	/**
+	 * Creates an empty registry.
+	 */
+	public CommandRegistry() {
+		this.names = new String[16];
+		this.handlers = new CommandHandler[16];
+		this.count = 0;
+	}
+
+	
+	/**
+	 * Register a command
+	 * 
+	 * @param name    The command name
+	 * @param handler The handler of the command
+	 * @return Return this registry
+	 */
+	public CommandRegistry register(String name, CommandHandler handler) {
+		if (count == names.length) {
+			names = Arrays.copyOf(names, count * 2);
+			handlers = Arrays.copyOf(handlers, count * 2);
+		}
+		names[count] = name;
+		handlers[count] = handler;
+		count++;
+		return this;
+	}
+
+	
+	/**
+	 * Find the handler of the command named by the current token
+	 * 
+	 * @param tokens Tokenizer positioned on the command name
+	 * @return Return the handler, Return null if the command is not known
+	 */
+	public CommandHandler find(CommandTokenizer tokens) {
+		for (int i = 0; i < count; i++) {
+			if (tokens.tokenEquals(names[i])) {
+				return handlers[i];
+			}
+		}
+		return null;
+	}
+
+}
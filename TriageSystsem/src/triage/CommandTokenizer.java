@@ -0,0 +1,238 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+
+/**
+ * This is a reusable tokenizer for command lines. It walks over a
+ * CharSequence and only remembers where the current token starts and ends,
+ * so comparing and parsing tokens does not create any objects. Tokens are
+ * separated by spaces or tabs.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class CommandTokenizer {
+
+	// Constant for the priority words, index + 1 is the priority code
+	private static final String[] PRIORITY_WORDS = {"immediate", "emergency", "urgent", "minimal"};
+	
+	private CharSequence line;  // line being tokenized
+	private int start;          // start of the current token
+	private int end;            // end of the current token, exclusive
+
+	
+	/**
+	 * Creates a tokenizer with no line.
+	 */
+	public CommandTokenizer() {
+		reset("");
+	}
+
+	
+	/**
+	 * Start tokenizing a new line
+	 * 
+	 * @param newLine The line to tokenize
+	 * @return Return this tokenizer
+	 */
+	public CommandTokenizer reset(CharSequence newLine) {
+		this.line = newLine;
+		this.start = 0;
+		this.end = 0;
+		return this;
+	}
+
+	
+	/**
+	 * Return the line being tokenized
+	 * 
+	 * @return Return the line being tokenized
+	 */
+	public CharSequence line() {
+		return line;
+	}
+
+	
+	/**
+	 * Move to the next token
+	 * 
+	 * @return Return true if there was another token, otherwise false
+	 */
+	public boolean next() {
+		int i = end;
+		while (i < line.length() && isSeparator(line.charAt(i))) {
+			i++;
+		}
+		if (i == line.length()) {
+			start = i;
+			end = i;
+			return false;
+		}
+		start = i;
+		while (i < line.length() && !isSeparator(line.charAt(i))) {
+			i++;
+		}
+		end = i;
+		return true;
+	}
+
+	
+	/**
+	 * Check if there is another token after the current one
+	 * 
+	 * @return Return true if there is another token, otherwise false
+	 */
+	public boolean hasNext() {
+		for (int i = end; i < line.length(); i++) {
+			if (!isSeparator(line.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	
+	/**
+	 * Check if the current token is the given word
+	 * 
+	 * @param word The word to compare with
+	 * @return Return true if the token matches exactly, otherwise false
+	 */
+	public boolean tokenEquals(String word) {
+		return end - start == word.length() && regionMatches(false, word);
+	}
+
+	
+	/**
+	 * Check if the current token is the given word, ignoring case
+	 * 
+	 * @param word The word to compare with
+	 * @return Return true if the token matches ignoring case, otherwise false
+	 */
+	public boolean tokenEqualsIgnoreCase(String word) {
+		return end - start == word.length() && regionMatches(true, word);
+	}
+
+	
+	/**
+	 * Return the priority code the current token stands for
+	 * 
+	 * @return Return the priority code, Return -1 if the token is not a
+	 *         priority word
+	 */
+	public int priorityCode() {
+		for (int i = 0; i < PRIORITY_WORDS.length; i++) {
+			if (tokenEqualsIgnoreCase(PRIORITY_WORDS[i])) {
+				return i + 1;
+			}
+		}
+		return -1;
+	}
+
+	
+	/**
+	 * Return the priority word for a priority code
+	 * 
+	 * @param priorityCode The priority code
+	 * @return Return the priority word, Return null if the code is not valid
+	 */
+	public static String priorityWord(int priorityCode) {
+		if (priorityCode < 1 || priorityCode > PRIORITY_WORDS.length) {
+			return null;
+		}
+		return PRIORITY_WORDS[priorityCode - 1];
+	}
+
+	
+	/**
+	 * Parse the current token as a non-negative int
+	 * 
+	 * @return Return the number, Return -1 if the token is not a number
+	 */
+	public int tokenAsInt() {
+		if (start == end || end - start > 9) {
+			return -1;
+		}
+		int value = 0;
+		for (int i = start; i < end; i++) {
+			char c = line.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	
+	/**
+	 * Return the current token as a String
+	 * 
+	 * @return Return the current token
+	 */
+	public String token() {
+		return line.subSequence(start, end).toString();
+	}
+
+	
+	/**
+	 * Return the rest of the line after the current token without the one
+	 * separator that follows it and without trailing separators
+	 * 
+	 * @return Return the rest of the line, empty if nothing is left
+	 */
+	public String rest() {
+		return rest(false);
+	}
+
+	
+	/**
+	 * Return the rest of the line after the current token without the one
+	 * separator that follows it
+	 * 
+	 * @param trailing True to keep trailing separators, false to drop them
+	 * @return Return the rest of the line, empty if nothing is left
+	 */
+	public String rest(boolean trailing) {
+		int from = Math.min(end + 1, line.length());
+		int to = line.length();
+		while (!trailing && to > from && isSeparator(line.charAt(to - 1))) {
+			to--;
+		}
+		end = line.length();
+		return line.subSequence(from, to).toString();
+	}
+
+	
+	/**
+	 * Compare the current token with a word
+	 * 
+	 * @param ignoreCase True to ignore case
+	 * @param word       The word to compare with
+	 * @return Return true if all characters match, otherwise false
+	 */
+	private boolean regionMatches(boolean ignoreCase, String word) {
+		for (int i = 0; i < word.length(); i++) {
+			char c = line.charAt(start + i);
+			char w = word.charAt(i);
+			if (c != w && (!ignoreCase || Character.toLowerCase(c) != Character.toLowerCase(w))) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	
+	/**
+	 * Check if a character separates tokens
+	 * 
+	 * @param c The character to check
+	 * @return Return true for a space or a tab, otherwise false
+	 */
+	private static boolean isSeparator(char c) {
+		return c == ' ' || c == '\t';
+	}
+
+}
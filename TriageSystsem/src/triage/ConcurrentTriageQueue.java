@@ -0,0 +1,397 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is a triage queue that may be used by several intake desks and
+ * clinicians at the same time without any locking.
+ * 
+ * Every priority code has its own lock-free skip list ordered by arrival
+ * number, so adds and dequeues on different levels do not contend. The map of
+ * live patients is the single source of truth: a patient is handed out only
+ * by the thread whose remove from that map succeeds, so nobody is seen twice,
+ * and an entry left behind in a skip list by a change is simply skipped.
+ * 
+ * Ordering is the same as the other engines for operations that do not
+ * overlap. A dequeue that runs at the same time as an add may miss the
+ * patient still being added, even when that patient has a higher priority.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class ConcurrentTriageQueue implements TriageQueue {
+
+	private static final int LEVELS = 4; // immediate, emergency, urgent, minimal
+	
+	private ConcurrentSkipListMap<Integer, Patient>[] levels; // arrival -> entry
+	private ConcurrentSkipListMap<Integer, Patient> live;     // arrival -> patient
+	private AtomicInteger waiting;                            // number of live patients
+	private AtomicInteger nextPatientNumber;                  // next arrival number
+	private NameIndex nameIndex;                              // patients by name
+
+	
+	/**
+	 * Creates an empty triage system with no patients.
+	 */
+	@SuppressWarnings("unchecked")
+	public ConcurrentTriageQueue() {
+		this.levels = (ConcurrentSkipListMap<Integer, Patient>[]) new ConcurrentSkipListMap<?, ?>[LEVELS];
+		for (int i = 0; i < LEVELS; i++) {
+			levels[i] = new ConcurrentSkipListMap<Integer, Patient>();
+		}
+		this.live = new ConcurrentSkipListMap<Integer, Patient>();
+		this.waiting = new AtomicInteger();
+		this.nextPatientNumber = new AtomicInteger(1);
+		this.nameIndex = new NameIndex(true);
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients. The copy is not a single point in
+	 * time if other threads are changing the queue.
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		return new ArrayList<Patient>(live.values());
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived. Iteration does
+	 * not block other threads and may or may not see their changes.
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return Collections.unmodifiableCollection(live.values());
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients in arrival order. The skip list
+	 * cannot be frozen, so changes made by other threads while the copy is
+	 * taken may or may not show up.
+	 * 
+	 * @return Return a copy of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		return new ArrayList<Patient>(live.values());
+	}
+
+	
+	/**
+	 * Add a patient to the level for its priority code
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time to the level for its
+	 * priority code
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		checkPriority(priorityCode);
+		int arrival = nextPatientNumber.getAndIncrement();
+		Patient toAdd = new Patient(priorityCode, arrival, patientName, arrivalTime);
+		waiting.incrementAndGet();
+		nameIndex.add(patientName, arrival);
+		live.put(arrival, toAdd);
+		publish(toAdd);
+	}
+
+	
+	/**
+	 * Add a batch of patients in the given order
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			addPatient(priorityCodes[i], patientNames[i], arrivalTime);
+		}
+	}
+
+	
+	/**
+	 * Return the patient that will be seen next
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient peek() {
+		for (int level = 0; level < LEVELS; level++) {
+			for (Patient entry : levels[level].values()) {
+				if (live.get(entry.getArrivalOrder()) == entry) {
+					return entry;
+				}
+			}
+		}
+		return null;
+	}
+
+	
+	/**
+	 * Return the next k patients in the order they will be seen. The view is
+	 * not a single point in time if other threads are changing the queue.
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		ArrayList<Patient> next = new ArrayList<Patient>();
+		for (int level = 0; level < LEVELS && next.size() < k; level++) {
+			for (Patient entry : levels[level].values()) {
+				if (next.size() == k) {
+					break;
+				} else if (live.get(entry.getArrivalOrder()) == entry) {
+					next.add(entry);
+				}
+			}
+		}
+		return next;
+	}
+
+	
+	/**
+	 * Remove the patient that will be seen next
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		for (int level = 0; level < LEVELS; level++) {
+			Map.Entry<Integer, Patient> entry = levels[level].pollFirstEntry();
+			while (entry != null) {
+				// Only one thread can win the remove for a live patient
+				if (live.remove(entry.getKey(), entry.getValue())) {
+					waiting.decrementAndGet();
+					nameIndex.remove(entry.getKey());
+					return entry.getValue();
+				}
+				entry = levels[level].pollFirstEntry();
+			}
+		}
+		return null;
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number. As with dequeue, only
+	 * the thread whose remove from the live map succeeds gets the patient.
+	 * The skip lists unlink their entry lazily on their own, so no tombstone
+	 * is needed here.
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		while (true) {
+			Patient old = live.get(arrivalId);
+			if (old == null) {
+				return null;
+			}
+			if (live.remove(arrivalId, old)) {
+				waiting.decrementAndGet();
+				nameIndex.remove(arrivalId);
+				levels[old.getPriorityCode() - 1].remove(arrivalId, old);
+				return old;
+			}
+		}
+	}
+
+	
+	/**
+	 * Remove a batch of patients
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (int i = 0; i < count; i++) {
+			Patient patient = removeByArrival(arrivalIds[i]);
+			if (patient != null) {
+				removed.add(patient);
+			}
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		checkPriority(newPriority);
+		while (true) {
+			Patient old = live.get(arrivalId);
+			if (old == null) {
+				return false;
+			}
+			Patient changed = new Patient(newPriority, arrivalId, old.getName(), old.getArrivalTime());
+			if (live.replace(arrivalId, old, changed)) {
+				levels[old.getPriorityCode() - 1].remove(arrivalId, old);
+				publish(changed);
+				return true;
+			}
+		}
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		return live.get(arrivalId);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces. A patient that is
+	 * being added or dequeued by another thread may be left out
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (int arrival : nameIndex.find(prefix, limit)) {
+			Patient patient = live.get(arrival);
+			if (patient != null) {
+				found.add(patient);
+			}
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber.get();
+	}
+
+	
+	/**
+	 * Replace the contents of the queue with the given patients, keeping their
+	 * arrival numbers. Must not run while other threads use the queue.
+	 * 
+	 * @param restored          The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> restored, int nextPatientNumber) {
+		for (int i = 0; i < LEVELS; i++) {
+			levels[i].clear();
+		}
+		live.clear();
+		nameIndex.clear();
+		for (Patient patient : restored) {
+			checkPriority(patient.getPriorityCode());
+			nameIndex.add(patient.getName(), patient.getArrivalOrder());
+			live.put(patient.getArrivalOrder(), patient);
+			levels[patient.getPriorityCode() - 1].put(patient.getArrivalOrder(), patient);
+		}
+		this.waiting.set(restored.size());
+		this.nextPatientNumber.set(nextPatientNumber);
+	}
+
+	
+	/**
+	 * Return the metrics the queue records
+	 * 
+	 * @return Return null, this queue is not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return null;
+	}
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	@Override
+	public int size() {
+		return waiting.get();
+	}
+
+	
+	/**
+	 * Put a live patient into the skip list for its priority code. An entry
+	 * already there is only replaced when it is no longer the live patient,
+	 * so a slower thread cannot overwrite a newer change.
+	 * 
+	 * @param patient The patient that was just made live
+	 */
+	private void publish(final Patient patient) {
+		levels[patient.getPriorityCode() - 1].compute(patient.getArrivalOrder(), (arrival, current) -> {
+			if (current != null && live.get(arrival) == current) {
+				return current;
+			}
+			return patient;
+		});
+	}
+
+	
+	/**
+	 * Check if the priority code is one of the accepted codes
+	 * 
+	 * @param priorityCode The priority code to check
+	 */
+	private static void checkPriority(int priorityCode) {
+		if (priorityCode < 1 || priorityCode > LEVELS) {
+			throw new IllegalArgumentException("invalid priority code: " + priorityCode);
+		}
+	}
+
+}
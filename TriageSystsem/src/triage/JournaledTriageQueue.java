@@ -0,0 +1,668 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This is a triage queue that writes every change of another queue to a
+ * write-ahead journal, so the waiting room survives the program dying.
+ * 
+ * The journal directory holds checkpoint-N.bin, a snapshot of the queue at the
+ * start of journal generation N, and journal-N.log with the operations since.
+ * A checkpoint starts a new generation and then deletes the old files, so
+ * recovery loads the newest checkpoint and replays only the journals after it.
+ * 
+ * Journal records are committed in groups by a background flusher thread,
+ * every flush interval or as soon as a group fills up, so an operation may be
+ * lost if the machine fails within one flush interval of it. The flusher also
+ * writes the periodic checkpoints. Changes only copy the queue and switch the
+ * journal under the lock, and nothing under the lock waits for the device.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class JournaledTriageQueue implements TriageQueue {
+
+	private static final int GROUP_BYTES = 1 << 16;
+	private static final long FLUSH_MILLIS = 10;
+	private static final long CHECKPOINT_OPERATIONS = 1000000;
+	
+	private TriageQueue queue;                 // the queue that holds the patients
+	private Path directory;                    // where journals and checkpoints live
+	private volatile QueueJournal journal;     // journal of the current generation
+	private int generation;                    // current generation number
+	private long operations;                   // operations since the last checkpoint
+	private ScheduledExecutorService flusher;  // commits the journal and writes checkpoints
+	private ConcurrentLinkedQueue<QueueJournal> finished; // journals of finished generations, oldest first
+	private volatile boolean flushQueued;      // true if a flush for a full group is queued
+	private int recoveredOperations;           // operations replayed on open
+	private long recoveryMillis;               // time spent recovering on open
+
+	
+	/**
+	 * Creates a journaled queue. Use open() to recover an existing journal.
+	 * 
+	 * @param queue     The queue that holds the patients
+	 * @param directory Where journals and checkpoints live
+	 */
+	private JournaledTriageQueue(TriageQueue queue, Path directory) {
+		this.queue = queue;
+		this.directory = directory;
+		this.finished = new ConcurrentLinkedQueue<QueueJournal>();
+	}
+
+	
+	/**
+	 * Recover the queue state kept in a journal directory into an empty queue
+	 * and keep journaling every change made through the returned queue
+	 * 
+	 * @param queue     An empty queue to recover into
+	 * @param directory Where journals and checkpoints live, created if needed
+	 * @return Return the journaled queue
+	 * @throws IOException if the directory cannot be used or is damaged
+	 */
+	public static JournaledTriageQueue open(TriageQueue queue, Path directory) throws IOException {
+		JournaledTriageQueue journaled = new JournaledTriageQueue(queue, directory);
+		journaled.recover();
+		return journaled;
+	}
+
+	
+	/**
+	 * Return the number of journal operations replayed when the queue was opened
+	 * 
+	 * @return Return the number of replayed operations
+	 */
+	public int getRecoveredOperations() {
+		return recoveredOperations;
+	}
+
+	
+	/**
+	 * Return how long recovery took when the queue was opened
+	 * 
+	 * @return Return the recovery time in milliseconds
+	 */
+	public long getRecoveryMillis() {
+		return recoveryMillis;
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	@Override
+	public synchronized ArrayList<Patient> getCopyList() {
+		return queue.getCopyList();
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public synchronized Iterable<Patient> arrivalOrder() {
+		return queue.arrivalOrder();
+	}
+
+	
+	/**
+	 * Return a snapshot of the waiting patients in arrival order, which can
+	 * be iterated without holding the lock of the journal
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	@Override
+	public synchronized Iterable<Patient> arrivalSnapshot() {
+		return queue.arrivalSnapshot();
+	}
+
+	
+	/**
+	 * Add a patient and journal it
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public synchronized void addPatient(int priorityCode, String patientName) {
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time and journal it
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public synchronized void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		int arrival = queue.getNextPatientNumber();
+		queue.addPatient(priorityCode, patientName, arrivalTime);
+		journal.add(priorityCode, arrival, patientName, arrivalTime);
+		operationDone(1);
+	}
+
+	
+	/**
+	 * Add a batch of patients and journal them. The engines stamp a batch
+	 * with a single arrival time, which is read back from the first patient.
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public synchronized void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		int arrival = queue.getNextPatientNumber();
+		queue.addPatients(priorityCodes, patientNames, count);
+		if (count == 0) {
+			return;
+		}
+		long arrivalTime = queue.findByArrival(arrival).getArrivalTime();
+		for (int i = 0; i < count; i++) {
+			journal.add(priorityCodes[i], arrival + i, patientNames[i], arrivalTime);
+		}
+		operationDone(count);
+	}
+
+	
+	/**
+	 * Return the patient that will be seen next
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public synchronized Patient peek() {
+		return queue.peek();
+	}
+
+	
+	/**
+	 * Return the next patients that will be seen
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public synchronized ArrayList<Patient> peek(int k) {
+		return queue.peek(k);
+	}
+
+	
+	/**
+	 * Remove the patient that will be seen next and journal it
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public synchronized Patient dequeue() {
+		Patient patient = queue.dequeue();
+		if (patient != null) {
+			journal.dequeue(patient.getArrivalOrder());
+			operationDone(1);
+		}
+		return patient;
+	}
+
+	
+	/**
+	 * Remove the next patient of a home shard and journal it. The home shard
+	 * is journaled with the patient, so replay takes the same patient.
+	 * 
+	 * @param home The clinician's home shard
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public synchronized Patient dequeue(int home) {
+		Patient patient = queue.dequeue(home);
+		if (patient != null) {
+			journal.dequeue(home, patient.getArrivalOrder());
+			operationDone(1);
+		}
+		return patient;
+	}
+
+	
+	/**
+	 * Return the number of shards of the journaled queue
+	 * 
+	 * @return Return the number of shards, Return 0 if the queue is not sharded
+	 */
+	@Override
+	public int getShardCount() {
+		return queue.getShardCount();
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number and journal it
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public synchronized Patient removeByArrival(int arrivalId) {
+		Patient removed = queue.removeByArrival(arrivalId);
+		if (removed != null) {
+			journal.remove(arrivalId);
+			operationDone(1);
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Remove a batch of patients and journal the ones that were waiting
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public synchronized ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = queue.removeByArrival(arrivalIds, count);
+		if (removed.isEmpty()) {
+			return removed;
+		}
+		for (Patient patient : removed) {
+			journal.remove(patient.getArrivalOrder());
+		}
+		operationDone(removed.size());
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number and
+	 * journal it
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public synchronized boolean changeByArrival(int arrivalId, int newPriority) {
+		boolean changed = queue.changeByArrival(arrivalId, newPriority);
+		if (changed) {
+			journal.change(arrivalId, newPriority);
+			operationDone(1);
+		}
+		return changed;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public synchronized Patient findByArrival(int arrivalId) {
+		return queue.findByArrival(arrivalId);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public synchronized ArrayList<Patient> findByName(String prefix, int limit) {
+		return queue.findByName(prefix, limit);
+	}
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	@Override
+	public synchronized int size() {
+		return queue.size();
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public synchronized int getNextPatientNumber() {
+		return queue.getNextPatientNumber();
+	}
+
+	
+	/**
+	 * Replace the contents of the queue and checkpoint the new state, since
+	 * the journal has no record for a restore. The checkpoint is written
+	 * before returning, because later operations are only correct on top of
+	 * it.
+	 * 
+	 * @param patients          The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public synchronized void restore(ArrayList<Patient> patients, int nextPatientNumber) {
+		queue.restore(patients, nextPatientNumber);
+		try {
+			checkpoint();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	
+	/**
+	 * Return the metrics of the underlying queue
+	 * 
+	 * @return Return the metrics, Return null if the queue is not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return queue.getMetrics();
+	}
+
+	
+	/**
+	 * Write a checkpoint of the queue and start a new journal generation
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void checkpoint() throws IOException {
+		final QueueSnapshot snapshot = QueueSnapshot.of(queue);
+		startGeneration();
+		final int started = generation;
+		if (flusher.isShutdown()) {
+			writeCheckpoint(snapshot, started);
+			return;
+		}
+		
+		// Queue behind the flusher's work so the generations reach the device in order
+		try {
+			flusher.submit(() -> {
+				writeCheckpoint(snapshot, started);
+				return null;
+			}).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while writing a checkpoint");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+
+	
+	/**
+	 * Wait for the flusher to finish, then checkpoint the queue and close the
+	 * journal
+	 * 
+	 * @throws IOException
+	 */
+	public synchronized void close() throws IOException {
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(1, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while closing the journal");
+		}
+		checkpoint();
+		journal.close();
+	}
+
+	
+	/**
+	 * Load the newest checkpoint, replay the journals after it and start
+	 * journaling
+	 * 
+	 * @throws IOException
+	 */
+	private void recover() throws IOException {
+		long start = System.nanoTime();
+		Files.createDirectories(directory);
+		
+		generation = 0;
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "checkpoint-*.bin")) {
+			for (Path file : files) {
+				generation = Math.max(generation, generationOf(file));
+			}
+		}
+		if (generation > 0) {
+			QueueSnapshot.read(checkpointFile(generation)).restoreInto(queue);
+		} else {
+			generation = 1;
+		}
+		
+		// Replay the current generation and any started by an unfinished checkpoint
+		recoveredOperations = 0;
+		while (Files.exists(journalFile(generation + 1))) {
+			recoveredOperations += QueueJournal.replay(journalFile(generation), queue);
+			generation++;
+		}
+		recoveredOperations += QueueJournal.replay(journalFile(generation), queue);
+		operations = recoveredOperations;
+		
+		journal = new QueueJournal(journalFile(generation), GROUP_BYTES);
+		flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "journal-flusher");
+			thread.setDaemon(true);
+			return thread;
+		});
+		flusher.scheduleWithFixedDelay(this::flush, FLUSH_MILLIS, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+		recoveryMillis = (System.nanoTime() - start) / 1000000;
+	}
+
+	
+	/**
+	 * Commit the journal from the background flusher, without the lock of the
+	 * queue. The journals of finished generations are closed first, so no
+	 * record of a generation reaches the device before the end of the one
+	 * before it.
+	 */
+	private void flush() {
+		flushQueued = false;
+		try {
+			QueueJournal current = journal;
+			closeFinished();
+			current.commit();
+		} catch (IOException e) {
+			System.err.println("Error: journal commit failed: " + e.getMessage());
+		}
+	}
+
+	
+	/**
+	 * Count journaled operations. A full group is handed to the flusher, and
+	 * when enough operations have piled up the queue is copied and a new
+	 * generation started, and the flusher writes the checkpoint.
+	 * 
+	 * @param count Number of operations just journaled
+	 */
+	private void operationDone(int count) {
+		operations += count;
+		if (operations >= CHECKPOINT_OPERATIONS) {
+			final QueueSnapshot snapshot = QueueSnapshot.of(queue);
+			try {
+				startGeneration();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+			final int started = generation;
+			flusher.execute(() -> {
+				try {
+					writeCheckpoint(snapshot, started);
+				} catch (IOException e) {
+					System.err.println("Error: checkpoint failed: " + e.getMessage());
+				}
+			});
+		} else if (!flushQueued && journal.isFull()) {
+			flushQueued = true;
+			flusher.execute(this::flush);
+		}
+	}
+
+	
+	/**
+	 * Start a new journal generation, whose checkpoint is the queue as it is
+	 * now, and leave the journal of the finished one for the flusher to
+	 * close. Called with the lock held.
+	 * 
+	 * @throws IOException if the new journal cannot be created
+	 */
+	private void startGeneration() throws IOException {
+		QueueJournal next = new QueueJournal(journalFile(generation + 1), GROUP_BYTES);
+		finished.add(journal);
+		journal = next;
+		generation++;
+		operations = 0;
+	}
+
+	
+	/**
+	 * Commit and close the journals of finished generations, oldest first
+	 * 
+	 * @throws IOException
+	 */
+	private void closeFinished() throws IOException {
+		QueueJournal done = finished.peek();
+		while (done != null) {
+			done.close();
+			finished.poll();
+			done = finished.peek();
+		}
+	}
+
+	
+	/**
+	 * Close the journals of finished generations, write the checkpoint that
+	 * starts a generation and delete the older files. Until the checkpoint is
+	 * in place recovery replays the finished journals too.
+	 * 
+	 * @param snapshot The queue when the generation started
+	 * @param started  The generation number
+	 * @throws IOException
+	 */
+	private void writeCheckpoint(QueueSnapshot snapshot, int started) throws IOException {
+		closeFinished();
+		
+		// Write to a temporary file first so a crash never leaves half a checkpoint
+		Path temp = directory.resolve("checkpoint-" + started + ".tmp");
+		snapshot.write(temp);
+		Files.move(temp, checkpointFile(started), StandardCopyOption.ATOMIC_MOVE);
+		
+		// The rename must be on the device before the files it replaces are gone
+		forceDirectory();
+		deleteBefore(started);
+	}
+
+	
+	/**
+	 * Force the entries of the journal directory to the device
+	 * 
+	 * @throws IOException
+	 */
+	private void forceDirectory() throws IOException {
+		try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+			channel.force(true);
+		} catch (AccessDeniedException e) {
+			// Windows cannot open a directory, and there a rename is already durable
+		}
+	}
+
+	
+	/**
+	 * Delete checkpoints and journals of generations before the given one
+	 * 
+	 * @param current The oldest generation to keep
+	 * @throws IOException
+	 */
+	private void deleteBefore(int current) throws IOException {
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				int fileGeneration = generationOf(file);
+				if (fileGeneration > 0 && fileGeneration < current) {
+					Files.delete(file);
+				}
+			}
+		}
+	}
+
+	
+	/**
+	 * Return the journal file of a generation
+	 * 
+	 * @param number The generation number
+	 * @return Return the journal file
+	 */
+	private Path journalFile(int number) {
+		return directory.resolve("journal-" + number + ".log");
+	}
+
+	
+	/**
+	 * Return the checkpoint file of a generation
+	 * 
+	 * @param number The generation number
+	 * @return Return the checkpoint file
+	 */
+	private Path checkpointFile(int number) {
+		return directory.resolve("checkpoint-" + number + ".bin");
+	}
+
+	
+	/**
+	 * Return the generation number in a journal or checkpoint file name
+	 * 
+	 * @param file The file
+	 * @return Return the generation number, Return 0 if the name has none
+	 */
+	private static int generationOf(Path file) {
+		String name = file.getFileName().toString();
+		int dash = name.indexOf('-');
+		int dot = name.indexOf('.');
+		if (dash < 0 || dot < dash) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(name.substring(dash + 1, dot));
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+}
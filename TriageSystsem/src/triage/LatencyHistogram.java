@@ -0,0 +1,187 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is a lock-free histogram of non-negative values such as latencies.
+ * Values below 16 are counted exactly; larger values fall into one of eight
+ * buckets per power of two, so a percentile is off by at most 12.5%.
+ * Recording is a couple of atomic adds and never allocates.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class LatencyHistogram {
+
+	private static final int EXACT = 16;     // values counted exactly
+	private static final int SUB_BITS = 3;   // 8 buckets per power of two
+	private static final int BUCKETS = EXACT + (63 - 4) * (1 << SUB_BITS);
+	
+	private AtomicLongArray counts; // number of values in each bucket
+	private LongAdder sum;          // sum of all values
+	private AtomicLong max;         // largest value
+
+	
+	/**
+	 * Creates an empty histogram.
+	 */
+	public LatencyHistogram() {
+		this.counts = new AtomicLongArray(BUCKETS);
+		this.sum = new LongAdder();
+		this.max = new AtomicLong();
+	}
+
+	
+	/**
+	 * Record a value
+	 * 
+	 * @param value The value, negative values are recorded as 0
+	 */
+	public void record(long value) {
+		if (value < 0) {
+			value = 0;
+		}
+		counts.incrementAndGet(bucketOf(value));
+		sum.add(value);
+		long current = max.get();
+		while (value > current && !max.compareAndSet(current, value)) {
+			current = max.get();
+		}
+	}
+
+	
+	/**
+	 * Take a copy of the histogram
+	 * 
+	 * @return Return the copy
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, sum.sum(), max.get());
+	}
+
+	
+	/**
+	 * Return the bucket of a value
+	 * 
+	 * @param value A non-negative value
+	 * @return Return the bucket index
+	 */
+	private static int bucketOf(long value) {
+		if (value < EXACT) {
+			return (int) value;
+		}
+		int exponent = 63 - Long.numberOfLeadingZeros(value);
+		int sub = (int) (value >>> (exponent - SUB_BITS)) & ((1 << SUB_BITS) - 1);
+		return EXACT + (exponent - 4) * (1 << SUB_BITS) + sub;
+	}
+
+	
+	/**
+	 * Return the largest value that falls in a bucket
+	 * 
+	 * @param bucket The bucket index
+	 * @return Return the upper bound of the bucket
+	 */
+	private static long upperBound(int bucket) {
+		if (bucket < EXACT) {
+			return bucket;
+		}
+		int exponent = (bucket - EXACT) / (1 << SUB_BITS) + 4;
+		int sub = (bucket - EXACT) % (1 << SUB_BITS);
+		long lower = (long) ((1 << SUB_BITS) + sub) << (exponent - SUB_BITS);
+		return lower + (1L << (exponent - SUB_BITS)) - 1;
+	}
+
+	
+	/**
+	 * This is a point-in-time copy of a histogram.
+	 */
+	public static class Snapshot {
+		
+		private long[] counts; // number of values in each bucket
+		private long count;    // number of values
+		private long sum;      // sum of all values
+		private long max;      // largest value
+
+		
+		/**
+		 * Creates a copy of a histogram.
+		 * 
+		 * @param counts Number of values in each bucket
+		 * @param count  Number of values
+		 * @param sum    Sum of all values
+		 * @param max    Largest value
+		 */
+		Snapshot(long[] counts, long count, long sum, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.sum = sum;
+			this.max = max;
+		}
+
+		
+		/**
+		 * Return the number of recorded values
+		 * 
+		 * @return Return the number of recorded values
+		 */
+		public long getCount() {
+			return count;
+		}
+
+		
+		/**
+		 * Return the mean of the recorded values
+		 * 
+		 * @return Return the mean, Return 0 if nothing was recorded
+		 */
+		public double getMean() {
+			return count == 0 ? 0 : sum / (double) count;
+		}
+
+		
+		/**
+		 * Return the largest recorded value
+		 * 
+		 * @return Return the largest recorded value
+		 */
+		public long getMax() {
+			return max;
+		}
+
+		
+		/**
+		 * Return a percentile of the recorded values
+		 * 
+		 * @param percentile The percentile, from 0 to 100
+		 * @return Return the upper bound of the bucket holding the percentile,
+		 *         Return 0 if nothing was recorded
+		 */
+		public long getPercentile(double percentile) {
+			if (count == 0) {
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++) {
+				seen += counts[i];
+				if (seen >= rank) {
+					return Math.min(upperBound(i), max);
+				}
+			}
+			return max;
+		}
+	}
+
+}
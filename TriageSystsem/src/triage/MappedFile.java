@@ -0,0 +1,258 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * This is a file mapped into memory that can grow past the 2 GiB limit of a
+ * single MappedByteBuffer. A small file is mapped as one buffer whose size
+ * doubles as it grows, and a large file is mapped in chunks of 1 GiB. Ints
+ * must be stored at offsets that are a multiple of 4 and longs at offsets
+ * that are a multiple of 8, so that no value is split between two chunks.
+ * 
+ * The operating system pages the file in as it is touched, so only the parts
+ * of the file that are used take up memory.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class MappedFile {
+
+	private static final int CHUNK_SHIFT = 30;
+	private static final long CHUNK_BYTES = 1L << CHUNK_SHIFT;
+	private static final long MIN_BYTES = 64 * 1024;
+
+	private FileChannel channel;       // the open file
+	private MappedByteBuffer[] chunks; // mapped parts of the file, in order
+	private long length;               // number of bytes mapped
+
+	
+	/**
+	 * Opens and maps a file, creating it if needed.
+	 * 
+	 * @param file The file to map
+	 * @throws IOException
+	 */
+	public MappedFile(Path file) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		this.chunks = new MappedByteBuffer[0];
+		map(mappedLength(channel.size()));
+	}
+
+	
+	/**
+	 * Return the number of bytes that can be read and written
+	 * 
+	 * @return Return the mapped length
+	 */
+	public long length() {
+		return length;
+	}
+
+	
+	/**
+	 * Grow the file so that the given number of bytes can be used
+	 * 
+	 * @param bytes Number of bytes needed from the start of the file
+	 * @throws IOException
+	 */
+	public void ensureLength(long bytes) throws IOException {
+		if (bytes > length) {
+			long grown = length;
+			while (grown < bytes) {
+				grown = grown < CHUNK_BYTES ? grown * 2 : grown + CHUNK_BYTES;
+			}
+			map(grown);
+		}
+	}
+
+	
+	/**
+	 * Return the int at an offset
+	 * 
+	 * @param offset Offset in the file, a multiple of 4
+	 * @return Return the int
+	 */
+	public int getInt(long offset) {
+		return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & (CHUNK_BYTES - 1)));
+	}
+
+	
+	/**
+	 * Store an int at an offset
+	 * 
+	 * @param offset Offset in the file, a multiple of 4
+	 * @param value  The int to store
+	 */
+	public void putInt(long offset, int value) {
+		chunks[(int) (offset >>> CHUNK_SHIFT)].putInt((int) (offset & (CHUNK_BYTES - 1)), value);
+	}
+
+	
+	/**
+	 * Return the long at an offset
+	 * 
+	 * @param offset Offset in the file, a multiple of 8
+	 * @return Return the long
+	 */
+	public long getLong(long offset) {
+		return chunks[(int) (offset >>> CHUNK_SHIFT)].getLong((int) (offset & (CHUNK_BYTES - 1)));
+	}
+
+	
+	/**
+	 * Store a long at an offset
+	 * 
+	 * @param offset Offset in the file, a multiple of 8
+	 * @param value  The long to store
+	 */
+	public void putLong(long offset, long value) {
+		chunks[(int) (offset >>> CHUNK_SHIFT)].putLong((int) (offset & (CHUNK_BYTES - 1)), value);
+	}
+
+	
+	/**
+	 * Copy bytes out of the file
+	 * 
+	 * @param offset Offset in the file
+	 * @param bytes  Where to copy the bytes to, filled completely
+	 */
+	public void get(long offset, byte[] bytes) {
+		int done = 0;
+		while (done < bytes.length) {
+			long at = offset + done;
+			int inChunk = (int) (at & (CHUNK_BYTES - 1));
+			MappedByteBuffer chunk = chunks[(int) (at >>> CHUNK_SHIFT)];
+			int count = Math.min(bytes.length - done, chunk.capacity() - inChunk);
+			chunk.get(inChunk, bytes, done, count);
+			done += count;
+		}
+	}
+
+	
+	/**
+	 * Copy bytes into the file
+	 * 
+	 * @param offset Offset in the file
+	 * @param bytes  The bytes to copy
+	 */
+	public void put(long offset, byte[] bytes) {
+		int done = 0;
+		while (done < bytes.length) {
+			long at = offset + done;
+			int inChunk = (int) (at & (CHUNK_BYTES - 1));
+			MappedByteBuffer chunk = chunks[(int) (at >>> CHUNK_SHIFT)];
+			int count = Math.min(bytes.length - done, chunk.capacity() - inChunk);
+			chunk.put(inChunk, bytes, done, count);
+			done += count;
+		}
+	}
+
+	
+	/**
+	 * Set a range of the file to zero
+	 * 
+	 * @param from First offset to clear
+	 * @param to   Offset after the last one to clear
+	 */
+	public void clear(long from, long to) {
+		byte[] zeros = new byte[(int) Math.min(64 * 1024, Math.max(0, to - from))];
+		for (long at = from; at < to; at += zeros.length) {
+			put(at, to - at < zeros.length ? new byte[(int) (to - at)] : zeros);
+		}
+	}
+
+	
+	/**
+	 * Write every changed page of the file to the device
+	 */
+	public void force() {
+		for (MappedByteBuffer chunk : chunks) {
+			chunk.force();
+		}
+	}
+
+	
+	/**
+	 * Write every changed page to the device and close the file. The mapping
+	 * goes away once the buffers are garbage collected.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		force();
+		chunks = new MappedByteBuffer[0];
+		channel.close();
+	}
+
+	
+	/**
+	 * Write every changed page to the device and close the file, cutting off
+	 * what lies past the mapping that the given number of bytes will need
+	 * when the file is opened again
+	 * 
+	 * @param used Number of bytes at the start of the file that are in use
+	 * @throws IOException
+	 */
+	public void close(long used) throws IOException {
+		force();
+		chunks = new MappedByteBuffer[0];
+		try {
+			long keep = mappedLength(used);
+			if (keep < channel.size()) {
+				channel.truncate(keep);
+			}
+		} catch (IOException e) {
+			// Windows refuses to cut a file that is still mapped; the space
+			// past the used bytes is reused instead
+		}
+		channel.close();
+	}
+
+	
+	/**
+	 * Return the length a file of the given size is mapped at
+	 * 
+	 * @param size The size of the file
+	 * @return Return a power of two up to 1 GiB or a multiple of 1 GiB
+	 */
+	private static long mappedLength(long size) {
+		long length = MIN_BYTES;
+		while (length < size) {
+			length = length < CHUNK_BYTES ? length * 2 : length + CHUNK_BYTES;
+		}
+		return length;
+	}
+
+	
+	/**
+	 * Map the file up to the given length, growing the file if needed.
+	 * Chunks that are already mapped at full size are kept.
+	 * 
+	 * @param newLength The length to map, a power of two up to 1 GiB or a
+	 *                  multiple of 1 GiB
+	 * @throws IOException
+	 */
+	private void map(long newLength) throws IOException {
+		if (newLength <= CHUNK_BYTES) {
+			chunks = new MappedByteBuffer[] {channel.map(FileChannel.MapMode.READ_WRITE, 0, newLength)};
+		} else {
+			int count = (int) (newLength / CHUNK_BYTES);
+			int kept = chunks.length > 0 && chunks[0].capacity() == CHUNK_BYTES ? chunks.length : 0;
+			chunks = Arrays.copyOf(chunks, count);
+			for (int i = kept; i < count; i++) {
+				chunks[i] = channel.map(FileChannel.MapMode.READ_WRITE, i * CHUNK_BYTES, CHUNK_BYTES);
+			}
+		}
+		length = newLength;
+	}
+
+}
@@ -0,0 +1,1064 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.zip.CRC32;
+
+/**
+ * This is a heap of patients that lives in memory-mapped files, so the queue
+ * can be larger than the memory of the machine and a restart only maps the
+ * files again instead of reloading every patient. The operating system pages
+ * in only the parts of the files that a sift touches.
+ * 
+ * The directory holds three files:
+ * - heap.dat: a header followed by the heap, one fixed-width record per
+ *   patient with a key packing the priority code and the arrival number
+ *   like PrimitivePatientPriorityQueue, and the offset of its name
+ * - index.dat: one record per arrival number from a base arrival number on,
+ *   with the heap index of the patient and the links of the arrival order
+ * - names.dat: the arrival time, arrival number, UTF-8 name and a CRC-32 of
+ *   every patient, appended as patients arrive, so a later arrival always
+ *   has a later name record
+ * 
+ * The header records whether the files are open. It is set before the first
+ * change and cleared by close() after every page was written, so files that
+ * were not closed cleanly are recognized on the next open. They are then
+ * checked completely, and files left in the middle of an operation are
+ * refused instead of being served torn. The CRC of a name record catches a
+ * page of names.dat that never reached the device, and the arrival number in
+ * it catches a heap record that points at another patient's name.
+ * 
+ * index.dat and names.dat grow with every arrival while the files are open.
+ * close() slides the name records of waiting patients down over those of
+ * patients who left once the dead bytes outnumber the live ones, and moves
+ * the base of index.dat up to the earliest waiting arrival once the records
+ * below it outnumber the rest, then cuts the files down. Both files thus
+ * stay in proportion to the waiting patients across restarts. The files are
+ * still marked open while this runs, so a crash in the middle of it is
+ * refused on the next open like one in the middle of any other change.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class MappedPatientQueue implements TriageQueue {
+
+	private static final int MAGIC = 0x54524850; // "TRHP"
+	private static final int VERSION = 2;
+	private static final int CLOSED = 0;
+	private static final int OPEN = 1;
+	private static final int LEVELS = 4;
+
+	// Header of heap.dat
+	private static final long MAGIC_AT = 0;
+	private static final long VERSION_AT = 4;
+	private static final long STATE_AT = 8;
+	private static final long SIZE_AT = 12;
+	private static final long NEXT_PATIENT_AT = 16;
+	private static final long FIRST_ARRIVAL_AT = 20;
+	private static final long LAST_ARRIVAL_AT = 24;
+	private static final long INDEX_BASE_AT = 28;
+	private static final long NAMES_END_AT = 32;
+	private static final long LIVE_NAMES_AT = 40;
+	private static final long HEADER_BYTES = 64;
+
+	private static final int HEAP_RECORD = 16;  // key, name offset
+	private static final int INDEX_RECORD = 12; // heap index + 1, next, previous
+	private static final int NAME_HEADER = 20;  // arrival time, name length, arrival, CRC
+
+	private MappedFile heap;       // header and heap records
+	private MappedFile index;      // arrival number -> index record
+	private MappedFile names;      // arrival times and names
+	private int size;              // number of patients in the heap
+	private int nextPatientNumber; // num assigned to next added patient
+	private int firstArrival;      // earliest waiting arrival number, 0 if empty
+	private int lastArrival;       // latest waiting arrival number, 0 if empty
+	private int indexBase;         // arrival number of the first index record
+	private long namesEnd;         // offset where the next name goes
+	private long liveNames;        // bytes of name records of waiting patients
+	private NameIndex nameIndex;   // waiting patients by name, built on first use
+	private boolean verified;      // true if the files had to be checked on open
+	private CRC32 crc;             // checksum of name records
+
+	
+	/**
+	 * Creates a queue over files that are already mapped. Use open().
+	 * 
+	 * @param heap  The mapped heap.dat
+	 * @param index The mapped index.dat
+	 * @param names The mapped names.dat
+	 */
+	private MappedPatientQueue(MappedFile heap, MappedFile index, MappedFile names) {
+		this.heap = heap;
+		this.index = index;
+		this.names = names;
+		this.crc = new CRC32();
+	}
+
+	
+	/**
+	 * Map the queue kept in a directory, creating an empty queue if the
+	 * directory has none. Files that were not closed cleanly are checked
+	 * completely before they are used.
+	 * 
+	 * @param directory Where the files live, created if needed
+	 * @return Return the queue
+	 * @throws IOException if the files cannot be mapped, or were left torn
+	 *                     by a crash
+	 */
+	public static MappedPatientQueue open(Path directory) throws IOException {
+		Files.createDirectories(directory);
+		MappedPatientQueue queue = new MappedPatientQueue(new MappedFile(directory.resolve("heap.dat")),
+				new MappedFile(directory.resolve("index.dat")),
+				new MappedFile(directory.resolve("names.dat")));
+		try {
+			queue.load();
+		} catch (IOException e) {
+			queue.heap.close();
+			queue.index.close();
+			queue.names.close();
+			throw e;
+		}
+		return queue;
+	}
+
+	
+	/**
+	 * Return whether the files were not closed cleanly and had to be checked
+	 * when the queue was opened
+	 * 
+	 * @return Return true if the files were checked, otherwise false
+	 */
+	public boolean wasVerified() {
+		return verified;
+	}
+
+	
+	/**
+	 * Compact names.dat and index.dat if most of them is dead, write every
+	 * page to the device and mark the files as closed cleanly
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		if (namesEnd - liveNames > liveNames) {
+			compactNames();
+		}
+		int first = firstArrival == 0 ? nextPatientNumber : firstArrival;
+		if (first - indexBase > nextPatientNumber - first) {
+			moveIndexBase(first);
+		}
+		writeHeader();
+		index.force();
+		names.force();
+		heap.force();
+		heap.putInt(STATE_AT, CLOSED);
+		heap.close(HEADER_BYTES + (long) size * HEAP_RECORD);
+		index.close((long) (nextPatientNumber - indexBase) * INDEX_RECORD);
+		names.close(namesEnd);
+	}
+
+	
+	/**
+	 * Return a copy of the patients in heap order
+	 * 
+	 * @return Return a copy of the patients in heap order
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		ArrayList<Patient> temp = new ArrayList<>(size);
+		for (int i = 0; i < size; i++) {
+			temp.add(patientAt(i));
+		}
+		return temp;
+	}
+
+	
+	/**
+	 * Add a patient to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		checkPriority(priorityCode);
+		append(priorityCode, patientName, arrivalTime);
+		percolateUp(size - 1); // Heapify
+		writeHeader();
+	}
+
+	
+	/**
+	 * Add a batch of patients to the heap. A batch at least as large as the
+	 * heap is appended and then heapified bottom-up in linear time, otherwise
+	 * each patient is percolated up on its own.
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		boolean heapify = count >= size;
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			checkPriority(priorityCodes[i]);
+			append(priorityCodes[i], patientNames[i], arrivalTime);
+			if (!heapify) {
+				percolateUp(size - 1);
+			}
+		}
+		if (heapify) {
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				percolateDown(i);
+			}
+		}
+		writeHeader();
+	}
+
+	
+	/**
+	 * Return the patient in the root
+	 * 
+	 * @return Return the patient in the root, Return null if the heap is empty
+	 */
+	@Override
+	public Patient peek() {
+		if (size == 0) {
+			return null;
+		} else {
+			return patientAt(0);
+		}
+	}
+
+	
+	/**
+	 * Return the next k patients in exact service order, by walking a small
+	 * frontier heap of heap indices down from the root in O(k log k) time
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		int count = Math.max(0, Math.min(k, size));
+		ArrayList<Patient> next = new ArrayList<Patient>(count);
+		if (count == 0) {
+			return next;
+		}
+		PriorityQueue<Integer> frontier = new PriorityQueue<Integer>(2 * count,
+				(first, second) -> Long.compare(keyAt(first), keyAt(second)));
+		frontier.add(0);
+		while (next.size() < count) {
+			int at = frontier.poll();
+			next.add(patientAt(at));
+			if (at * 2 + 1 < size) {
+				frontier.add(at * 2 + 1);
+			}
+			if (at * 2 + 2 < size) {
+				frontier.add(at * 2 + 2);
+			}
+		}
+		return next;
+	}
+
+	
+	/**
+	 * Remove the patient in the root from the heap
+	 * 
+	 * @return Return the minimum element in the heap
+	 *         Return null if the heap is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		if (size == 0) {
+			return null;
+		}
+		Patient root = patientAt(0);
+		removeAt(0);
+		writeHeader();
+		return root;
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number. The last record is
+	 * moved into its place and sifted, so no tombstone is left behind.
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		int at = indexOf(arrivalId);
+		if (at == -1) {
+			return null;
+		}
+		Patient removed = patientAt(at);
+		removeAt(at);
+		writeHeader();
+		return removed;
+	}
+
+	
+	/**
+	 * Remove a batch of patients
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (int i = 0; i < count; i++) {
+			int at = indexOf(arrivalIds[i]);
+			if (at != -1) {
+				removed.add(patientAt(at));
+				removeAt(at);
+			}
+		}
+		writeHeader();
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		checkPriority(newPriority);
+		int at = indexOf(arrivalId);
+		if (at == -1) {
+			return false;
+		}
+		heap.putLong(recordAt(at), pack(newPriority, arrivalId));
+		percolateUp(at);
+		percolateDown(indexOf(arrivalId));
+		return true;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		int at = indexOf(arrivalId);
+		if (at == -1) {
+			return null;
+		}
+		return patientAt(at);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces. The name index is built the first time it is
+	 * needed, so opening the queue does not read every name.
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		if (nameIndex == null) {
+			nameIndex = new NameIndex(false);
+			for (Patient patient : arrivalOrder()) {
+				nameIndex.add(patient.getName(), patient.getArrivalOrder());
+			}
+		}
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (int arrival : nameIndex.find(prefix, limit)) {
+			found.add(findByArrival(arrival));
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber;
+	}
+
+	
+	/**
+	 * Replace the heap with the given patients, keeping their arrival numbers.
+	 * The names of patients that are gone are dropped from names.dat, and the
+	 * names of the others are stored in arrival order.
+	 * 
+	 * @param waiting           The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> waiting, int nextPatientNumber) {
+		ArrayList<Patient> byArrival = new ArrayList<Patient>(waiting);
+		byArrival.sort(Comparator.comparingInt(Patient::getArrivalOrder));
+		int base = nextPatientNumber;
+		if (!byArrival.isEmpty()) {
+			base = Math.min(byArrival.get(0).getArrivalOrder(), base);
+		}
+		try {
+			index.clear(0, (long) (this.nextPatientNumber - indexBase) * INDEX_RECORD);
+			index.ensureLength((long) Math.max(nextPatientNumber - base, 1) * INDEX_RECORD);
+			heap.ensureLength(HEADER_BYTES + (long) waiting.size() * HEAP_RECORD);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		this.size = 0;
+		this.namesEnd = 0;
+		this.firstArrival = 0;
+		this.lastArrival = 0;
+		this.indexBase = base;
+		this.nextPatientNumber = nextPatientNumber;
+		this.nameIndex = null;
+
+		boolean heapOrdered = true;
+		for (Patient patient : waiting) {
+			checkPriority(patient.getPriorityCode());
+			long key = pack(patient.getPriorityCode(), patient.getArrivalOrder());
+			heap.putLong(recordAt(size), key);
+			setPosition(patient.getArrivalOrder(), size);
+			if (size > 0 && key < keyAt((size - 1) / 2)) {
+				heapOrdered = false;
+			}
+			size++;
+		}
+		for (Patient patient : byArrival) {
+			int arrival = patient.getArrivalOrder();
+			long name = storeName(arrival, patient.getName(), patient.getArrivalTime());
+			heap.putLong(recordAt(index.getInt(indexRecord(arrival)) - 1) + 8, name);
+			link(arrival);
+		}
+		liveNames = namesEnd;
+		if (!heapOrdered) {
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				percolateDown(i);
+			}
+		}
+		writeHeader();
+	}
+
+	
+	/**
+	 * Return the metrics the queue records
+	 * 
+	 * @return Return null, this queue is not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return null;
+	}
+
+	
+	/**
+	 * Return the size of heap
+	 * 
+	 * @return Return the size of heap
+	 */
+	@Override
+	public int size() {
+		return size;
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients in arrival order, read from the
+	 * mapped files
+	 * 
+	 * @return Return a copy of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		ArrayList<Patient> copy = new ArrayList<Patient>(size());
+		for (Patient patient : arrivalOrder()) {
+			copy.add(patient);
+		}
+		return copy;
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return new Iterable<Patient>() {
+			@Override
+			public Iterator<Patient> iterator() {
+				return new Iterator<Patient>() {
+					private int arrival = firstArrival; // next arrival to return
+
+					@Override
+					public boolean hasNext() {
+						return arrival != 0;
+					}
+
+					@Override
+					public Patient next() {
+						if (arrival == 0) {
+							throw new NoSuchElementException();
+						}
+						Patient patient = patientAt(indexOf(arrival));
+						arrival = index.getInt(indexRecord(arrival) + 4);
+						return patient;
+					}
+				};
+			}
+		};
+	}
+
+	
+	/**
+	 * Read the header of new or existing files, checking files that were not
+	 * closed cleanly, and mark the files as open
+	 * 
+	 * @throws IOException if the files are not a queue or were left torn
+	 */
+	private void load() throws IOException {
+		int magic = heap.getInt(MAGIC_AT);
+		if (magic == 0) {
+			heap.putInt(MAGIC_AT, MAGIC);
+			heap.putInt(VERSION_AT, VERSION);
+			nextPatientNumber = 1;
+			indexBase = 1;
+			writeHeader();
+		} else if (magic != MAGIC || heap.getInt(VERSION_AT) != VERSION) {
+			throw new IOException("Not a mapped queue of a known version");
+		} else {
+			size = heap.getInt(SIZE_AT);
+			nextPatientNumber = heap.getInt(NEXT_PATIENT_AT);
+			firstArrival = heap.getInt(FIRST_ARRIVAL_AT);
+			lastArrival = heap.getInt(LAST_ARRIVAL_AT);
+			indexBase = heap.getInt(INDEX_BASE_AT);
+			namesEnd = heap.getLong(NAMES_END_AT);
+			liveNames = heap.getLong(LIVE_NAMES_AT);
+			if (heap.getInt(STATE_AT) != CLOSED) {
+				verified = true;
+				verify();
+			}
+		}
+		heap.putInt(STATE_AT, OPEN);
+		heap.force();
+	}
+
+	
+	/**
+	 * Check that the files hold a whole queue: the heap property holds, the
+	 * index and the heap point at each other, the arrival order links every
+	 * waiting patient once, and every name record lies inside names.dat,
+	 * belongs to the patient that points at it and matches its CRC
+	 * 
+	 * @throws IOException if the files were left in the middle of an operation
+	 */
+	private void verify() throws IOException {
+		if (size < 0 || indexBase < 1 || nextPatientNumber < indexBase
+				|| HEADER_BYTES + (long) size * HEAP_RECORD > heap.length()
+				|| (long) (nextPatientNumber - indexBase) * INDEX_RECORD > index.length()
+				|| namesEnd < 0 || namesEnd > names.length()) {
+			throw torn("header");
+		}
+		liveNames = 0;
+		for (int i = 0; i < size; i++) {
+			long key = keyAt(i);
+			int arrival = arrivalOf(key);
+			long name = heap.getLong(recordAt(i) + 8);
+			if (arrival < indexBase || arrival >= nextPatientNumber
+					|| priorityOf(key) < 1 || priorityOf(key) > LEVELS
+					|| index.getInt(indexRecord(arrival)) != i + 1
+					|| (i > 0 && key < keyAt((i - 1) / 2))
+					|| name < 0 || name % 8 != 0 || name + NAME_HEADER > namesEnd
+					|| names.getInt(name + 8) < 0
+					|| name + NAME_HEADER + names.getInt(name + 8) > namesEnd
+					|| names.getInt(name + 12) != arrival
+					|| names.getInt(name + 16) != checksum(name)) {
+				throw torn("heap record " + i);
+			}
+			liveNames += recordBytes(name);
+		}
+		int linked = 0;
+		int previous = 0;
+		long previousName = -1;
+		for (int arrival = firstArrival; arrival != 0; arrival = index.getInt(indexRecord(arrival) + 4)) {
+			if (arrival < indexBase || arrival >= nextPatientNumber || ++linked > size
+					|| index.getInt(indexRecord(arrival) + 8) != previous
+					|| index.getInt(indexRecord(arrival)) < 1
+					|| index.getInt(indexRecord(arrival)) > size
+					|| arrivalOf(keyAt(index.getInt(indexRecord(arrival)) - 1)) != arrival
+					|| arrival <= previous
+					|| heap.getLong(recordAt(index.getInt(indexRecord(arrival)) - 1) + 8) <= previousName) {
+				throw torn("arrival order at " + arrival);
+			}
+			previous = arrival;
+			previousName = heap.getLong(recordAt(index.getInt(indexRecord(arrival)) - 1) + 8);
+		}
+		if (linked != size || previous != lastArrival) {
+			throw torn("arrival order");
+		}
+	}
+
+	
+	/**
+	 * Create the exception for files left torn by a crash
+	 * 
+	 * @param where The part of the files that is damaged
+	 * @return Return the exception
+	 */
+	private static IOException torn(String where) {
+		return new IOException("Mapped queue was not closed cleanly and is torn at the " + where
+				       + "; restore it from a snapshot or journal");
+	}
+
+	
+	/**
+	 * Store the counters in the header
+	 */
+	private void writeHeader() {
+		heap.putInt(SIZE_AT, size);
+		heap.putInt(NEXT_PATIENT_AT, nextPatientNumber);
+		heap.putInt(FIRST_ARRIVAL_AT, firstArrival);
+		heap.putInt(LAST_ARRIVAL_AT, lastArrival);
+		heap.putInt(INDEX_BASE_AT, indexBase);
+		heap.putLong(NAMES_END_AT, namesEnd);
+		heap.putLong(LIVE_NAMES_AT, liveNames);
+	}
+
+	
+	/**
+	 * Slide the name records of the waiting patients down over the records of
+	 * patients who left. The records are in arrival order, so walking the
+	 * arrival order moves every record to an offset no later than its own.
+	 */
+	private void compactNames() {
+		long end = 0;
+		for (int arrival = firstArrival; arrival != 0; arrival = index.getInt(indexRecord(arrival) + 4)) {
+			long at = recordAt(indexOf(arrival)) + 8;
+			long name = heap.getLong(at);
+			long bytes = recordBytes(name);
+			if (name != end) {
+				byte[] record = new byte[(int) bytes];
+				names.get(name, record);
+				names.put(end, record);
+				heap.putLong(at, end);
+			}
+			end += bytes;
+		}
+		namesEnd = end;
+		liveNames = end;
+	}
+
+	
+	/**
+	 * Move the records of index.dat down so the first one belongs to the given
+	 * arrival number, dropping the records of earlier arrival numbers
+	 * 
+	 * @param first The new base arrival number, no later than the earliest
+	 *              waiting arrival
+	 */
+	private void moveIndexBase(int first) {
+		long from = (long) (first - indexBase) * INDEX_RECORD;
+		long live = (long) (nextPatientNumber - first) * INDEX_RECORD;
+		byte[] chunk = new byte[(int) Math.min(live, 64 * 1024)];
+		for (long done = 0; done < live; done += chunk.length) {
+			if (live - done < chunk.length) {
+				chunk = new byte[(int) (live - done)];
+			}
+			index.get(from + done, chunk);
+			index.put(done, chunk);
+		}
+		index.clear(live, from + live);
+		indexBase = first;
+	}
+
+	
+	/**
+	 * Append a new patient at the end of the heap without sifting it
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	private void append(int priorityCode, String patientName, long arrivalTime) {
+		int arrival = nextPatientNumber;
+		try {
+			heap.ensureLength(HEADER_BYTES + (long) (size + 1) * HEAP_RECORD);
+			index.ensureLength((long) (arrival + 1 - indexBase) * INDEX_RECORD);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		heap.putLong(recordAt(size), pack(priorityCode, arrival));
+		heap.putLong(recordAt(size) + 8, storeName(arrival, patientName, arrivalTime));
+		setPosition(arrival, size);
+		link(arrival);
+		if (nameIndex != null) {
+			nameIndex.add(patientName, arrival);
+		}
+		size++;
+		nextPatientNumber++;
+	}
+
+	
+	/**
+	 * Take the patient at a heap index out of the heap, moving the last record
+	 * into its place
+	 * 
+	 * @param at The heap index
+	 */
+	private void removeAt(int at) {
+		int arrival = arrivalOf(keyAt(at));
+		if (nameIndex != null) {
+			nameIndex.remove(arrival);
+		}
+		unlink(arrival);
+		index.putInt(indexRecord(arrival), 0);
+		liveNames -= recordBytes(heap.getLong(recordAt(at) + 8));
+		size--;
+		if (at < size) {
+			long key = keyAt(size);
+			long name = heap.getLong(recordAt(size) + 8);
+			heap.putLong(recordAt(at), key);
+			heap.putLong(recordAt(at) + 8, name);
+			setPosition(arrivalOf(key), at);
+			percolateUp(at);
+			percolateDown(indexOf(arrivalOf(key)));
+		}
+	}
+
+	
+	/**
+	 * Append an arrival time and a name to names.dat
+	 * 
+	 * @param arrival     The patient's arrival number
+	 * @param patientName The patient's name
+	 * @param arrivalTime The time the patient arrived, in milliseconds
+	 * @return Return the offset of the name record
+	 */
+	private long storeName(int arrival, String patientName, long arrivalTime) {
+		byte[] encoded = patientName.getBytes(StandardCharsets.UTF_8);
+		long offset = namesEnd;
+		long end = (offset + NAME_HEADER + encoded.length + 7) & ~7L;
+		try {
+			names.ensureLength(end);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		names.putLong(offset, arrivalTime);
+		names.putInt(offset + 8, encoded.length);
+		names.putInt(offset + 12, arrival);
+		names.put(offset + NAME_HEADER, encoded);
+		names.putInt(offset + 16, checksum(offset));
+		namesEnd = end;
+		liveNames += end - offset;
+		return offset;
+	}
+
+	
+	/**
+	 * Return the length of a name record, padded so the next one starts at a
+	 * multiple of 8
+	 * 
+	 * @param offset The offset of the name record
+	 * @return Return the number of bytes the record takes up
+	 */
+	private long recordBytes(long offset) {
+		return (NAME_HEADER + names.getInt(offset + 8) + 7) & ~7L;
+	}
+
+	
+	/**
+	 * Return the CRC-32 of a name record, over everything but the CRC itself
+	 * 
+	 * @param offset The offset of the name record
+	 * @return Return the CRC-32
+	 */
+	private int checksum(long offset) {
+		byte[] record = new byte[NAME_HEADER + names.getInt(offset + 8)];
+		names.get(offset, record);
+		crc.reset();
+		crc.update(record, 0, 16);
+		crc.update(record, NAME_HEADER, record.length - NAME_HEADER);
+		return (int) crc.getValue();
+	}
+
+	
+	/**
+	 * Return the name stored in a name record
+	 * 
+	 * @param offset The offset of the name record
+	 * @return Return the name
+	 */
+	private String nameAt(long offset) {
+		byte[] encoded = new byte[names.getInt(offset + 8)];
+		names.get(offset + NAME_HEADER, encoded);
+		return new String(encoded, StandardCharsets.UTF_8);
+	}
+
+	
+	/**
+	 * Create a Patient object for the record at a heap index
+	 * 
+	 * @param at The heap index
+	 * @return Return the Patient the record stands for
+	 */
+	private Patient patientAt(int at) {
+		long key = keyAt(at);
+		long name = heap.getLong(recordAt(at) + 8);
+		return new Patient(priorityOf(key), arrivalOf(key), nameAt(name), names.getLong(name));
+	}
+
+	
+	/**
+	 * Shifts up the record at the given index
+	 * 
+	 * @param at The record to percolate up
+	 */
+	private void percolateUp(int at) {
+		long key = keyAt(at);
+		long name = heap.getLong(recordAt(at) + 8);
+		while (at > 0) {
+			int parent = (at - 1) / 2;
+			long parentKey = keyAt(parent);
+			if (key >= parentKey) {
+				break;
+			}
+			move(parent, at);
+			at = parent;
+		}
+		put(at, key, name);
+	}
+
+	
+	/**
+	 * Shifts down the record at the given index
+	 * 
+	 * @param at The record to percolate down
+	 */
+	private void percolateDown(int at) {
+		long key = keyAt(at);
+		long name = heap.getLong(recordAt(at) + 8);
+		int half = size / 2;
+		while (at < half) {
+			int child = at * 2 + 1;
+			if (child + 1 < size && keyAt(child + 1) < keyAt(child)) {
+				child++;
+			}
+			if (key <= keyAt(child)) {
+				break;
+			}
+			move(child, at);
+			at = child;
+		}
+		put(at, key, name);
+	}
+
+	
+	/**
+	 * Copy a heap record to another index and update its position
+	 * 
+	 * @param from The index to copy from
+	 * @param to   The index to copy to
+	 */
+	private void move(int from, int to) {
+		put(to, keyAt(from), heap.getLong(recordAt(from) + 8));
+	}
+
+	
+	/**
+	 * Store a heap record and update its position
+	 * 
+	 * @param at   The heap index
+	 * @param key  Packed priority/arrival key
+	 * @param name The offset of the name record
+	 */
+	private void put(int at, long key, long name) {
+		heap.putLong(recordAt(at), key);
+		heap.putLong(recordAt(at) + 8, name);
+		setPosition(arrivalOf(key), at);
+	}
+
+	
+	/**
+	 * Return the key of the record at a heap index
+	 * 
+	 * @param at The heap index
+	 * @return Return the packed priority/arrival key
+	 */
+	private long keyAt(int at) {
+		return heap.getLong(recordAt(at));
+	}
+
+	
+	/**
+	 * Return the offset of a heap record in heap.dat
+	 * 
+	 * @param at The heap index
+	 * @return Return the offset of the record
+	 */
+	private static long recordAt(int at) {
+		return HEADER_BYTES + (long) at * HEAP_RECORD;
+	}
+
+	
+	/**
+	 * Return the offset of an index record in index.dat
+	 * 
+	 * @param arrival The arrival number
+	 * @return Return the offset of the record
+	 */
+	private long indexRecord(int arrival) {
+		return (long) (arrival - indexBase) * INDEX_RECORD;
+	}
+
+	
+	/**
+	 * Store the heap index of an arrival number
+	 * 
+	 * @param arrival The arrival number
+	 * @param at      The heap index
+	 */
+	private void setPosition(int arrival, int at) {
+		index.putInt(indexRecord(arrival), at + 1);
+	}
+
+	
+	/**
+	 * Return the heap index of the patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the heap index, Return -1 if no such patient is waiting
+	 */
+	private int indexOf(int arrivalId) {
+		if (arrivalId < indexBase || arrivalId >= nextPatientNumber) {
+			return -1;
+		}
+		return index.getInt(indexRecord(arrivalId)) - 1;
+	}
+
+	
+	/**
+	 * Link a new arrival number at the end of the arrival order
+	 * 
+	 * @param arrival The arrival number to link
+	 */
+	private void link(int arrival) {
+		index.putInt(indexRecord(arrival) + 8, lastArrival);
+		index.putInt(indexRecord(arrival) + 4, 0);
+		if (lastArrival == 0) {
+			firstArrival = arrival;
+		} else {
+			index.putInt(indexRecord(lastArrival) + 4, arrival);
+		}
+		lastArrival = arrival;
+	}
+
+	
+	/**
+	 * Unlink an arrival number from the arrival order
+	 * 
+	 * @param arrival The arrival number to unlink
+	 */
+	private void unlink(int arrival) {
+		int prev = index.getInt(indexRecord(arrival) + 8);
+		int next = index.getInt(indexRecord(arrival) + 4);
+		if (prev == 0) {
+			firstArrival = next;
+		} else {
+			index.putInt(indexRecord(prev) + 4, next);
+		}
+		if (next == 0) {
+			lastArrival = prev;
+		} else {
+			index.putInt(indexRecord(next) + 8, prev);
+		}
+		index.putInt(indexRecord(arrival) + 4, 0);
+		index.putInt(indexRecord(arrival) + 8, 0);
+	}
+
+	
+	/**
+	 * Check if the priority code is one of the accepted codes
+	 * 
+	 * @param priorityCode The priority code to check
+	 */
+	private static void checkPriority(int priorityCode) {
+		if (priorityCode < 1 || priorityCode > LEVELS) {
+			throw new IllegalArgumentException("invalid priority code: " + priorityCode);
+		}
+	}
+
+	
+	/**
+	 * Pack a priority code and an arrival number into one key
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param arrival      The patient's arrival number
+	 * @return Return the packed key
+	 */
+	private static long pack(int priorityCode, int arrival) {
+		return ((long) priorityCode << 32) | (arrival & 0xFFFFFFFFL);
+	}
+
+	
+	/**
+	 * Return the priority code stored in a key
+	 * 
+	 * @param key Packed priority/arrival key
+	 * @return Return the priority code
+	 */
+	private static int priorityOf(long key) {
+		return (int) (key >>> 32);
+	}
+
+	
+	/**
+	 * Return the arrival number stored in a key
+	 * 
+	 * @param key Packed priority/arrival key
+	 * @return Return the arrival number
+	 */
+	private static int arrivalOf(long key) {
+		return (int) key;
+	}
+
+}
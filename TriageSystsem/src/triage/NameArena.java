@@ -0,0 +1,189 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This is an append-only store of patient names outside the Java heap. Each
+ * name is kept once as its length followed by its UTF-8 bytes in a direct
+ * ByteBuffer and is referred to by the int offset of that record, so a
+ * patient holds an int instead of a String and its byte array. Adding a name
+ * that is already stored returns the existing offset.
+ * 
+ * Names are never taken out, since patients that were handed out keep
+ * reading their names from the arena, so the arena grows with the number of
+ * distinct names ever added and stops taking names at 2 GiB. It is meant for
+ * waiting rooms that see the same names again and again, and the heap engine
+ * only uses it when asked for the arena engine. Only one thread may add
+ * names at a time, but a name can be read from any thread once its patient
+ * was handed out.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class NameArena {
+
+	private static final int INITIAL_BYTES = 64 * 1024;
+	private static final int INITIAL_SLOTS = 1024;
+
+	private ByteBuffer bytes; // name records: length, then UTF-8 bytes
+	private int end;          // offset where the next record goes
+	private int[] slots;      // open-addressing table of offset + 1, 0 if free
+	private int[] hashes;     // hash code of the name in each slot
+	private int count;        // number of distinct names
+
+	
+	/**
+	 * Creates an empty arena.
+	 */
+	public NameArena() {
+		this.bytes = ByteBuffer.allocateDirect(INITIAL_BYTES);
+		this.slots = new int[INITIAL_SLOTS];
+		this.hashes = new int[INITIAL_SLOTS];
+	}
+
+	
+	/**
+	 * Store a name unless it is already stored
+	 * 
+	 * @param name The name to store
+	 * @return Return the offset that refers to the name
+	 */
+	public int intern(String name) {
+		byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+		int hash = name.hashCode();
+		int mask = slots.length - 1;
+		int slot = spread(hash) & mask;
+		while (slots[slot] != 0) {
+			if (hashes[slot] == hash && matches(slots[slot] - 1, encoded)) {
+				return slots[slot] - 1;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		int offset = append(encoded);
+		slots[slot] = offset + 1;
+		hashes[slot] = hash;
+		count++;
+		if (count * 2 > slots.length) {
+			rehash();
+		}
+		return offset;
+	}
+
+	
+	/**
+	 * Return the name stored at an offset
+	 * 
+	 * @param offset The offset intern() returned
+	 * @return Return the name
+	 */
+	public String get(int offset) {
+		ByteBuffer stored = bytes;
+		byte[] encoded = new byte[stored.getInt(offset)];
+		stored.get(offset + 4, encoded);
+		return new String(encoded, StandardCharsets.UTF_8);
+	}
+
+	
+	/**
+	 * Return the number of distinct names stored
+	 * 
+	 * @return Return the number of distinct names
+	 */
+	public int getNameCount() {
+		return count;
+	}
+
+	
+	/**
+	 * Return the number of bytes the stored names take outside the heap
+	 * 
+	 * @return Return the number of bytes used
+	 */
+	public int getBytesUsed() {
+		return end;
+	}
+
+	
+	/**
+	 * Append a name record, growing the buffer if needed
+	 * 
+	 * @param encoded The name's UTF-8 bytes
+	 * @return Return the offset of the record
+	 */
+	private int append(byte[] encoded) {
+		int needed = 4 + encoded.length;
+		if (needed > bytes.capacity() - end) {
+			if (needed > Integer.MAX_VALUE - end) {
+				throw new IllegalStateException("name arena is full");
+			}
+			long capacity = Math.max((long) end + needed, 2L * bytes.capacity());
+			ByteBuffer bigger = ByteBuffer.allocateDirect((int) Math.min(capacity, Integer.MAX_VALUE));
+			bigger.put(0, bytes, 0, end);
+			bytes = bigger;
+		}
+		int offset = end;
+		bytes.putInt(offset, encoded.length);
+		bytes.put(offset + 4, encoded);
+		end += needed;
+		return offset;
+	}
+
+	
+	/**
+	 * Check if the name stored at an offset has the given bytes
+	 * 
+	 * @param offset  The offset of the stored name
+	 * @param encoded The UTF-8 bytes to compare with
+	 * @return Return true if the bytes are the same, otherwise false
+	 */
+	private boolean matches(int offset, byte[] encoded) {
+		if (bytes.getInt(offset) != encoded.length) {
+			return false;
+		}
+		for (int i = 0; i < encoded.length; i++) {
+			if (bytes.get(offset + 4 + i) != encoded[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	
+	/**
+	 * Double the table of slots and put every name back in
+	 */
+	private void rehash() {
+		int[] oldSlots = slots;
+		int[] oldHashes = hashes;
+		slots = new int[oldSlots.length * 2];
+		hashes = new int[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != 0) {
+				int slot = spread(oldHashes[i]) & mask;
+				while (slots[slot] != 0) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	
+	/**
+	 * Mix the high bits of a hash code into the low bits used for the slot
+	 * 
+	 * @param hash The hash code
+	 * @return Return the mixed hash code
+	 */
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+
+}
@@ -0,0 +1,162 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * This is an index of waiting patients by name. Names are normalized to lower
+ * case with single spaces, and each key is the normalized name followed by
+ * the arrival number, so patients with the same name are kept apart and sorted
+ * by arrival. All names starting with a prefix are next to each other in the
+ * sorted map, so a lookup takes time proportional to the matches and not to
+ * the number of waiting patients. The key of each patient is also kept by
+ * arrival number, so a patient leaving the queue is removed without reading
+ * or normalizing its name again.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class NameIndex {
+
+	private NavigableMap<String, Integer> names; // normalized name + arrival -> arrival
+	private Map<Integer, String> keys;           // arrival -> key in names
+
+	
+	/**
+	 * Creates an empty index.
+	 * 
+	 * @param concurrent True if several threads update the index at once
+	 */
+	public NameIndex(boolean concurrent) {
+		if (concurrent) {
+			this.names = new ConcurrentSkipListMap<String, Integer>();
+			this.keys = new ConcurrentHashMap<Integer, String>();
+		} else {
+			this.names = new TreeMap<String, Integer>();
+			this.keys = new HashMap<Integer, String>();
+		}
+	}
+
+	
+	/**
+	 * Add a patient to the index
+	 * 
+	 * @param patientName The patient's name
+	 * @param arrival     The patient's arrival number
+	 */
+	public void add(String patientName, int arrival) {
+		String key = key(patientName, arrival);
+		keys.put(arrival, key);
+		names.put(key, arrival);
+	}
+
+	
+	/**
+	 * Remove a patient from the index
+	 * 
+	 * @param arrival The patient's arrival number
+	 */
+	public void remove(int arrival) {
+		String key = keys.remove(arrival);
+		if (key != null) {
+			names.remove(key);
+		}
+	}
+
+	
+	/**
+	 * Remove every patient from the index
+	 */
+	public void clear() {
+		names.clear();
+		keys.clear();
+	}
+
+	
+	/**
+	 * Return the arrival numbers of the patients whose name starts with a
+	 * prefix, sorted by name and then arrival
+	 * 
+	 * @param prefix The start of the name, normalized by normalizePrefix()
+	 * @param limit  Most arrival numbers to return
+	 * @return Return the arrival numbers of the matching patients
+	 */
+	public ArrayList<Integer> find(String prefix, int limit) {
+		String from = normalizePrefix(prefix);
+		ArrayList<Integer> arrivals = new ArrayList<Integer>();
+		for (Integer arrival : names.subMap(from, true, from + Character.MAX_VALUE, false).values()) {
+			if (arrivals.size() == limit) {
+				break;
+			}
+			arrivals.add(arrival);
+		}
+		return arrivals;
+	}
+
+	
+	/**
+	 * Return a name in lower case with leading and trailing spaces removed and
+	 * every run of spaces and tabs replaced by a single space
+	 * 
+	 * @param name The name
+	 * @return Return the normalized name
+	 */
+	public static String normalize(String name) {
+		StringBuilder normalized = new StringBuilder(name.length());
+		boolean space = false;
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (c == ' ' || c == '\t') {
+				space = normalized.length() > 0;
+			} else {
+				if (space) {
+					normalized.append(' ');
+					space = false;
+				}
+				normalized.append(Character.toLowerCase(c));
+			}
+		}
+		return normalized.toString();
+	}
+
+	
+	/**
+	 * Return a prefix normalized like a name, except that trailing spaces
+	 * and tabs become a single space, so "john " matches "John Smith" but
+	 * not "Johnson"
+	 * 
+	 * @param prefix The start of a name
+	 * @return Return the normalized prefix
+	 */
+	public static String normalizePrefix(String prefix) {
+		String normalized = normalize(prefix);
+		int last = prefix.length() - 1;
+		if (!normalized.isEmpty() && (prefix.charAt(last) == ' ' || prefix.charAt(last) == '\t')) {
+			return normalized + ' ';
+		}
+		return normalized;
+	}
+
+	
+	/**
+	 * Return the key of a patient: the normalized name, a separator that
+	 * sorts before every character of a name, and the arrival number as two
+	 * characters so keys of the same name sort by arrival
+	 * 
+	 * @param patientName The patient's name
+	 * @param arrival     The patient's arrival number
+	 * @return Return the key
+	 */
+	private static String key(String patientName, int arrival) {
+		return normalize(patientName) + '\0' + (char) (arrival >>> 16) + (char) arrival;
+	}
+
+}
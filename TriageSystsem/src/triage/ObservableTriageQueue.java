@@ -0,0 +1,711 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is a triage queue that publishes the changes of another queue to
+ * subscribers such as waiting room displays, so they do not have to poll.
+ * 
+ * Publishing never waits for a subscriber. Each subscriber has a bounded
+ * buffer of events and one slot for the newest HEAD event, and its events
+ * are delivered on the executor as fast as it requests them. A subscriber
+ * that falls so far behind that its buffer fills up loses the events that
+ * do not fit and gets one MISSED event in their place. HEAD events replace
+ * each other in the slot, so a slow display skips to the current head.
+ * 
+ * While anyone is subscribed, changes are made one at a time under the lock
+ * of this queue, so every subscriber sees them in the same order. With no
+ * subscribers a change goes straight to the wrapped queue after one volatile
+ * read, without the lock, so wrapping a concurrent engine does not serialize
+ * its intake. This queue therefore adds no thread safety of its own: the
+ * wrapped queue must be safe for the threads that use it. A subscriber that
+ * joins while such a change is running may not get an event for it.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class ObservableTriageQueue implements TriageQueue, Flow.Publisher<QueueEvent> {
+
+	public static final int DEFAULT_BUFFER_EVENTS = 256;
+
+	private TriageQueue queue;                   // the queue that holds the patients
+	private Executor executor;                   // runs the deliveries
+	private int bufferEvents;                    // events buffered per subscriber
+	private volatile Subscription[] subscribers; // current subscribers, replaced on change
+	private int headArrival;                     // arrival number of the last published head, -1 for none
+	private int headCode;                        // priority code of the last published head
+	private boolean closed;                      // true once close() was called
+
+	
+	/**
+	 * Creates a queue that delivers events on the common fork-join pool.
+	 * 
+	 * @param queue The queue that holds the patients
+	 */
+	public ObservableTriageQueue(TriageQueue queue) {
+		this(queue, ForkJoinPool.commonPool(), DEFAULT_BUFFER_EVENTS);
+	}
+
+	
+	/**
+	 * Creates a queue that delivers events on the given executor.
+	 * 
+	 * @param queue        The queue that holds the patients
+	 * @param executor     Runs the deliveries
+	 * @param bufferEvents Events buffered per subscriber before events are
+	 *                     dropped
+	 */
+	public ObservableTriageQueue(TriageQueue queue, Executor executor, int bufferEvents) {
+		this.queue = queue;
+		this.executor = executor;
+		this.bufferEvents = bufferEvents;
+		this.subscribers = new Subscription[0];
+		this.headArrival = -1;
+	}
+
+	
+	/**
+	 * Add a subscriber. It first gets the current head once it requests
+	 * events.
+	 * 
+	 * @param subscriber The subscriber
+	 */
+	@Override
+	public void subscribe(Flow.Subscriber<? super QueueEvent> subscriber) {
+		Subscription subscription = new Subscription(subscriber);
+		synchronized (this) {
+			if (closed) {
+				subscription.completing = true;
+			} else {
+				// Heads are not tracked while nobody listens, so start from the current one
+				Patient next = queue.peek();
+				headArrival = next == null ? -1 : next.getArrivalOrder();
+				headCode = next == null ? 0 : next.getPriorityCode();
+				subscription.head = new QueueEvent(QueueEvent.HEAD, next, 0);
+				Subscription[] grown = Arrays.copyOf(subscribers, subscribers.length + 1);
+				grown[subscribers.length] = subscription;
+				subscribers = grown;
+			}
+		}
+		subscription.schedule();
+	}
+
+	
+	/**
+	 * Return the number of subscribers
+	 * 
+	 * @return Return the number of subscribers
+	 */
+	public int getSubscriberCount() {
+		return subscribers.length;
+	}
+
+	
+	/**
+	 * Complete every subscriber once it received its buffered events. No
+	 * events are published after this.
+	 */
+	public synchronized void close() {
+		closed = true;
+		for (Subscription subscription : subscribers) {
+			subscription.complete();
+		}
+		subscribers = new Subscription[0];
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		return queue.getCopyList();
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return queue.arrivalOrder();
+	}
+
+	
+	/**
+	 * Return a snapshot of the waiting patients in arrival order
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		return queue.arrivalSnapshot();
+	}
+
+	
+	/**
+	 * Add a patient and publish it
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		if (subscribers.length == 0) {
+			queue.addPatient(priorityCode, patientName);
+			return;
+		}
+		synchronized (this) {
+			int arrival = queue.getNextPatientNumber();
+			queue.addPatient(priorityCode, patientName);
+			publishAdded(arrival, 1);
+		}
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time and publish it
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		if (subscribers.length == 0) {
+			queue.addPatient(priorityCode, patientName, arrivalTime);
+			return;
+		}
+		synchronized (this) {
+			int arrival = queue.getNextPatientNumber();
+			queue.addPatient(priorityCode, patientName, arrivalTime);
+			publishAdded(arrival, 1);
+		}
+	}
+
+	
+	/**
+	 * Add a batch of patients and publish them
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		if (subscribers.length == 0) {
+			queue.addPatients(priorityCodes, patientNames, count);
+			return;
+		}
+		synchronized (this) {
+			int arrival = queue.getNextPatientNumber();
+			queue.addPatients(priorityCodes, patientNames, count);
+			publishAdded(arrival, count);
+		}
+	}
+
+	
+	/**
+	 * Return the patient that will be seen next
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient peek() {
+		return queue.peek();
+	}
+
+	
+	/**
+	 * Return the next patients that will be seen
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		return queue.peek(k);
+	}
+
+	
+	/**
+	 * Remove the patient that will be seen next and publish it
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		if (subscribers.length == 0) {
+			return queue.dequeue();
+		}
+		synchronized (this) {
+			Patient patient = queue.dequeue();
+			if (patient != null && subscribers.length > 0) {
+				publish(new QueueEvent(QueueEvent.DEQUEUED, patient, 0));
+				publishHead();
+			}
+			return patient;
+		}
+	}
+
+	
+	/**
+	 * Remove the next patient of a home shard and publish it
+	 * 
+	 * @param home The clinician's home shard
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient dequeue(int home) {
+		if (subscribers.length == 0) {
+			return queue.dequeue(home);
+		}
+		synchronized (this) {
+			Patient patient = queue.dequeue(home);
+			if (patient != null && subscribers.length > 0) {
+				publish(new QueueEvent(QueueEvent.DEQUEUED, patient, 0));
+				publishHead();
+			}
+			return patient;
+		}
+	}
+
+	
+	/**
+	 * Return the number of shards of the observed queue
+	 * 
+	 * @return Return the number of shards, Return 0 if the queue is not sharded
+	 */
+	@Override
+	public int getShardCount() {
+		return queue.getShardCount();
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number and publish it
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		if (subscribers.length == 0) {
+			return queue.removeByArrival(arrivalId);
+		}
+		synchronized (this) {
+			Patient removed = queue.removeByArrival(arrivalId);
+			if (removed != null && subscribers.length > 0) {
+				publish(new QueueEvent(QueueEvent.REMOVED, removed, 0));
+				publishHead();
+			}
+			return removed;
+		}
+	}
+
+	
+	/**
+	 * Remove a batch of patients and publish the ones that were waiting
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		if (subscribers.length == 0) {
+			return queue.removeByArrival(arrivalIds, count);
+		}
+		synchronized (this) {
+			ArrayList<Patient> removed = queue.removeByArrival(arrivalIds, count);
+			if (!removed.isEmpty() && subscribers.length > 0) {
+				for (Patient patient : removed) {
+					publish(new QueueEvent(QueueEvent.REMOVED, patient, 0));
+				}
+				publishHead();
+			}
+			return removed;
+		}
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number and
+	 * publish it
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		if (subscribers.length == 0) {
+			return queue.changeByArrival(arrivalId, newPriority);
+		}
+		synchronized (this) {
+			boolean changed = queue.changeByArrival(arrivalId, newPriority);
+			if (changed && subscribers.length > 0) {
+				publish(new QueueEvent(QueueEvent.CHANGED, queue.findByArrival(arrivalId), 0));
+				publishHead();
+			}
+			return changed;
+		}
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		return queue.findByArrival(arrivalId);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		return queue.findByName(prefix, limit);
+	}
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	@Override
+	public int size() {
+		return queue.size();
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return queue.getNextPatientNumber();
+	}
+
+	
+	/**
+	 * Replace the contents of the queue and tell the subscribers to read the
+	 * whole waiting list again
+	 * 
+	 * @param patients          The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> patients, int nextPatientNumber) {
+		if (subscribers.length == 0) {
+			queue.restore(patients, nextPatientNumber);
+			return;
+		}
+		synchronized (this) {
+			queue.restore(patients, nextPatientNumber);
+			if (subscribers.length > 0) {
+				publish(new QueueEvent(QueueEvent.RESTORED, null, queue.size()));
+				publishHead();
+			}
+		}
+	}
+
+	
+	/**
+	 * Return the metrics of the underlying queue
+	 * 
+	 * @return Return the metrics, Return null if the queue is not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return queue.getMetrics();
+	}
+
+	
+	/**
+	 * Publish the patients that were just added and the new head
+	 * 
+	 * @param arrival Arrival number of the first added patient
+	 * @param count   Number of added patients
+	 */
+	private void publishAdded(int arrival, int count) {
+		if (count == 0 || subscribers.length == 0) {
+			return;
+		}
+		for (int i = 0; i < count; i++) {
+			publish(new QueueEvent(QueueEvent.ADDED, queue.findByArrival(arrival + i), 0));
+		}
+		publishHead();
+	}
+
+	
+	/**
+	 * Publish a HEAD event if another patient or priority code is at the head
+	 */
+	private void publishHead() {
+		Patient next = queue.peek();
+		int arrival = next == null ? -1 : next.getArrivalOrder();
+		int code = next == null ? 0 : next.getPriorityCode();
+		if (arrival == headArrival && code == headCode) {
+			return;
+		}
+		headArrival = arrival;
+		headCode = code;
+		QueueEvent event = new QueueEvent(QueueEvent.HEAD, next, 0);
+		for (Subscription subscription : subscribers) {
+			subscription.offerHead(event);
+		}
+	}
+
+	
+	/**
+	 * Hand an event to every subscriber
+	 * 
+	 * @param event The event
+	 */
+	private void publish(QueueEvent event) {
+		for (Subscription subscription : subscribers) {
+			subscription.offer(event);
+		}
+	}
+
+	
+	/**
+	 * Take a subscriber out of the list
+	 * 
+	 * @param subscription The subscription of the subscriber
+	 */
+	private synchronized void unsubscribe(Subscription subscription) {
+		for (int i = 0; i < subscribers.length; i++) {
+			if (subscribers[i] == subscription) {
+				Subscription[] shrunk = new Subscription[subscribers.length - 1];
+				System.arraycopy(subscribers, 0, shrunk, 0, i);
+				System.arraycopy(subscribers, i + 1, shrunk, i, shrunk.length - i);
+				subscribers = shrunk;
+				return;
+			}
+		}
+	}
+
+	
+	/**
+	 * This is the subscription of one subscriber with its buffered events.
+	 * Signals to the subscriber are sent by one delivery at a time on the
+	 * executor, so the subscriber is never called concurrently.
+	 */
+	private class Subscription implements Flow.Subscription, Runnable {
+
+		private Flow.Subscriber<? super QueueEvent> subscriber; // who gets the events
+		private QueueEvent[] ring;      // buffered events
+		private int first;              // index of the oldest buffered event
+		private int count;              // number of buffered events
+		private int dropped;            // events dropped since the buffer was full
+		private QueueEvent head;        // newest HEAD event not yet delivered
+		private long demand;            // events requested and not yet delivered
+		private boolean subscribed;     // true once onSubscribe was called
+		private boolean cancelled;      // true once no more signals may be sent
+		private boolean completing;     // complete once the buffer is empty
+		private Throwable error;        // error to signal, null for none
+		private AtomicInteger pending;  // deliveries asked for, 0 when none is running
+
+	
+		/**
+		 * Creates a subscription.
+		 * 
+		 * @param subscriber Who gets the events
+		 */
+		private Subscription(Flow.Subscriber<? super QueueEvent> subscriber) {
+			this.subscriber = subscriber;
+			this.ring = new QueueEvent[bufferEvents];
+			this.pending = new AtomicInteger();
+		}
+
+	
+		/**
+		 * Ask for more events
+		 * 
+		 * @param n Number of events, must be positive
+		 */
+		@Override
+		public void request(long n) {
+			synchronized (this) {
+				if (n <= 0) {
+					error = new IllegalArgumentException("request must be positive: " + n);
+				} else {
+					demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+				}
+			}
+			schedule();
+		}
+
+	
+		/**
+		 * Stop the events
+		 */
+		@Override
+		public void cancel() {
+			synchronized (this) {
+				cancelled = true;
+				Arrays.fill(ring, null);
+				count = 0;
+				head = null;
+			}
+			unsubscribe(this);
+		}
+
+	
+		/**
+		 * Buffer an event, or drop it if the buffer is full or events were
+		 * dropped that the subscriber was not told about yet
+		 * 
+		 * @param event The event
+		 */
+		private void offer(QueueEvent event) {
+			synchronized (this) {
+				if (cancelled) {
+					return;
+				} else if (count == ring.length || dropped > 0) {
+					dropped++;
+					return;
+				}
+				ring[(first + count) % ring.length] = event;
+				count++;
+			}
+			schedule();
+		}
+
+	
+		/**
+		 * Replace the undelivered HEAD event
+		 * 
+		 * @param event The new HEAD event
+		 */
+		private void offerHead(QueueEvent event) {
+			synchronized (this) {
+				head = event;
+			}
+			schedule();
+		}
+
+	
+		/**
+		 * Complete the subscriber once the buffer is empty
+		 */
+		private void complete() {
+			synchronized (this) {
+				completing = true;
+			}
+			schedule();
+		}
+
+	
+		/**
+		 * Start a delivery on the executor unless one is running, which
+		 * then makes another pass
+		 */
+		private void schedule() {
+			if (pending.getAndIncrement() == 0) {
+				executor.execute(this);
+			}
+		}
+
+	
+		/**
+		 * Deliver until nothing more can be delivered
+		 */
+		@Override
+		public void run() {
+			int passes = pending.get();
+			while (passes != 0) {
+				deliver();
+				passes = pending.addAndGet(-passes);
+			}
+		}
+
+	
+		/**
+		 * Send the buffered events the subscriber asked for, then the HEAD
+		 * event, then completion or an error
+		 */
+		private void deliver() {
+			if (!subscribed) {
+				subscribed = true;
+				subscriber.onSubscribe(this);
+			}
+			while (true) {
+				QueueEvent next = null;
+				boolean finish = false;
+				Throwable failure = null;
+				synchronized (this) {
+					if (cancelled) {
+						return;
+					} else if (error != null) {
+						failure = error;
+						cancelled = true;
+					} else if (demand > 0 && count > 0) {
+						next = ring[first];
+						ring[first] = null;
+						first = (first + 1) % ring.length;
+						count--;
+					} else if (demand > 0 && dropped > 0) {
+						next = new QueueEvent(QueueEvent.MISSED, null, dropped);
+						dropped = 0;
+					} else if (demand > 0 && head != null) {
+						next = head;
+						head = null;
+					} else if (completing && count == 0 && dropped == 0) {
+						finish = true;
+						cancelled = true;
+					} else {
+						return;
+					}
+					if (next != null) {
+						demand--;
+					}
+				}
+				if (failure != null) {
+					unsubscribe(this);
+					subscriber.onError(failure);
+					return;
+				} else if (finish) {
+					subscriber.onComplete();
+					return;
+				}
+				try {
+					subscriber.onNext(next);
+				} catch (RuntimeException e) {
+					// A failing subscriber is dropped without stopping the others
+					cancel();
+					return;
+				}
+			}
+		}
+	}
+
+}
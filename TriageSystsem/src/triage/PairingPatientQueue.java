@@ -0,0 +1,624 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * This is a triage queue implemented using a pairing heap, so that the
+ * waiting room of another queue can be merged into it by linking the two
+ * roots instead of adding its patients one by one.
+ * 
+ * Every patient is a node that holds its first child and its siblings. An add
+ * or a merge links two roots in O(1) time, and dequeue pairs up the children
+ * of the root from left to right and links the pairs from right to left, in
+ * O(log n) amortized time. A removed patient or one whose priority code
+ * changed is cut out with its subtree, so no tombstones are left behind.
+ * 
+ * Arrival numbers only order patients who waited in the same queue. Every
+ * patient also keeps the time it arrived, and patients with the same
+ * priority code are seen in order of that time and then of arrival number.
+ * In a queue that was never merged into, the times never go backwards, so
+ * the order is the same as in the other engines. After a merge, the patients
+ * of both queues keep their place by the time they actually arrived.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class PairingPatientQueue implements TriageQueue {
+
+	private Node root;                     // patient to be seen next, null if empty
+	private int nextPatientNumber;         // num assigned to next added patient
+	private long lastArrivalTime;          // latest arrival time given to a patient
+	private HashMap<Integer, Node> nodes;  // arrival number -> waiting patient's node
+	private ArrivalLog log;                // waiting patients in arrival order
+	private NameIndex nameIndex;           // waiting patients by name
+	private QueueMetrics metrics;          // null when instrumentation is off
+	private int linkSteps;                 // links made by the current operation
+
+	
+	/**
+	 * Creates an empty triage system with no patients and no instrumentation.
+	 */
+	public PairingPatientQueue() {
+		this(null);
+	}
+
+	
+	/**
+	 * Creates an empty triage system with no patients that records its
+	 * operations into the given metrics.
+	 * 
+	 * @param metrics The metrics to record into, null to record nothing
+	 */
+	public PairingPatientQueue(QueueMetrics metrics) {
+		this.metrics = metrics;
+		this.nextPatientNumber = 1;
+		this.lastArrivalTime = Long.MIN_VALUE;
+		this.nodes = new HashMap<Integer, Node>();
+		this.log = new ArrivalLog();
+		this.nameIndex = new NameIndex(false);
+	}
+
+	
+	/**
+	 * Move every patient of another queue into this one, leaving the other
+	 * queue empty. The two heaps are joined with a single link. The moved
+	 * patients are numbered after the patients of this queue, in the order
+	 * they arrived, and keep their arrival times, so a moved patient is still
+	 * seen before a patient of the same priority code who arrived later in
+	 * this queue. Only the indices of the moved patients are rebuilt, so the
+	 * time taken grows with the number of patients moved and not with the
+	 * number of patients already waiting here.
+	 * 
+	 * @param other The queue to empty into this one
+	 * @return Return the arrival number given to the first moved patient
+	 */
+	public int merge(PairingPatientQueue other) {
+		if (other == this) {
+			throw new IllegalArgumentException("cannot merge a queue into itself");
+		}
+		int first = nextPatientNumber;
+		for (Patient patient : other.log) {
+			Node node = other.nodes.get(patient.getArrivalOrder());
+			node.patient = new Patient(patient.getPriorityCode(), nextPatientNumber, patient.getName(),
+						   patient.getArrivalTime());
+			nodes.put(nextPatientNumber, node);
+			log.add(node.patient);
+			nameIndex.add(node.patient.getName(), nextPatientNumber);
+			if (metrics != null) {
+				metrics.addDepth(patient.getPriorityCode(), 1);
+			}
+			if (other.metrics != null) {
+				other.metrics.addDepth(patient.getPriorityCode(), -1);
+			}
+			nextPatientNumber++;
+		}
+		root = link(root, other.root);
+		lastArrivalTime = Math.max(lastArrivalTime, other.lastArrivalTime);
+		other.root = null;
+		other.nodes = new HashMap<Integer, Node>();
+		other.log = new ArrivalLog();
+		other.nameIndex.clear();
+		return first;
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients in arrival order
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		ArrayList<Patient> copy = new ArrayList<Patient>(nodes.size());
+		for (Patient patient : log) {
+			copy.add(patient);
+		}
+		return copy;
+	}
+
+	
+	/**
+	 * Add a Patient object to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a Patient object that arrived at the given time to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		linkSteps = 0;
+		insert(new Patient(priorityCode, nextPatientNumber, patientName, arrivalTime));
+		if (metrics != null) {
+			metrics.recordAdd(System.nanoTime() - start, linkSteps, priorityCode);
+		}
+	}
+
+	
+	/**
+	 * Add a batch of Patient objects to the heap. Each add is a single link
+	 * with the root, so a batch needs no special handling.
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			insert(new Patient(priorityCodes[i], nextPatientNumber, patientNames[i], arrivalTime));
+			if (metrics != null) {
+				metrics.addDepth(priorityCodes[i], 1);
+			}
+		}
+	}
+
+	
+	/**
+	 * Return the patient at the root
+	 * 
+	 * @return Return the patient at the root, Return null if the heap is empty
+	 */
+	@Override
+	public Patient peek() {
+		return root == null ? null : root.patient;
+	}
+
+	
+	/**
+	 * Return the next k patients in exact service order. The children of a
+	 * node are not ordered among themselves, so the next k roots are taken
+	 * out and linked back in, which takes O(k log n) amortized time and
+	 * leaves the same patients waiting.
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		int count = Math.max(0, Math.min(k, size()));
+		ArrayList<Node> taken = new ArrayList<Node>(count);
+		while (taken.size() < count) {
+			taken.add(removeRoot());
+		}
+		ArrayList<Patient> next = new ArrayList<Patient>(count);
+		for (Node node : taken) {
+			next.add(node.patient);
+			root = link(root, node);
+		}
+		return next;
+	}
+
+	
+	/**
+	 * Remove an item from the heap
+	 * 
+	 * @return Return the minimum element in the heap
+	 *         Return null if the heap is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		if (root == null) {
+			return null;
+		}
+		long start = metrics == null ? 0 : System.nanoTime();
+		linkSteps = 0;
+		Patient patient = removeRoot().patient;
+		forget(patient);
+		if (metrics != null) {
+			long waited = System.currentTimeMillis() - patient.getArrivalTime();
+			metrics.recordDequeue(System.nanoTime() - start, linkSteps,
+					      patient.getPriorityCode(), waited);
+		}
+		return patient;
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number by cutting its node
+	 * out of the heap
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		Node node = nodes.get(arrivalId);
+		if (node == null) {
+			return null;
+		}
+		removeNode(node);
+		forget(node.patient);
+		if (metrics != null) {
+			metrics.addDepth(node.patient.getPriorityCode(), -1);
+		}
+		return node.patient;
+	}
+
+	
+	/**
+	 * Remove a batch of patients by cutting their nodes out of the heap
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (int i = 0; i < count; i++) {
+			Patient patient = removeByArrival(arrivalIds[i]);
+			if (patient != null) {
+				removed.add(patient);
+			}
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the Patient object with the given arrival number.
+	 * A patient that becomes more urgent is cut out with its subtree and
+	 * linked with the root, one that becomes less urgent is removed and added
+	 * back.
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		Node node = nodes.get(arrivalId);
+		if (node == null) {
+			return false;
+		}
+		long start = metrics == null ? 0 : System.nanoTime();
+		linkSteps = 0;
+		Patient old = node.patient;
+		node.patient = new Patient(newPriority, arrivalId, old.getName(), old.getArrivalTime());
+		log.set(node.patient);
+		if (newPriority < old.getPriorityCode() && node != root) {
+			cut(node);
+			root = link(root, node);
+		} else if (newPriority > old.getPriorityCode()) {
+			removeNode(node);
+			root = link(root, node);
+		}
+		if (metrics != null) {
+			metrics.recordChange(System.nanoTime() - start, linkSteps,
+					     old.getPriorityCode(), newPriority);
+		}
+		return true;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		Node node = nodes.get(arrivalId);
+		return node == null ? null : node.patient;
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (int arrival : nameIndex.find(prefix, limit)) {
+			found.add(nodes.get(arrival).patient);
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return log::iterator;
+	}
+
+	
+	/**
+	 * Return a snapshot of the waiting patients in arrival order, which
+	 * shares the chunks of the arrival log instead of copying the patients
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		return log.snapshot();
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber;
+	}
+
+	
+	/**
+	 * Replace the heap with the given patients, keeping their arrival numbers.
+	 * The patients are linked with the root in arrival order.
+	 * 
+	 * @param waiting           The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> waiting, int nextPatientNumber) {
+		if (metrics != null) {
+			for (Patient patient : log) {
+				metrics.addDepth(patient.getPriorityCode(), -1);
+			}
+		}
+		ArrayList<Patient> byArrival = new ArrayList<Patient>(waiting);
+		byArrival.sort(Comparator.comparingInt(Patient::getArrivalOrder));
+		this.root = null;
+		this.lastArrivalTime = Long.MIN_VALUE;
+		this.nodes = new HashMap<Integer, Node>();
+		this.log = new ArrivalLog();
+		nameIndex.clear();
+		for (Patient patient : byArrival) {
+			insert(patient);
+			if (metrics != null) {
+				metrics.addDepth(patient.getPriorityCode(), 1);
+			}
+		}
+		this.nextPatientNumber = nextPatientNumber;
+	}
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	@Override
+	public int size() {
+		return nodes.size();
+	}
+
+	
+	/**
+	 * Return the metrics the heap records
+	 * 
+	 * @return Return the metrics, Return null if instrumentation is off
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return metrics;
+	}
+
+	
+	/**
+	 * Add a patient that already has an arrival number to the heap. Patients
+	 * must be inserted in increasing arrival order.
+	 * 
+	 * @param patient The patient to add
+	 */
+	private void insert(Patient patient) {
+		int arrival = patient.getArrivalOrder();
+		lastArrivalTime = Math.max(lastArrivalTime, patient.getArrivalTime());
+		Node node = new Node(patient, lastArrivalTime);
+		nodes.put(arrival, node);
+		log.add(patient);
+		nameIndex.add(patient.getName(), arrival);
+		root = link(root, node);
+		nextPatientNumber = Math.max(nextPatientNumber, arrival + 1);
+	}
+
+	
+	/**
+	 * Remove a patient that left the heap from the indices
+	 * 
+	 * @param patient The patient
+	 */
+	private void forget(Patient patient) {
+		nodes.remove(patient.getArrivalOrder());
+		log.remove(patient.getArrivalOrder());
+		nameIndex.remove(patient.getArrivalOrder());
+	}
+
+	
+	/**
+	 * Take the root out of the heap and join its children into the new root
+	 * 
+	 * @return Return the old root, with no children
+	 */
+	private Node removeRoot() {
+		Node old = root;
+		root = pair(old.child);
+		old.child = null;
+		return old;
+	}
+
+	
+	/**
+	 * Take a node out of the heap, leaving its children in the heap
+	 * 
+	 * @param node The node, with no children or siblings afterwards
+	 */
+	private void removeNode(Node node) {
+		if (node == root) {
+			removeRoot();
+		} else {
+			cut(node);
+			Node children = pair(node.child);
+			node.child = null;
+			root = link(root, children);
+		}
+	}
+
+	
+	/**
+	 * Cut a node that is not the root out of its parent's children, keeping
+	 * its own subtree
+	 * 
+	 * @param node The node
+	 */
+	private void cut(Node node) {
+		if (node.previous.child == node) {
+			node.previous.child = node.next;
+		} else {
+			node.previous.next = node.next;
+		}
+		if (node.next != null) {
+			node.next.previous = node.previous;
+		}
+		node.previous = null;
+		node.next = null;
+	}
+
+	
+	/**
+	 * Join a list of siblings into one tree: link them in pairs from left to
+	 * right, then link the pairs from right to left. Both passes are loops,
+	 * so a root with millions of children needs no deep recursion.
+	 * 
+	 * @param first The first sibling, null for none
+	 * @return Return the root of the joined tree, Return null if there were
+	 *         no siblings
+	 */
+	private Node pair(Node first) {
+		Node pairs = null; // linked pairs, the last one first
+		while (first != null) {
+			Node second = first.next;
+			Node rest = second == null ? null : second.next;
+			first.previous = null;
+			first.next = null;
+			if (second != null) {
+				second.previous = null;
+				second.next = null;
+			}
+			Node linked = link(first, second);
+			linked.next = pairs;
+			pairs = linked;
+			first = rest;
+		}
+		Node joined = null;
+		while (pairs != null) {
+			Node linked = pairs;
+			pairs = linked.next;
+			linked.next = null;
+			joined = link(joined, linked);
+		}
+		return joined;
+	}
+
+	
+	/**
+	 * Link two trees by making the root that must be seen later the first
+	 * child of the other
+	 * 
+	 * @param first  The root of the first tree, null for none
+	 * @param second The root of the second tree, null for none
+	 * @return Return the root of the linked tree
+	 */
+	private Node link(Node first, Node second) {
+		if (first == null) {
+			return second;
+		} else if (second == null) {
+			return first;
+		}
+		linkSteps++;
+		if (comesBefore(second, first)) {
+			Node temp = first;
+			first = second;
+			second = temp;
+		}
+		second.previous = first;
+		second.next = first.child;
+		if (first.child != null) {
+			first.child.previous = second;
+		}
+		first.child = second;
+		return first;
+	}
+
+	
+	/**
+	 * Check if a patient must be seen before another one
+	 * 
+	 * @param first  The first patient's node
+	 * @param second The second patient's node
+	 * @return Return true if first has a lower priority code, or the same
+	 *         code and an earlier arrival time, or the same time and an
+	 *         earlier arrival number, otherwise false
+	 */
+	private boolean comesBefore(Node first, Node second) {
+		if (first.patient.getPriorityCode() != second.patient.getPriorityCode()) {
+			return first.patient.getPriorityCode() < second.patient.getPriorityCode();
+		}
+		if (first.arrivalTime != second.arrivalTime) {
+			return first.arrivalTime < second.arrivalTime;
+		}
+		return first.patient.getArrivalOrder() < second.patient.getArrivalOrder();
+	}
+
+	
+	/**
+	 * This is a node of the pairing heap: a patient with its first child, its
+	 * next sibling, and the node before it, which is its parent if it is the
+	 * first child.
+	 */
+	private static class Node {
+
+		private Patient patient;    // the waiting patient
+		private long arrivalTime;   // arrival time used for ordering, never going back in one queue
+		private Node child;         // first child, null if none
+		private Node next;          // next sibling, null if none
+		private Node previous;      // previous sibling or parent, null for the root
+
+	
+		/**
+		 * Creates a node with no children.
+		 * 
+		 * @param patient     The patient
+		 * @param arrivalTime Arrival time used for ordering
+		 */
+		private Node(Patient patient, long arrivalTime) {
+			this.patient = patient;
+			this.arrivalTime = arrivalTime;
+		}
+	}
+
+}
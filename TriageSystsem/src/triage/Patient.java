@@ -15,6 +15,7 @@ public class Patient implements Comparable {
     private int priorityCode;   // patient's assigned priority
     private int arrivalOrder;   // assigned arrival number
     private String name;        // patient's name
+    private long arrivalTime;   // time the patient was added, in millis
 
     
     /**
@@ -27,9 +28,26 @@ public class Patient implements Comparable {
      * @param name the name of the patient
      */
     public Patient(int priorityCode, int arrivalOrder, String name) {
+        this(priorityCode, arrivalOrder, name, System.currentTimeMillis());
+    }
+
+    
+    /**
+     * Creates a patient object that arrived at the given time.
+     * 
+     * @param priorityCode the priority code of the patient, lower will be
+     *                     seen first
+     * @param arrivalOrder number representing the order the patient
+     *                     arrived in the waiting room.
+     * @param name the name of the patient
+     * @param arrivalTime the time the patient arrived, in milliseconds
+     *                    since the epoch
+     */
+    public Patient(int priorityCode, int arrivalOrder, String name, long arrivalTime) {
         this.priorityCode = priorityCode;
         this.arrivalOrder = arrivalOrder;
         this.name = name;
+        this.arrivalTime = arrivalTime;
     }
 
     
@@ -61,6 +79,16 @@ public class Patient implements Comparable {
     public String getName() {
         return name;
     }
+
+    
+    /**
+     * Time the patient arrived in the waiting room
+     * 
+     * @return arrival time in milliseconds since the epoch
+     */
+    public long getArrivalTime() {
+        return arrivalTime;
+    }
     
     
     /**
@@ -83,7 +111,7 @@ public class Patient implements Comparable {
      */
     @Override
     public String toString() {
-        return name + "{" + "pri=" + priorityCode + ", arrive=" +
+        return getName() + "{" + "pri=" + priorityCode + ", arrive=" +
                arrivalOrder + '}';
     }
     
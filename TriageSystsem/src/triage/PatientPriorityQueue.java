@@ -4,25 +4,100 @@
  */
 package triage;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.PriorityQueue;
 
 /**
  * This is a program to build a hospital triage system implemented using a heap.
  * 
+ * A patient removed without being seen is only marked as a tombstone: it
+ * leaves the index of waiting patients but stays in the heap until it reaches
+ * the root, where peek and dequeue drop it. Once tombstones outnumber the
+ * waiting patients the heap is compacted and rebuilt in linear time, so a
+ * mass removal costs no sift per patient.
+ * 
+ * With a name arena, the patients in the heap keep only the offset of their
+ * name in the arena instead of a String, and the name is only decoded when
+ * someone asks for it.
+ * 
+ * The waiting patients are also kept in an arrival log, so a snapshot of the
+ * waiting list in arrival order costs one reference per 1024 patients.
+ * 
  * @author JungBok Cho
  * @version 1.0
  */
-public class PatientPriorityQueue {
+public class PatientPriorityQueue implements TriageQueue {
 	
 	private ArrayList<Patient> patients;   // heap property is always satisfied
 	private int nextPatientNumber; 	       // num assigned to next added patient
+	private HashMap<Integer, Integer> positions; // arrival number -> heap index
+	private HashMap<Integer, Patient> arrivals; // waiting patients by arrival
+	private ArrivalLog log;        // waiting patients in arrival order
+	private NameIndex nameIndex;   // waiting patients by name
+	private QueueMetrics metrics;  // null when instrumentation is off
+	private int siftSteps;         // swaps made by the current operation
+	private long agingMillis;      // time to move up one level, 0 for no aging
+	private int tombstones;        // removed patients still in the heap
+	private NameArena names;       // where names are kept, null to keep Strings
 
 	
 	/**
-	 * Creates an empty triage system with no patients.
+	 * Creates an empty triage system with no patients and no instrumentation.
 	 */
 	public PatientPriorityQueue() {
+		this(null);
+	}
+
+	
+	/**
+	 * Creates an empty triage system with no patients that records its
+	 * operations into the given metrics. Without metrics, no operation is
+	 * timed and no sift steps are counted, but every add or batch still
+	 * reads the wall clock once to stamp arrival times, which aging, the
+	 * journal and saved images depend on.
+	 * 
+	 * @param metrics The metrics to record into, null to record nothing
+	 */
+	public PatientPriorityQueue(QueueMetrics metrics) {
+		this(metrics, 0);
+	}
+
+	
+	/**
+	 * Creates an empty triage system with no patients where a waiting patient
+	 * moves up one priority level every agingMillis, so that no patient
+	 * waits forever under sustained load.
+	 * 
+	 * @param metrics     The metrics to record into, null to record nothing
+	 * @param agingMillis Time to move up one level, 0 for no aging
+	 */
+	public PatientPriorityQueue(QueueMetrics metrics, long agingMillis) {
+		this(metrics, agingMillis, null);
+	}
+
+	
+	/**
+	 * Creates an empty triage system with no patients that keeps the names of
+	 * its patients in a name arena instead of the heap.
+	 * 
+	 * @param metrics     The metrics to record into, null to record nothing
+	 * @param agingMillis Time to move up one level, 0 for no aging
+	 * @param names       The arena to keep names in, null to keep Strings
+	 */
+	public PatientPriorityQueue(QueueMetrics metrics, long agingMillis, NameArena names) {
+		if (agingMillis < 0) {
+			throw new IllegalArgumentException("aging time cannot be negative: " + agingMillis);
+		}
+		this.metrics = metrics;
+		this.agingMillis = agingMillis;
+		this.names = names;
 		this.patients = new ArrayList<Patient>();
 		this.nextPatientNumber = 1;
+		this.positions = new HashMap<Integer, Integer>();
+		this.arrivals = new HashMap<Integer, Patient>();
+		this.log = new ArrivalLog();
+		this.nameIndex = new NameIndex(false);
 	}
 	
 
@@ -32,6 +107,9 @@ public class PatientPriorityQueue {
 	 * @return the list of patients that have not been called
 	 */
 	public ArrayList<Patient> getPatientList() {
+		if (tombstones > 0) {
+			compact();
+		}
 		return patients;
 	}
 
@@ -41,10 +119,13 @@ public class PatientPriorityQueue {
 	 * 
 	 * @return Return a copy of patients arrayList
 	 */
+	@Override
 	public ArrayList<Patient> getCopyList() {
 		ArrayList<Patient> temp = new ArrayList<>();
 		for (int i = 0; i < patients.size(); i++) {
-			temp.add(patients.get(i));
+			if (!isRemoved(patients.get(i))) {
+				temp.add(patients.get(i));
+			}
 		}
 		return temp;
 	}
@@ -56,20 +137,95 @@ public class PatientPriorityQueue {
 	 * @param priorityCode The patient's priority code
 	 * @param patientName  The patient's name
 	 */
+	@Override
 	public void addPatient(int priorityCode, String patientName) {
-		Patient toAdd = new Patient(priorityCode, nextPatientNumber, patientName);
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a Patient object that arrived at the given time to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		insert(new Patient(priorityCode, nextPatientNumber, patientName, arrivalTime));
+	}
+
+	
+	/**
+	 * Add a Patient object that already has an arrival number to the heap,
+	 * such as one numbered by a sharded queue. Patients must be inserted in
+	 * increasing arrival order.
+	 * 
+	 * @param toAdd The patient to add
+	 */
+	void insert(Patient patient) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		siftSteps = 0;
+		Patient toAdd = stored(patient);
+		int arrival = toAdd.getArrivalOrder();
 		patients.add(toAdd);
+		positions.put(arrival, patients.size() - 1);
+		arrivals.put(arrival, toAdd);
+		log.add(toAdd);
+		nameIndex.add(patient.getName(), arrival);
 		percolateUp(patients.size() - 1); // Heapify
-		nextPatientNumber++;
+		nextPatientNumber = Math.max(nextPatientNumber, arrival + 1);
+		if (metrics != null) {
+			metrics.recordAdd(System.nanoTime() - start, siftSteps, toAdd.getPriorityCode());
+		}
+	}
+
+	
+	/**
+	 * Add a batch of Patient objects to the heap. A batch at least as large as
+	 * the heap is appended and then heapified bottom-up in linear time,
+	 * otherwise each patient is percolated up on its own.
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		boolean heapify = count >= patients.size();
+		patients.ensureCapacity(patients.size() + count);
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			Patient toAdd = newPatient(priorityCodes[i], nextPatientNumber, patientNames[i], arrivalTime);
+			patients.add(toAdd);
+			positions.put(nextPatientNumber, patients.size() - 1);
+			arrivals.put(nextPatientNumber, toAdd);
+			log.add(toAdd);
+			nameIndex.add(patientNames[i], nextPatientNumber);
+			if (!heapify) {
+				percolateUp(patients.size() - 1);
+			}
+			if (metrics != null) {
+				metrics.addDepth(priorityCodes[i], 1);
+			}
+			nextPatientNumber++;
+		}
+		if (heapify) {
+			for (int i = patients.size() / 2 - 1; i >= 0; i--) {
+				percolateDown(i);
+			}
+		}
 	}
 
 	
 	/**
-	 * Return the object in the index of 0
+	 * Return the object in the index of 0, dropping tombstones at the root
 	 * 
 	 * @return Return the object in the root, Return null if the heap is empty
 	 */
+	@Override
 	public Patient peek() {
+		dropRemovedRoots();
 		if (patients.isEmpty()) {
 			return null;
 		} else {
@@ -78,103 +234,439 @@ public class PatientPriorityQueue {
 	}
 
 	
+	/**
+	 * Return the next k patients in exact service order. A patient can only
+	 * be next once its parent was taken, so a small frontier heap of heap
+	 * indices starts at the root and each patient taken adds its children.
+	 * This takes O(k log k) time and leaves the heap untouched. Tombstones
+	 * are walked through but not returned.
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		int count = Math.max(0, Math.min(k, size()));
+		ArrayList<Patient> next = new ArrayList<Patient>(count);
+		if (count == 0) {
+			return next;
+		}
+		PriorityQueue<Integer> frontier = new PriorityQueue<Integer>(2 * count,
+				(first, second) -> compare(patients.get(first), patients.get(second)));
+		frontier.add(0);
+		while (next.size() < count) {
+			int index = frontier.poll();
+			if (!isRemoved(patients.get(index))) {
+				next.add(patients.get(index));
+			}
+			if (hasLeft(index)) {
+				frontier.add(index * 2 + 1);
+			}
+			if (hasRight(index)) {
+				frontier.add(index * 2 + 2);
+			}
+		}
+		return next;
+	}
+
+	
 	/**
 	 * Remove an item from the heap
 	 * 
 	 * @return Return the minimum element in the heap 
 	 *         Return null if the heap is empty
 	 */
+	@Override
 	public Patient dequeue() {
+		dropRemovedRoots();
 		if (patients.isEmpty()) {
 			return null;
 		} else {
-			Patient root = patients.get(0);
-			patients.set(0, patients.get(patients.size() - 1));
-			patients.remove(patients.size() - 1);
-			percolateDown(0); // Heapify
+			long start = metrics == null ? 0 : System.nanoTime();
+			siftSteps = 0;
+			Patient root = removeRoot();
+			arrivals.remove(root.getArrivalOrder());
+			log.remove(root.getArrivalOrder());
+			nameIndex.remove(root.getArrivalOrder());
+			if (metrics != null) {
+				long waited = System.currentTimeMillis() - root.getArrivalTime();
+				metrics.recordDequeue(System.nanoTime() - start, siftSteps,
+						      root.getPriorityCode(), waited);
+			}
 			return root;
 		}
 	}
 
 	
+	/**
+	 * Remove the patient with the given arrival number by marking it as a
+	 * tombstone, compacting the heap if tombstones outnumber the patients
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		Patient removed = markRemoved(arrivalId);
+		if (tombstones > arrivals.size()) {
+			compact();
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Remove a batch of patients by marking them as tombstones, and compact
+	 * the heap at most once at the end
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (int i = 0; i < count; i++) {
+			Patient patient = markRemoved(arrivalIds[i]);
+			if (patient != null) {
+				removed.add(patient);
+			}
+		}
+		if (tombstones > arrivals.size()) {
+			compact();
+		}
+		return removed;
+	}
+
+	
 	/**
 	 * Change priorityCode of a Patient object
 	 * 
 	 * @param patientNum   The index of the target patient
 	 * @param priorityCode The patient's priority code
-	 * @param arrivalNum   The patient's name
+	 * @param arrivalNum   The patient's arrival number
+	 */
+	private void change(int patientNum, int priorityCode, int arrivalNum) {
+		long start = metrics == null ? 0 : System.nanoTime();
+		siftSteps = 0;
+		Patient old = patients.get(patientNum);
+		Patient changed;
+		if (old instanceof ArenaPatient) {
+			changed = new ArenaPatient(priorityCode, arrivalNum, names, ((ArenaPatient) old).nameOffset,
+						   old.getArrivalTime());
+		} else {
+			changed = new Patient(priorityCode, arrivalNum, old.getName(), old.getArrivalTime());
+		}
+		patients.set(patientNum, changed);
+		positions.put(arrivalNum, patientNum);
+		arrivals.put(arrivalNum, changed);
+		log.set(changed);
+		percolateUp(patientNum);
+		percolateDown(positions.get(arrivalNum));
+		if (metrics != null) {
+			metrics.recordChange(System.nanoTime() - start, siftSteps,
+					     old.getPriorityCode(), priorityCode);
+		}
+	}
+
+	
+	/**
+	 * Change priorityCode of the Patient object with the given arrival number.
+	 * The heap index is found through the position index, so no scan is needed.
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		Integer index = positions.get(arrivalId);
+		if (index == null || !arrivals.containsKey(arrivalId)) {
+			return false;
+		}
+		change(index, newPriority, arrivalId);
+		return true;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		return arrivals.get(arrivalId);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (int arrival : nameIndex.find(prefix, limit)) {
+			found.add(arrivals.get(arrival));
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return log::iterator;
+	}
+
+	
+	/**
+	 * Return a snapshot of the waiting patients in arrival order, which
+	 * shares the chunks of the arrival log instead of copying the patients
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		return log.snapshot();
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber;
+	}
+
+	
+	/**
+	 * Replace the heap with the given patients, keeping their arrival numbers.
+	 * Patients saved in heap order already satisfy the heap property and are
+	 * taken as they are, anything else is heapified bottom-up.
+	 * 
+	 * @param waiting           The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
 	 */
-	public void change(int patientNum, int priorityCode, int arrivalNum) {
-		String patientName = patients.get(patientNum).getName();
-		patients.set(patientNum, new Patient(priorityCode, arrivalNum, patientName));
-		percolateUpForChange(patientNum);
-		percolateDown(patientNum);
+	@Override
+	public void restore(ArrayList<Patient> waiting, int nextPatientNumber) {
+		if (metrics != null) {
+			for (Patient patient : log) {
+				metrics.addDepth(patient.getPriorityCode(), -1);
+			}
+		}
+		this.patients = new ArrayList<Patient>(waiting.size());
+		for (Patient patient : waiting) {
+			patients.add(stored(patient));
+		}
+		this.positions = new HashMap<Integer, Integer>();
+		this.arrivals = new HashMap<Integer, Patient>();
+		this.log = new ArrivalLog();
+		this.nextPatientNumber = nextPatientNumber;
+		this.tombstones = 0;
+		for (int i = 0; i < patients.size(); i++) {
+			positions.put(patients.get(i).getArrivalOrder(), i);
+		}
+		ArrayList<Patient> byArrival = new ArrayList<Patient>(patients);
+		byArrival.sort(Comparator.comparingInt(Patient::getArrivalOrder));
+		nameIndex.clear();
+		for (Patient patient : byArrival) {
+			arrivals.put(patient.getArrivalOrder(), patient);
+			log.add(patient);
+			nameIndex.add(patient.getName(), patient.getArrivalOrder());
+		}
+		if (metrics != null) {
+			for (Patient patient : byArrival) {
+				metrics.addDepth(patient.getPriorityCode(), 1);
+			}
+		}
+		
+		// Check the heap property and heapify only if it does not hold
+		for (int i = 1; i < patients.size(); i++) {
+			if (comesBefore(patients.get(i), parent(i))) {
+				for (int j = patients.size() / 2 - 1; j >= 0; j--) {
+					percolateDown(j);
+				}
+				break;
+			}
+		}
 	}
 
 	
 	/**
-	 * Return the size of heap
+	 * Return the size of heap, not counting tombstones
 	 * 
 	 * @return Return the size of heap
 	 */
+	@Override
 	public int size() {
-		return patients.size();
+		return patients.size() - tombstones;
 	}
+
 	
+	/**
+	 * Return the arena the heap keeps names in
+	 * 
+	 * @return Return the arena, Return null if names are kept as Strings
+	 */
+	public NameArena getNameArena() {
+		return names;
+	}
 
+	
 	/**
-	 * Shifts up the element at patients[size() - 1]
+	 * Return the metrics the heap records
 	 * 
-	 * @param index The elements to percolate up
+	 * @return Return the metrics, Return null if instrumentation is off
 	 */
-	private void percolateUp(int index) {
-		int parentIndex = (index - 1) / 2;
-		Patient curr = patients.get(index);
-		Patient parent = parent(index);
-
-		// Check which one is lower, then, swap the values
-		if (parentIndex >= 0 && curr.getPriorityCode() < parent.getPriorityCode()) {
-			Patient temp = curr;
-			patients.set(index, parent);
-			patients.set(parentIndex, temp);
-			percolateUp(parentIndex);
-		// If the priorities are same, check the arrival orders
-		} else if (parentIndex >= 0 && curr.getPriorityCode() == parent.getPriorityCode()) {
-			if (curr.getArrivalOrder() < parent.getArrivalOrder()) {
-				Patient temp = curr;
-				patients.set(index, parent);
-				patients.set(parentIndex, temp);
-				percolateUp(parentIndex);
+	@Override
+	public QueueMetrics getMetrics() {
+		return metrics;
+	}
+	
+
+	/**
+	 * Create a patient, keeping its name in the arena if there is one
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param arrival      The patient's arrival number
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 * @return Return the new patient
+	 */
+	private Patient newPatient(int priorityCode, int arrival, String patientName, long arrivalTime) {
+		if (names == null) {
+			return new Patient(priorityCode, arrival, patientName, arrivalTime);
+		}
+		return new ArenaPatient(priorityCode, arrival, names, names.intern(patientName), arrivalTime);
+	}
+
+	
+	/**
+	 * Return the patient as it is kept in the heap: with its name moved into
+	 * the arena if there is one, otherwise unchanged
+	 * 
+	 * @param patient The patient
+	 * @return Return the patient to keep in the heap
+	 */
+	private Patient stored(Patient patient) {
+		if (names == null || patient instanceof ArenaPatient) {
+			return patient;
+		}
+		return newPatient(patient.getPriorityCode(), patient.getArrivalOrder(), patient.getName(),
+				  patient.getArrivalTime());
+	}
+
+	
+	/**
+	 * Mark the patient with the given arrival number as a tombstone. It is
+	 * no longer waiting but keeps its place in the heap.
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	private Patient markRemoved(int arrivalId) {
+		Patient removed = arrivals.remove(arrivalId);
+		if (removed != null) {
+			log.remove(arrivalId);
+			nameIndex.remove(arrivalId);
+			tombstones++;
+			if (metrics != null) {
+				metrics.addDepth(removed.getPriorityCode(), -1);
 			}
 		}
+		return removed;
 	}
+
 	
+	/**
+	 * Check if a patient in the heap is a tombstone
+	 * 
+	 * @param patient The patient in the heap
+	 * @return Return true if the patient was removed, otherwise false
+	 */
+	private boolean isRemoved(Patient patient) {
+		return arrivals.get(patient.getArrivalOrder()) != patient;
+	}
 
+	
+	/**
+	 * Drop the tombstones at the root until a waiting patient is there
+	 */
+	private void dropRemovedRoots() {
+		while (tombstones > 0 && !patients.isEmpty() && isRemoved(patients.get(0))) {
+			removeRoot();
+			tombstones--;
+		}
+	}
+
+	
 	/**
-	 * Shifts up the element at patients[size() - 1] Also, swap the values even
-	 * though current priority code is equal to parent's priority code
+	 * Take the root out of the heap and move the last element into its place
+	 * 
+	 * @return Return the old root
+	 */
+	private Patient removeRoot() {
+		Patient root = patients.get(0);
+		Patient last = patients.remove(patients.size() - 1);
+		positions.remove(root.getArrivalOrder());
+		if (!patients.isEmpty()) {
+			patients.set(0, last);
+			positions.put(last.getArrivalOrder(), 0);
+			percolateDown(0); // Heapify
+		}
+		return root;
+	}
+
+	
+	/**
+	 * Throw away every tombstone and heapify the remaining patients bottom-up
+	 */
+	private void compact() {
+		ArrayList<Patient> waiting = new ArrayList<Patient>(arrivals.size());
+		for (Patient patient : patients) {
+			if (isRemoved(patient)) {
+				positions.remove(patient.getArrivalOrder());
+			} else {
+				positions.put(patient.getArrivalOrder(), waiting.size());
+				waiting.add(patient);
+			}
+		}
+		patients = waiting;
+		tombstones = 0;
+		for (int i = patients.size() / 2 - 1; i >= 0; i--) {
+			percolateDown(i);
+		}
+	}
+	
+
+	/**
+	 * Shifts up the element at patients[size() - 1]
 	 * 
 	 * @param index The elements to percolate up
 	 */
-	private void percolateUpForChange(int index) {
+	private void percolateUp(int index) {
 		int parentIndex = (index - 1) / 2;
-		Patient curr = patients.get(index);
-		Patient parent = parent(index);
-
-		// Check which one is lower, then, swap the values
-		if (parentIndex >= 0 && curr.getPriorityCode() < parent.getPriorityCode()) {
-			Patient temp = curr;
-			patients.set(index, parent);
-			patients.set(parentIndex, temp);
+
+		// Swap the values while the element must be seen before its parent
+		if (comesBefore(patients.get(index), parent(index))) {
+			swap(index, parentIndex);
 			percolateUp(parentIndex);
-		// If the priorities are same, check the arrival orders
-		} else if (parentIndex >= 0 && curr.getPriorityCode() == parent.getPriorityCode()) {
-			if (curr.getArrivalOrder() < parent.getArrivalOrder()) {
-				Patient temp = curr;
-				patients.set(index, parent);
-				patients.set(parentIndex, temp);
-				percolateUp(parentIndex);
-			}
 		}
 	}
 	
@@ -188,41 +680,91 @@ public class PatientPriorityQueue {
 		if (index < patients.size()) {
 			int minIndex = index;
 
-			// Check which priority is lower
-			if (hasLeft(index) && patients.get(minIndex).getPriorityCode() 
-					       > left(index).getPriorityCode()) {
+			// Check which child must be seen first
+			if (hasLeft(index) && comesBefore(left(index), patients.get(minIndex))) {
 				minIndex = index * 2 + 1;
-			// If the priorities are same, check the arrival orders
-			} else if (hasLeft(index) && patients.get(minIndex).getPriorityCode() 
-						      == left(index).getPriorityCode()) {
-				if (patients.get(minIndex).getArrivalOrder() > left(index).getArrivalOrder()) {
-					minIndex = index * 2 + 1;
-				}
 			}
-			
-			// Check which priority is lower
-			if (hasRight(index) && patients.get(minIndex).getPriorityCode() 
-					        > right(index).getPriorityCode()) {
+			if (hasRight(index) && comesBefore(right(index), patients.get(minIndex))) {
 				minIndex = index * 2 + 2;
-			// If the priorities are same, check the arrival orders
-			} else if (hasRight(index) && patients.get(minIndex).getPriorityCode() 
-						       == right(index).getPriorityCode()) {
-				if (patients.get(minIndex).getArrivalOrder() > right(index).getArrivalOrder()) {
-					minIndex = index * 2 + 2;
-				}
 			}
 
 			// Swap the values
 			if (minIndex != index) {
-				Patient temp = patients.get(minIndex);
-				patients.set(minIndex, patients.get(index));
-				patients.set(index, temp);
+				swap(minIndex, index);
 				percolateDown(minIndex);
 			}
 		}
 	}
 	
 
+	/**
+	 * Check if a patient must be seen before another one
+	 * 
+	 * @param first  The first patient
+	 * @param second The second patient
+	 * @return Return true if first is seen before second, otherwise false
+	 */
+	private boolean comesBefore(Patient first, Patient second) {
+		return compare(first, second) < 0;
+	}
+	
+
+	/**
+	 * Compare two patients in service order. With aging on, a patient is
+	 * ordered by its arrival time pushed back by agingMillis for each level
+	 * below immediate, so a patient moves up one level every agingMillis
+	 * without its key ever changing. Ties go to the lower priority code and
+	 * then to the earlier arrival number, which is unique, so only a patient
+	 * compares equal to itself.
+	 * 
+	 * @param first  The first patient
+	 * @param second The second patient
+	 * @return Return a negative number if first is seen first, a positive
+	 *         number if second is, and 0 if they are the same patient
+	 */
+	private int compare(Patient first, Patient second) {
+		if (agingMillis > 0) {
+			int aged = Long.compare(agedKey(first), agedKey(second));
+			if (aged != 0) {
+				return aged;
+			}
+		}
+		if (first.getPriorityCode() != second.getPriorityCode()) {
+			return Integer.compare(first.getPriorityCode(), second.getPriorityCode());
+		}
+		return Integer.compare(first.getArrivalOrder(), second.getArrivalOrder());
+	}
+	
+
+	/**
+	 * Return the time a patient is due to be seen under aging
+	 * 
+	 * @param patient The patient
+	 * @return Return the arrival time plus agingMillis per level below immediate
+	 */
+	private long agedKey(Patient patient) {
+		return patient.getArrivalTime() + (patient.getPriorityCode() - 1) * agingMillis;
+	}
+	
+
+	/**
+	 * Swap two elements of the heap and keep the position index current
+	 * 
+	 * @param first  The index of the first element
+	 * @param second The index of the second element
+	 */
+	private void swap(int first, int second) {
+		if (metrics != null) {
+			siftSteps++;
+		}
+		Patient temp = patients.get(first);
+		patients.set(first, patients.get(second));
+		patients.set(second, temp);
+		positions.put(patients.get(first).getArrivalOrder(), first);
+		positions.put(temp.getArrivalOrder(), second);
+	}
+	
+
 	/**
 	 * Check if the element has a left child
 	 * 
@@ -277,4 +819,43 @@ public class PatientPriorityQueue {
 		return patients.get((childIndex - 1) / 2);
 	}
 
+	
+	/**
+	 * This is a patient whose name is kept in a name arena. It holds the
+	 * offset of the name instead of a String and decodes the name each time
+	 * it is asked for.
+	 */
+	private static class ArenaPatient extends Patient {
+
+		private NameArena names; // arena that holds the name
+		private int nameOffset;  // offset of the name in the arena
+
+		
+		/**
+		 * Creates a patient whose name is already in the arena.
+		 * 
+		 * @param priorityCode The patient's priority code
+		 * @param arrival      The patient's arrival number
+		 * @param names        The arena that holds the name
+		 * @param nameOffset   The offset of the name in the arena
+		 * @param arrivalTime  The time the patient arrived, in milliseconds
+		 */
+		ArenaPatient(int priorityCode, int arrival, NameArena names, int nameOffset, long arrivalTime) {
+			super(priorityCode, arrival, null, arrivalTime);
+			this.names = names;
+			this.nameOffset = nameOffset;
+		}
+
+		
+		/**
+		 * Patient's name, decoded from the arena
+		 * 
+		 * @return Patient's name
+		 */
+		@Override
+		public String getName() {
+			return names.get(nameOffset);
+		}
+	}
+
 }
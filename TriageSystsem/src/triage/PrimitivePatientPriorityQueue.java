@@ -0,0 +1,737 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * This is a heap of patients stored as primitive arrays instead of objects.
+ * Each heap slot is a single long key packing the priority code (high 32 bits)
+ * and the arrival number (low 32 bits), so comparing two keys orders patients
+ * by priority and then by arrival exactly like PatientPriorityQueue. Names are
+ * kept in a side table indexed by arrival number and Patient objects are only
+ * created when a patient leaves through peek or dequeue. Waiting patients are
+ * also linked in arrival order through two more side tables.
+ * 
+ * The side tables are a window of arrival numbers that starts at the oldest
+ * waiting patient. When a new arrival does not fit, the window moves up past
+ * the patients who left, so the tables stay proportional to the arrivals
+ * since the oldest waiting patient instead of to every arrival ever seen.
+ * 
+ * A patient removed without being seen loses its name but its key stays in
+ * the heap as a tombstone until it reaches the root. Once tombstones outnumber
+ * the waiting patients the heap is compacted and rebuilt in linear time.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class PrimitivePatientPriorityQueue implements TriageQueue {
+	
+	private static final int INITIAL_CAPACITY = 16;
+	
+	private long[] keys;           // heap of packed priority/arrival keys
+	private int size;              // number of keys in the heap, with tombstones
+	private int tombstones;        // removed patients still in the heap
+	private int base;              // arrival number at index 0 of the side tables
+	private int[] positions;       // arrival number - base -> heap index + 1, 0 if gone
+	private String[] names;        // arrival number - base -> patient's name, null if gone
+	private long[] arrivalTimes;   // arrival number - base -> time the patient arrived
+	private int[] nextArrival;     // arrival number - base -> next waiting arrival, 0 at end
+	private int[] prevArrival;     // arrival number - base -> previous waiting arrival
+	private int firstArrival;      // earliest waiting arrival number, 0 if empty
+	private int lastArrival;       // latest waiting arrival number, 0 if empty
+	private int nextPatientNumber; // num assigned to next added patient
+	private NameIndex nameIndex;   // waiting patients by name
+
+	
+	/**
+	 * Creates an empty triage system with no patients.
+	 */
+	public PrimitivePatientPriorityQueue() {
+		this.keys = new long[INITIAL_CAPACITY];
+		this.size = 0;
+		this.base = 1;
+		this.positions = new int[INITIAL_CAPACITY];
+		this.names = new String[INITIAL_CAPACITY];
+		this.arrivalTimes = new long[INITIAL_CAPACITY];
+		this.nextArrival = new int[INITIAL_CAPACITY];
+		this.prevArrival = new int[INITIAL_CAPACITY];
+		this.nextPatientNumber = 1;
+		this.nameIndex = new NameIndex(false);
+	}
+
+	
+	/**
+	 * Return a copy of the patients in heap order
+	 * 
+	 * @return Return a copy of the patients in heap order
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		ArrayList<Patient> temp = new ArrayList<>(size - tombstones);
+		for (int i = 0; i < size; i++) {
+			if (!isRemoved(keys[i])) {
+				temp.add(toPatient(keys[i]));
+			}
+		}
+		return temp;
+	}
+
+	
+	/**
+	 * Add a patient to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		addPatient(priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time to the heap
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		int arrival = nextPatientNumber;
+		if (size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+		}
+		ensureArrivalCapacity(arrival);
+		names[arrival - base] = patientName;
+		arrivalTimes[arrival - base] = arrivalTime;
+		nameIndex.add(patientName, arrival);
+		link(arrival);
+		keys[size] = pack(priorityCode, arrival);
+		positions[arrival - base] = size + 1;
+		size++;
+		percolateUp(size - 1); // Heapify
+		nextPatientNumber++;
+	}
+
+	
+	/**
+	 * Add a batch of patients to the heap. A batch at least as large as the
+	 * heap is appended and then heapified bottom-up in linear time, otherwise
+	 * each patient is percolated up on its own.
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		boolean heapify = count >= size;
+		if (size + count > keys.length) {
+			keys = Arrays.copyOf(keys, Math.max(size + count, keys.length * 2));
+		}
+		ensureArrivalCapacity(nextPatientNumber + count - 1);
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			int arrival = nextPatientNumber;
+			names[arrival - base] = patientNames[i];
+			arrivalTimes[arrival - base] = arrivalTime;
+			nameIndex.add(patientNames[i], arrival);
+			link(arrival);
+			keys[size] = pack(priorityCodes[i], arrival);
+			positions[arrival - base] = size + 1;
+			size++;
+			if (!heapify) {
+				percolateUp(size - 1);
+			}
+			nextPatientNumber++;
+		}
+		if (heapify) {
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				percolateDown(i);
+			}
+		}
+	}
+
+	
+	/**
+	 * Return the patient in the root, dropping tombstones at the root
+	 * 
+	 * @return Return the patient in the root, Return null if the heap is empty
+	 */
+	@Override
+	public Patient peek() {
+		dropRemovedRoots();
+		if (size == 0) {
+			return null;
+		} else {
+			return toPatient(keys[0]);
+		}
+	}
+
+	
+	/**
+	 * Return the next k patients in exact service order, by walking a small
+	 * frontier heap of heap indices down from the root in O(k log k) time.
+	 * Tombstones are walked through but not returned.
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		int count = Math.max(0, Math.min(k, size()));
+		ArrayList<Patient> next = new ArrayList<Patient>(count);
+		if (count == 0) {
+			return next;
+		}
+		PriorityQueue<Integer> frontier = new PriorityQueue<Integer>(2 * count,
+				(first, second) -> Long.compare(keys[first], keys[second]));
+		frontier.add(0);
+		while (next.size() < count) {
+			int index = frontier.poll();
+			if (!isRemoved(keys[index])) {
+				next.add(toPatient(keys[index]));
+			}
+			if (index * 2 + 1 < size) {
+				frontier.add(index * 2 + 1);
+			}
+			if (index * 2 + 2 < size) {
+				frontier.add(index * 2 + 2);
+			}
+		}
+		return next;
+	}
+
+	
+	/**
+	 * Remove the patient in the root from the heap
+	 * 
+	 * @return Return the minimum element in the heap 
+	 *         Return null if the heap is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		dropRemovedRoots();
+		if (size == 0) {
+			return null;
+		} else {
+			Patient root = toPatient(keys[0]);
+			int arrival = root.getArrivalOrder();
+			nameIndex.remove(arrival);
+			names[arrival - base] = null;
+			unlink(arrival);
+			removeRoot();
+			return root;
+		}
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number by leaving its key in
+	 * the heap as a tombstone, compacting the heap if tombstones outnumber
+	 * the patients
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		Patient removed = markRemoved(arrivalId);
+		if (tombstones > size - tombstones) {
+			compact();
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Remove a batch of patients by leaving their keys in the heap as
+	 * tombstones, and compact the heap at most once at the end
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (int i = 0; i < count; i++) {
+			Patient patient = markRemoved(arrivalIds[i]);
+			if (patient != null) {
+				removed.add(patient);
+			}
+		}
+		if (tombstones > size - tombstones) {
+			compact();
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient at the given heap index
+	 * 
+	 * @param patientNum   The index of the target patient
+	 * @param priorityCode The patient's priority code
+	 * @param arrivalNum   The patient's arrival number
+	 */
+	public void change(int patientNum, int priorityCode, int arrivalNum) {
+		keys[patientNum] = pack(priorityCode, arrivalNum);
+		positions[arrivalNum - base] = patientNum + 1;
+		percolateUp(patientNum);
+		percolateDown(positions[arrivalNum - base] - 1);
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		int index = indexOf(arrivalId);
+		if (index == -1) {
+			return false;
+		}
+		change(index, newPriority, arrivalId);
+		return true;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		int index = indexOf(arrivalId);
+		if (index == -1) {
+			return null;
+		}
+		return toPatient(keys[index]);
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (int arrival : nameIndex.find(prefix, limit)) {
+			found.add(toPatient(keys[positions[arrival - base] - 1]));
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber;
+	}
+
+	
+	/**
+	 * Replace the heap with the given patients, keeping their arrival numbers.
+	 * Patients saved in heap order are taken as they are, anything else is
+	 * heapified bottom-up.
+	 * 
+	 * @param waiting           The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> waiting, int nextPatientNumber) {
+		this.base = nextPatientNumber;
+		for (Patient patient : waiting) {
+			base = Math.min(base, patient.getArrivalOrder());
+		}
+		int capacity = Math.max(INITIAL_CAPACITY, nextPatientNumber - base);
+		this.keys = new long[Math.max(INITIAL_CAPACITY, waiting.size())];
+		this.size = waiting.size();
+		this.positions = new int[capacity];
+		this.names = new String[capacity];
+		this.arrivalTimes = new long[capacity];
+		this.nextArrival = new int[capacity];
+		this.prevArrival = new int[capacity];
+		this.firstArrival = 0;
+		this.lastArrival = 0;
+		this.tombstones = 0;
+		this.nameIndex.clear();
+		this.nextPatientNumber = nextPatientNumber;
+		
+		int[] arrivals = new int[size];
+		boolean heapOrdered = true;
+		for (int i = 0; i < size; i++) {
+			Patient patient = waiting.get(i);
+			int arrival = patient.getArrivalOrder();
+			keys[i] = pack(patient.getPriorityCode(), arrival);
+			positions[arrival - base] = i + 1;
+			names[arrival - base] = patient.getName();
+			arrivalTimes[arrival - base] = patient.getArrivalTime();
+			arrivals[i] = arrival;
+			nameIndex.add(patient.getName(), arrival);
+			if (i > 0 && keys[i] < keys[(i - 1) / 2]) {
+				heapOrdered = false;
+			}
+		}
+		Arrays.sort(arrivals);
+		for (int arrival : arrivals) {
+			link(arrival);
+		}
+		if (!heapOrdered) {
+			for (int i = size / 2 - 1; i >= 0; i--) {
+				percolateDown(i);
+			}
+		}
+	}
+
+	
+	/**
+	 * Return the metrics the queue records
+	 * 
+	 * @return Return null, this queue is not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return null;
+	}
+
+
+	
+	/**
+	 * Return the size of heap, not counting tombstones
+	 * 
+	 * @return Return the size of heap
+	 */
+	@Override
+	public int size() {
+		return size - tombstones;
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients in arrival order. The patients
+	 * only exist as packed keys, so they are built for the copy.
+	 * 
+	 * @return Return a copy of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		ArrayList<Patient> copy = new ArrayList<Patient>(size());
+		for (Patient patient : arrivalOrder()) {
+			copy.add(patient);
+		}
+		return copy;
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return new Iterable<Patient>() {
+			@Override
+			public Iterator<Patient> iterator() {
+				return new Iterator<Patient>() {
+					private int arrival = firstArrival; // next arrival to return
+
+					@Override
+					public boolean hasNext() {
+						return arrival != 0;
+					}
+
+					@Override
+					public Patient next() {
+						if (arrival == 0) {
+							throw new NoSuchElementException();
+						}
+						Patient patient = toPatient(keys[positions[arrival - base] - 1]);
+						arrival = nextArrival[arrival - base];
+						return patient;
+					}
+				};
+			}
+		};
+	}
+
+	
+	/**
+	 * Mark the patient with the given arrival number as a tombstone by
+	 * dropping its name. Its key keeps its place in the heap.
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	private Patient markRemoved(int arrivalId) {
+		int index = indexOf(arrivalId);
+		if (index == -1) {
+			return null;
+		}
+		Patient removed = toPatient(keys[index]);
+		nameIndex.remove(arrivalId);
+		names[arrivalId - base] = null;
+		unlink(arrivalId);
+		tombstones++;
+		return removed;
+	}
+
+	
+	/**
+	 * Check if a key in the heap is a tombstone
+	 * 
+	 * @param key Packed priority/arrival key
+	 * @return Return true if the patient was removed, otherwise false
+	 */
+	private boolean isRemoved(long key) {
+		return names[arrivalOf(key) - base] == null;
+	}
+
+	
+	/**
+	 * Drop the tombstones at the root until a waiting patient is there
+	 */
+	private void dropRemovedRoots() {
+		while (tombstones > 0 && size > 0 && isRemoved(keys[0])) {
+			removeRoot();
+			tombstones--;
+		}
+	}
+
+	
+	/**
+	 * Take the root key out of the heap and move the last key into its place
+	 */
+	private void removeRoot() {
+		positions[arrivalOf(keys[0]) - base] = 0;
+		size--;
+		if (size > 0) {
+			keys[0] = keys[size];
+			positions[arrivalOf(keys[0]) - base] = 1;
+			percolateDown(0); // Heapify
+		}
+	}
+
+	
+	/**
+	 * Throw away every tombstone and heapify the remaining keys bottom-up
+	 */
+	private void compact() {
+		int kept = 0;
+		for (int i = 0; i < size; i++) {
+			if (isRemoved(keys[i])) {
+				positions[arrivalOf(keys[i]) - base] = 0;
+			} else {
+				keys[kept] = keys[i];
+				positions[arrivalOf(keys[i]) - base] = kept + 1;
+				kept++;
+			}
+		}
+		size = kept;
+		tombstones = 0;
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			percolateDown(i);
+		}
+	}
+
+	
+	/**
+	 * Shifts up the key at the given index
+	 * 
+	 * @param index The element to percolate up
+	 */
+	private void percolateUp(int index) {
+		long key = keys[index];
+		while (index > 0) {
+			int parentIndex = (index - 1) / 2;
+			long parent = keys[parentIndex];
+			if (key >= parent) {
+				break;
+			}
+			keys[index] = parent;
+			positions[arrivalOf(parent) - base] = index + 1;
+			index = parentIndex;
+		}
+		keys[index] = key;
+		positions[arrivalOf(key) - base] = index + 1;
+	}
+
+	
+	/**
+	 * Shifts down the key at the given index
+	 * 
+	 * @param index The element to percolate down
+	 */
+	private void percolateDown(int index) {
+		long key = keys[index];
+		int half = size / 2;
+		while (index < half) {
+			int minIndex = index * 2 + 1;
+			if (minIndex + 1 < size && keys[minIndex + 1] < keys[minIndex]) {
+				minIndex++;
+			}
+			if (key <= keys[minIndex]) {
+				break;
+			}
+			keys[index] = keys[minIndex];
+			positions[arrivalOf(keys[index]) - base] = index + 1;
+			index = minIndex;
+		}
+		keys[index] = key;
+		positions[arrivalOf(key) - base] = index + 1;
+	}
+
+	
+	/**
+	 * Make room in the side tables for the given arrival number. The window
+	 * moves up to the oldest waiting patient, after the tombstones, which are
+	 * older keys still in the heap, were compacted away. The new tables are
+	 * twice as long as the span of arrivals they must hold, so the tables can
+	 * shrink after a busy period, and every move is paid for by as many
+	 * arrivals as it copies.
+	 * 
+	 * @param arrival The largest arrival number that must fit
+	 */
+	private void ensureArrivalCapacity(int arrival) {
+		if (arrival - base < names.length) {
+			return;
+		}
+		if (tombstones > 0) {
+			compact();
+		}
+		int from = firstArrival == 0 ? nextPatientNumber : firstArrival;
+		int capacity = Math.max(INITIAL_CAPACITY, 2 * (arrival - from + 1));
+		int start = from - base;
+		names = Arrays.copyOfRange(names, start, start + capacity);
+		arrivalTimes = Arrays.copyOfRange(arrivalTimes, start, start + capacity);
+		positions = Arrays.copyOfRange(positions, start, start + capacity);
+		nextArrival = Arrays.copyOfRange(nextArrival, start, start + capacity);
+		prevArrival = Arrays.copyOfRange(prevArrival, start, start + capacity);
+		base = from;
+	}
+
+	
+	/**
+	 * Link a new arrival number at the end of the arrival order
+	 * 
+	 * @param arrival The arrival number to link
+	 */
+	private void link(int arrival) {
+		prevArrival[arrival - base] = lastArrival;
+		nextArrival[arrival - base] = 0;
+		if (lastArrival == 0) {
+			firstArrival = arrival;
+		} else {
+			nextArrival[lastArrival - base] = arrival;
+		}
+		lastArrival = arrival;
+	}
+
+	
+	/**
+	 * Unlink an arrival number from the arrival order
+	 * 
+	 * @param arrival The arrival number to unlink
+	 */
+	private void unlink(int arrival) {
+		int prev = prevArrival[arrival - base];
+		int next = nextArrival[arrival - base];
+		if (prev == 0) {
+			firstArrival = next;
+		} else {
+			nextArrival[prev - base] = next;
+		}
+		if (next == 0) {
+			lastArrival = prev;
+		} else {
+			prevArrival[next - base] = prev;
+		}
+	}
+
+	
+	/**
+	 * Return the heap index of the patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the heap index, Return -1 if no such patient is waiting
+	 */
+	private int indexOf(int arrivalId) {
+		if (arrivalId < base || arrivalId - base >= names.length || names[arrivalId - base] == null) {
+			return -1;
+		}
+		return positions[arrivalId - base] - 1;
+	}
+
+	
+	/**
+	 * Create a Patient object for the given key
+	 * 
+	 * @param key Packed priority/arrival key
+	 * @return Return the Patient the key stands for
+	 */
+	private Patient toPatient(long key) {
+		int arrival = arrivalOf(key);
+		return new Patient(priorityOf(key), arrival, names[arrival - base], arrivalTimes[arrival - base]);
+	}
+
+	
+	/**
+	 * Pack a priority code and an arrival number into one key
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param arrival      The patient's arrival number
+	 * @return Return the packed key
+	 */
+	private static long pack(int priorityCode, int arrival) {
+		return ((long) priorityCode << 32) | (arrival & 0xFFFFFFFFL);
+	}
+
+	
+	/**
+	 * Return the priority code stored in a key
+	 * 
+	 * @param key Packed priority/arrival key
+	 * @return Return the priority code
+	 */
+	private static int priorityOf(long key) {
+		return (int) (key >>> 32);
+	}
+
+	
+	/**
+	 * Return the arrival number stored in a key
+	 * 
+	 * @param key Packed priority/arrival key
+	 * @return Return the arrival number
+	 */
+	private static int arrivalOf(long key) {
+		return (int) key;
+	}
+
+}
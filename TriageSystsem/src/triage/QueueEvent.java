@@ -0,0 +1,112 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+
+/**
+ * This is a change of a triage queue as seen by the subscribers of an
+ * ObservableTriageQueue.
+ * 
+ * HEAD events tell the patient that will be seen next and are coalesced, so
+ * a slow subscriber only gets the newest one. MISSED events are sent to a
+ * subscriber whose buffer was full and tell how many events it lost, after
+ * which it should read the whole waiting list again.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class QueueEvent {
+
+	public static final int ADDED = 1;     // a patient was added
+	public static final int DEQUEUED = 2;  // a patient was taken to be seen
+	public static final int CHANGED = 3;   // a patient's priority code changed
+	public static final int REMOVED = 4;   // a patient left without being seen
+	public static final int HEAD = 5;      // another patient will be seen next
+	public static final int RESTORED = 6;  // the whole queue was replaced
+	public static final int MISSED = 7;    // events were dropped for this subscriber
+
+	private int type;          // one of the event types
+	private Patient patient;   // the patient, null for RESTORED, MISSED or an empty queue
+	private int priorityCode;  // the patient's priority code when the event happened
+	private int count;         // queue size for RESTORED, dropped events for MISSED
+
+	
+	/**
+	 * Creates an event.
+	 * 
+	 * @param type    One of the event types
+	 * @param patient The patient, null if the event has none
+	 * @param count   Queue size for RESTORED, dropped events for MISSED,
+	 *                otherwise 0
+	 */
+	QueueEvent(int type, Patient patient, int count) {
+		this.type = type;
+		this.patient = patient;
+		this.priorityCode = patient == null ? 0 : patient.getPriorityCode();
+		this.count = count;
+	}
+
+	
+	/**
+	 * Return the type of the event
+	 * 
+	 * @return Return one of the event types
+	 */
+	public int getType() {
+		return type;
+	}
+
+	
+	/**
+	 * Return the patient the event is about
+	 * 
+	 * @return Return the patient, Return null for RESTORED, MISSED or a HEAD
+	 *         event of an empty queue
+	 */
+	public Patient getPatient() {
+		return patient;
+	}
+
+	
+	/**
+	 * Return the patient's priority code when the event happened
+	 * 
+	 * @return Return the priority code, Return 0 if there is no patient
+	 */
+	public int getPriorityCode() {
+		return priorityCode;
+	}
+
+	
+	/**
+	 * Return the queue size of a RESTORED event or the number of dropped
+	 * events of a MISSED event
+	 * 
+	 * @return Return the count, Return 0 for the other types
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	
+	/**
+	 * Return a one line description of the event
+	 * 
+	 * @return Return the description
+	 */
+	@Override
+	public String toString() {
+		if (type == MISSED) {
+			return "missed " + count + " events, list the patients to catch up";
+		} else if (type == RESTORED) {
+			return "restored with " + count + " patients waiting";
+		} else if (patient == null) {
+			return "next up: nobody is waiting";
+		}
+		String[] words = {"", "added", "seen", "changed", "removed", "next up"};
+		return words[type] + " #" + patient.getArrivalOrder() + " "
+			+ CommandTokenizer.priorityWord(priorityCode) + ": " + patient.getName();
+	}
+
+}
@@ -0,0 +1,310 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * This is an append-only binary journal of the operations that change a
+ * triage queue.
+ * 
+ * Records are collected in memory and written as one group, followed by a
+ * single fsync, when commit() is called. commit() swaps in a second buffer
+ * before it writes, so threads recording operations never wait for the
+ * device. Each group starts with its length and a CRC32 of its records, so a
+ * group that was only partly written before a crash is recognized and dropped
+ * on replay.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class QueueJournal {
+
+	private static final byte DEQUEUE = 2;
+	private static final byte CHANGE = 3;
+	private static final byte ADD = 4;          // replaces 1, an add without the arrival time
+	private static final byte DEQUEUE_HOME = 5; // a dequeue from a clinician's home shard
+	private static final byte REMOVE = 6;       // a patient who left without being seen
+	private static final int GROUP_HEADER_BYTES = 8;
+	
+	private FileChannel channel; // journal file opened for appending
+	private ByteBuffer group;    // records not yet written
+	private ByteBuffer writing;  // group being written, owned by the committer
+	private ByteBuffer header;   // length and checksum of a group
+	private CRC32 crc;           // checksum of the group being written
+	private int groupBytes;      // buffered bytes that make a group full
+	private Object commitLock;   // lets one commit write at a time
+
+	
+	/**
+	 * Opens a journal file for appending, creating it if needed.
+	 * 
+	 * @param file       The journal file
+	 * @param groupBytes Number of buffered bytes after which isFull() is true
+	 * @throws IOException
+	 */
+	public QueueJournal(Path file, int groupBytes) throws IOException {
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+		this.group = ByteBuffer.allocate(groupBytes);
+		this.writing = ByteBuffer.allocate(groupBytes);
+		this.header = ByteBuffer.allocate(GROUP_HEADER_BYTES);
+		this.crc = new CRC32();
+		this.groupBytes = groupBytes;
+		this.commitLock = new Object();
+	}
+
+	
+	/**
+	 * Record that a patient was added
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param arrival      The patient's arrival number
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	public synchronized void add(int priorityCode, int arrival, String patientName, long arrivalTime) {
+		byte[] name = patientName.getBytes(StandardCharsets.UTF_8);
+		reserve(18 + name.length);
+		group.put(ADD).put((byte) priorityCode).putInt(arrival).putLong(arrivalTime)
+		     .putInt(name.length).put(name);
+	}
+
+	
+	/**
+	 * Record that a patient was dequeued
+	 * 
+	 * @param arrival The patient's arrival number
+	 */
+	public synchronized void dequeue(int arrival) {
+		reserve(5);
+		group.put(DEQUEUE).putInt(arrival);
+	}
+
+	
+	/**
+	 * Record that a patient was dequeued from a clinician's home shard
+	 * 
+	 * @param home    The clinician's home shard
+	 * @param arrival The patient's arrival number
+	 */
+	public synchronized void dequeue(int home, int arrival) {
+		reserve(9);
+		group.put(DEQUEUE_HOME).putInt(home).putInt(arrival);
+	}
+
+	
+	/**
+	 * Record that a patient's priority code was changed
+	 * 
+	 * @param arrival      The patient's arrival number
+	 * @param priorityCode The patient's new priority code
+	 */
+	public synchronized void change(int arrival, int priorityCode) {
+		reserve(6);
+		group.put(CHANGE).putInt(arrival).put((byte) priorityCode);
+	}
+
+	
+	/**
+	 * Record that a patient was removed without being seen
+	 * 
+	 * @param arrival The patient's arrival number
+	 */
+	public synchronized void remove(int arrival) {
+		reserve(5);
+		group.put(REMOVE).putInt(arrival);
+	}
+
+	
+	/**
+	 * Return whether enough records are buffered that they should be committed
+	 * 
+	 * @return Return true if the group is full, otherwise false
+	 */
+	public synchronized boolean isFull() {
+		return group.position() >= groupBytes;
+	}
+
+	
+	/**
+	 * Write the buffered records as one group and force them to the device.
+	 * The records are swapped out under the lock, and written and forced
+	 * after it is released, so records can be added during the write.
+	 * 
+	 * @throws IOException
+	 */
+	public void commit() throws IOException {
+		synchronized (commitLock) {
+			synchronized (this) {
+				if (group.position() == 0) {
+					return;
+				}
+				ByteBuffer full = group;
+				group = writing;
+				writing = full;
+			}
+			writing.flip();
+			crc.reset();
+			crc.update(writing.array(), 0, writing.limit());
+			header.clear();
+			header.putInt(writing.limit()).putInt((int) crc.getValue());
+			header.flip();
+			while (header.hasRemaining()) {
+				channel.write(header);
+			}
+			while (writing.hasRemaining()) {
+				channel.write(writing);
+			}
+			writing.clear();
+			channel.force(false);
+		}
+	}
+
+	
+	/**
+	 * Commit the buffered records and close the file
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		synchronized (commitLock) {
+			commit();
+			channel.close();
+		}
+	}
+
+	
+	/**
+	 * Apply the operations in a journal file to a queue. A damaged or partly
+	 * written group at the end of the file is cut off.
+	 * 
+	 * @param file  The journal file
+	 * @param queue The queue to apply the operations to
+	 * @return Return the number of operations applied
+	 * @throws IOException if the file cannot be read or does not match the queue
+	 */
+	public static int replay(Path file, TriageQueue queue) throws IOException {
+		if (!Files.exists(file)) {
+			return 0;
+		}
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			long length = channel.size();
+			if (length > Integer.MAX_VALUE) {
+				throw new IOException("Journal is too large: " + file);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) length);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+				// keep reading until the whole file is in the buffer
+			}
+			buffer.flip();
+			
+			int operations = 0;
+			CRC32 crc = new CRC32();
+			while (buffer.remaining() >= GROUP_HEADER_BYTES) {
+				int start = buffer.position();
+				int groupLength = buffer.getInt();
+				int checksum = buffer.getInt();
+				if (groupLength <= 0 || groupLength > buffer.remaining()) {
+					buffer.position(start);
+					break;
+				}
+				crc.reset();
+				crc.update(buffer.array(), buffer.position(), groupLength);
+				if ((int) crc.getValue() != checksum) {
+					buffer.position(start);
+					break;
+				}
+				int end = buffer.position() + groupLength;
+				while (buffer.position() < end) {
+					apply(buffer, queue);
+					operations++;
+				}
+			}
+			
+			// Drop the torn tail so new groups follow the last good one
+			if (buffer.position() < length) {
+				channel.truncate(buffer.position());
+				channel.force(true);
+			}
+			return operations;
+		} finally {
+			channel.close();
+		}
+	}
+
+	
+	/**
+	 * Apply one record to a queue
+	 * 
+	 * @param buffer The buffer positioned at the record
+	 * @param queue  The queue to apply the record to
+	 * @throws IOException if the record does not match the queue
+	 */
+	private static void apply(ByteBuffer buffer, TriageQueue queue) throws IOException {
+		byte op = buffer.get();
+		if (op == ADD) {
+			int priorityCode = buffer.get();
+			int arrival = buffer.getInt();
+			long arrivalTime = buffer.getLong();
+			byte[] name = new byte[buffer.getInt()];
+			buffer.get(name);
+			if (queue.getNextPatientNumber() != arrival) {
+				throw new IOException("Journal does not match the queue at arrival " + arrival);
+			}
+			queue.addPatient(priorityCode, new String(name, StandardCharsets.UTF_8), arrivalTime);
+		} else if (op == DEQUEUE) {
+			int arrival = buffer.getInt();
+			Patient patient = queue.dequeue();
+			if (patient == null || patient.getArrivalOrder() != arrival) {
+				throw new IOException("Journal does not match the queue at arrival " + arrival);
+			}
+		} else if (op == DEQUEUE_HOME) {
+			int home = buffer.getInt();
+			int arrival = buffer.getInt();
+			Patient patient = home >= 0 && home < queue.getShardCount() ? queue.dequeue(home) : null;
+			if (patient == null || patient.getArrivalOrder() != arrival) {
+				throw new IOException("Journal does not match the queue at arrival " + arrival);
+			}
+		} else if (op == CHANGE) {
+			int arrival = buffer.getInt();
+			int priorityCode = buffer.get();
+			if (!queue.changeByArrival(arrival, priorityCode)) {
+				throw new IOException("Journal does not match the queue at arrival " + arrival);
+			}
+		} else if (op == REMOVE) {
+			int arrival = buffer.getInt();
+			if (queue.removeByArrival(arrival) == null) {
+				throw new IOException("Journal does not match the queue at arrival " + arrival);
+			}
+		} else {
+			throw new IOException("Unknown journal record: " + op);
+		}
+	}
+
+	
+	/**
+	 * Make room for a record, growing the buffer if the group has outgrown it
+	 * while waiting for a commit
+	 * 
+	 * @param bytes Size of the record
+	 */
+	private void reserve(int bytes) {
+		if (group.remaining() < bytes) {
+			ByteBuffer larger = ByteBuffer.allocate(Math.max(2 * group.capacity(), group.position() + bytes));
+			group.flip();
+			larger.put(group);
+			group = larger;
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This is the set of operational metrics of a triage queue: latency of add,
+ * dequeue and change, the number of heap swaps each operation made, how long
+ * patients waited before they were seen, and how many patients wait at each
+ * priority code. Everything is recorded with lock-free counters.
+ * 
+ * A queue that is not given a QueueMetrics does not measure anything, so
+ * instrumentation costs nothing when it is off.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class QueueMetrics {
+
+	private static final int LEVELS = 4; // immediate, emergency, urgent, minimal
+	
+	private LatencyHistogram addNanos;     // latency of add
+	private LatencyHistogram dequeueNanos; // latency of dequeue
+	private LatencyHistogram changeNanos;  // latency of change
+	private LatencyHistogram siftSteps;    // heap swaps per operation
+	private LatencyHistogram waitMillis;   // time from add to dequeue
+	private AtomicLongArray depth;         // waiting patients per priority code
+
+	
+	/**
+	 * Creates empty metrics.
+	 */
+	public QueueMetrics() {
+		this.addNanos = new LatencyHistogram();
+		this.dequeueNanos = new LatencyHistogram();
+		this.changeNanos = new LatencyHistogram();
+		this.siftSteps = new LatencyHistogram();
+		this.waitMillis = new LatencyHistogram();
+		this.depth = new AtomicLongArray(LEVELS + 1);
+	}
+
+	
+	/**
+	 * Record an add
+	 * 
+	 * @param nanos        Time the add took
+	 * @param steps        Heap swaps the add made
+	 * @param priorityCode The patient's priority code
+	 */
+	public void recordAdd(long nanos, int steps, int priorityCode) {
+		addNanos.record(nanos);
+		siftSteps.record(steps);
+		depth.incrementAndGet(priorityCode);
+	}
+
+	
+	/**
+	 * Record a dequeue
+	 * 
+	 * @param nanos        Time the dequeue took
+	 * @param steps        Heap swaps the dequeue made
+	 * @param priorityCode The patient's priority code
+	 * @param waited       Milliseconds the patient waited
+	 */
+	public void recordDequeue(long nanos, int steps, int priorityCode, long waited) {
+		dequeueNanos.record(nanos);
+		siftSteps.record(steps);
+		waitMillis.record(waited);
+		depth.decrementAndGet(priorityCode);
+	}
+
+	
+	/**
+	 * Record a change of priority code
+	 * 
+	 * @param nanos       Time the change took
+	 * @param steps       Heap swaps the change made
+	 * @param oldPriority The patient's old priority code
+	 * @param newPriority The patient's new priority code
+	 */
+	public void recordChange(long nanos, int steps, int oldPriority, int newPriority) {
+		changeNanos.record(nanos);
+		siftSteps.record(steps);
+		depth.decrementAndGet(oldPriority);
+		depth.incrementAndGet(newPriority);
+	}
+
+	
+	/**
+	 * Count patients that were added or removed without being timed, such as
+	 * a batch or a restore
+	 * 
+	 * @param priorityCode The patients' priority code
+	 * @param count        Number of patients, negative for removed patients
+	 */
+	public void addDepth(int priorityCode, int count) {
+		depth.addAndGet(priorityCode, count);
+	}
+
+	
+	/**
+	 * Take a copy of the metrics
+	 * 
+	 * @return Return the copy
+	 */
+	public Snapshot snapshot() {
+		long[] copy = new long[LEVELS + 1];
+		for (int i = 1; i <= LEVELS; i++) {
+			copy[i] = depth.get(i);
+		}
+		return new Snapshot(addNanos.snapshot(), dequeueNanos.snapshot(), changeNanos.snapshot(),
+				    siftSteps.snapshot(), waitMillis.snapshot(), copy);
+	}
+
+	
+	/**
+	 * This is a point-in-time copy of the metrics.
+	 */
+	public static class Snapshot {
+		
+		private LatencyHistogram.Snapshot addNanos;     // latency of add
+		private LatencyHistogram.Snapshot dequeueNanos; // latency of dequeue
+		private LatencyHistogram.Snapshot changeNanos;  // latency of change
+		private LatencyHistogram.Snapshot siftSteps;    // heap swaps per operation
+		private LatencyHistogram.Snapshot waitMillis;   // time from add to dequeue
+		private long[] depth;                           // waiting patients per code
+
+		
+		/**
+		 * Creates a copy of the metrics.
+		 */
+		Snapshot(LatencyHistogram.Snapshot addNanos, LatencyHistogram.Snapshot dequeueNanos,
+			 LatencyHistogram.Snapshot changeNanos, LatencyHistogram.Snapshot siftSteps,
+			 LatencyHistogram.Snapshot waitMillis, long[] depth) {
+			this.addNanos = addNanos;
+			this.dequeueNanos = dequeueNanos;
+			this.changeNanos = changeNanos;
+			this.siftSteps = siftSteps;
+			this.waitMillis = waitMillis;
+			this.depth = depth;
+		}
+
+		
+		/**
+		 * Return the latency of add in nanoseconds
+		 * 
+		 * @return Return the latency histogram of add
+		 */
+		public LatencyHistogram.Snapshot getAddNanos() {
+			return addNanos;
+		}
+
+		
+		/**
+		 * Return the latency of dequeue in nanoseconds
+		 * 
+		 * @return Return the latency histogram of dequeue
+		 */
+		public LatencyHistogram.Snapshot getDequeueNanos() {
+			return dequeueNanos;
+		}
+
+		
+		/**
+		 * Return the latency of change in nanoseconds
+		 * 
+		 * @return Return the latency histogram of change
+		 */
+		public LatencyHistogram.Snapshot getChangeNanos() {
+			return changeNanos;
+		}
+
+		
+		/**
+		 * Return the number of heap swaps per operation
+		 * 
+		 * @return Return the histogram of heap swaps
+		 */
+		public LatencyHistogram.Snapshot getSiftSteps() {
+			return siftSteps;
+		}
+
+		
+		/**
+		 * Return how long patients waited before they were seen, in milliseconds
+		 * 
+		 * @return Return the histogram of wait times
+		 */
+		public LatencyHistogram.Snapshot getWaitMillis() {
+			return waitMillis;
+		}
+
+		
+		/**
+		 * Return the number of waiting patients with a priority code
+		 * 
+		 * @param priorityCode The priority code
+		 * @return Return the number of waiting patients
+		 */
+		public long getDepth(int priorityCode) {
+			return depth[priorityCode];
+		}
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.zip.CRC32;
+
+/**
+ * This is a binary image of a triage queue: the waiting patients with their
+ * arrival numbers, and the arrival number the next patient will get.
+ * 
+ * The file is a header (magic, version, next arrival number, patient count),
+ * one record per patient (priority code, arrival number, arrival time,
+ * length-prefixed UTF-8 name) and a CRC32 of everything before it. Patients
+ * are written in the order the queue's getCopyList() returns them, so a heap
+ * is saved in heap order and can be restored without re-heapifying. Files of
+ * version 1, which had no arrival times, are not read.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class QueueSnapshot {
+
+	private static final int MAGIC = 0x54525351;      // "TRSQ"
+	private static final int VERSION = 2;
+	private static final int HEADER_BYTES = 16;
+	private static final int BUFFER_BYTES = 1 << 16;
+	
+	private ArrayList<Patient> patients; // waiting patients
+	private int nextPatientNumber;       // num assigned to next added patient
+
+	
+	/**
+	 * Creates a snapshot of the given patients.
+	 * 
+	 * @param patients          The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	public QueueSnapshot(ArrayList<Patient> patients, int nextPatientNumber) {
+		this.patients = patients;
+		this.nextPatientNumber = nextPatientNumber;
+	}
+
+	
+	/**
+	 * Take a snapshot of a queue
+	 * 
+	 * @param queue The queue to take the snapshot of
+	 * @return Return the snapshot
+	 */
+	public static QueueSnapshot of(TriageQueue queue) {
+		return new QueueSnapshot(queue.getCopyList(), queue.getNextPatientNumber());
+	}
+
+	
+	/**
+	 * Replace the contents of a queue with this snapshot
+	 * 
+	 * @param queue The queue to restore
+	 */
+	public void restoreInto(TriageQueue queue) {
+		queue.restore(patients, nextPatientNumber);
+	}
+
+	
+	/**
+	 * Return the patients in the snapshot
+	 * 
+	 * @return Return the patients in the snapshot
+	 */
+	public ArrayList<Patient> getPatients() {
+		return patients;
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient gets
+	 * 
+	 * @return Return the next arrival number
+	 */
+	public int getNextPatientNumber() {
+		return nextPatientNumber;
+	}
+
+	
+	/**
+	 * Write the snapshot to a file and force it to the storage device
+	 * 
+	 * @param file The file to write
+	 * @throws IOException
+	 */
+	public void write(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		try {
+			CRC32 crc = new CRC32();
+			ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_BYTES);
+			buffer.putInt(MAGIC).putInt(VERSION).putInt(nextPatientNumber).putInt(patients.size());
+			for (Patient patient : patients) {
+				byte[] name = patient.getName().getBytes(StandardCharsets.UTF_8);
+				int needed = 17 + name.length;
+				if (buffer.remaining() < needed) {
+					drain(channel, buffer, crc);
+					if (buffer.capacity() < needed) {
+						buffer = ByteBuffer.allocateDirect(needed);
+					}
+				}
+				buffer.put((byte) patient.getPriorityCode());
+				buffer.putInt(patient.getArrivalOrder());
+				buffer.putLong(patient.getArrivalTime());
+				buffer.putInt(name.length);
+				buffer.put(name);
+			}
+			drain(channel, buffer, crc);
+			buffer.putInt((int) crc.getValue());
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			channel.force(true);
+		} finally {
+			channel.close();
+		}
+	}
+
+	
+	/**
+	 * Read a snapshot from a file
+	 * 
+	 * @param file The file to read
+	 * @return Return the snapshot
+	 * @throws IOException if the file cannot be read or is not a valid snapshot
+	 */
+	public static QueueSnapshot read(Path file) throws IOException {
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		ByteBuffer buffer;
+		try {
+			long length = channel.size();
+			if (length < HEADER_BYTES + 4 || length > Integer.MAX_VALUE) {
+				throw new IOException("Not a valid snapshot: " + file);
+			}
+			buffer = ByteBuffer.allocate((int) length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer) < 0) {
+					throw new IOException("Snapshot is truncated: " + file);
+				}
+			}
+		} finally {
+			channel.close();
+		}
+		
+		// Check the checksum before trusting any of the contents
+		CRC32 crc = new CRC32();
+		crc.update(buffer.array(), 0, buffer.capacity() - 4);
+		if ((int) crc.getValue() != buffer.getInt(buffer.capacity() - 4)) {
+			throw new IOException("Snapshot is damaged: " + file);
+		}
+		
+		buffer.flip();
+		buffer.limit(buffer.capacity() - 4);
+		if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+			throw new IOException("Not a valid snapshot: " + file);
+		}
+		int nextPatientNumber = buffer.getInt();
+		int count = buffer.getInt();
+		ArrayList<Patient> patients = new ArrayList<Patient>(count);
+		for (int i = 0; i < count; i++) {
+			int priorityCode = buffer.get();
+			int arrival = buffer.getInt();
+			long arrivalTime = buffer.getLong();
+			byte[] name = new byte[buffer.getInt()];
+			buffer.get(name);
+			patients.add(new Patient(priorityCode, arrival, new String(name, StandardCharsets.UTF_8),
+						 arrivalTime));
+		}
+		return new QueueSnapshot(patients, nextPatientNumber);
+	}
+
+	
+	/**
+	 * Write the buffered bytes to the channel and add them to the checksum
+	 * 
+	 * @param channel The channel to write to
+	 * @param buffer  The buffer to drain, left empty and ready to fill
+	 * @param crc     The running checksum
+	 * @throws IOException
+	 */
+	private static void drain(FileChannel channel, ByteBuffer buffer, CRC32 crc) throws IOException {
+		buffer.flip();
+		crc.update(buffer.duplicate());
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+}
@@ -0,0 +1,605 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This is a triage queue split into independent shards, one per treatment
+ * area, so that desks and clinicians working in different areas do not wait
+ * on a single lock. Each shard is a heap guarded by its own lock, and arrival
+ * numbers are handed out from one counter so they stay unique across shards.
+ * 
+ * A patient is added to the shard of its department, or to a shard chosen by
+ * the hash of its name. A clinician calls dequeue(home) to see the next
+ * patient of their home shard, but steals the head of another shard when the
+ * home shard is empty or that head has a more urgent priority code.
+ * 
+ * Ordering guarantees:
+ * - Within a shard, patients are seen by priority code and then arrival.
+ * - dequeue() and peek() take the best head of all shards, so without
+ *   overlapping operations they follow the same order as a single heap.
+ * - dequeue(home) only steals for a more urgent priority code. Between two
+ *   patients with the same code, the one in the home shard is seen first
+ *   even if the other one arrived earlier.
+ * - Shards are only locked one at a time, so a dequeue that runs at the same
+ *   time as an add to another shard may miss that patient, even when it has
+ *   a higher priority.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class ShardedTriageQueue implements TriageQueue {
+
+	static final int DEFAULT_SHARDS = 4; // shards used when no count is given
+
+	private PatientPriorityQueue[] shards;   // each shard is its own lock
+	private AtomicInteger nextPatientNumber; // next arrival number
+
+	
+	/**
+	 * Creates an empty triage system with the default number of shards.
+	 */
+	public ShardedTriageQueue() {
+		this(DEFAULT_SHARDS, null);
+	}
+
+	
+	/**
+	 * Creates an empty triage system with the given number of shards.
+	 * 
+	 * @param shardCount Number of shards
+	 * @param metrics    The metrics all shards record into, null to record
+	 *                   nothing
+	 */
+	public ShardedTriageQueue(int shardCount, QueueMetrics metrics) {
+		if (shardCount < 1) {
+			throw new IllegalArgumentException("invalid shard count: " + shardCount);
+		}
+		this.shards = new PatientPriorityQueue[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new PatientPriorityQueue(metrics);
+		}
+		this.nextPatientNumber = new AtomicInteger(1);
+	}
+
+	
+	/**
+	 * Return the number of shards
+	 * 
+	 * @return Return the number of shards
+	 */
+	@Override
+	public int getShardCount() {
+		return shards.length;
+	}
+
+	
+	/**
+	 * Return the shard a patient without a department is routed to
+	 * 
+	 * @param patientName The patient's name
+	 * @return Return the shard index
+	 */
+	public int shardOf(String patientName) {
+		return Math.floorMod(patientName.hashCode(), shards.length);
+	}
+
+	
+	/**
+	 * Add a patient to the shard chosen by the hash of its name
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName) {
+		addPatient(shardOf(patientName), priorityCode, patientName, System.currentTimeMillis());
+	}
+
+	
+	/**
+	 * Add a patient that arrived at the given time to the shard chosen by the
+	 * hash of its name
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	@Override
+	public void addPatient(int priorityCode, String patientName, long arrivalTime) {
+		addPatient(shardOf(patientName), priorityCode, patientName, arrivalTime);
+	}
+
+	
+	/**
+	 * Add a patient to the given shard. The arrival number is taken while the
+	 * shard is locked, so every shard holds its patients in arrival order.
+	 * 
+	 * @param shard        The shard index, such as a department
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	public void addPatient(int shard, int priorityCode, String patientName, long arrivalTime) {
+		PatientPriorityQueue target = shards[shard];
+		synchronized (target) {
+			int arrival = nextPatientNumber.getAndIncrement();
+			target.insert(new Patient(priorityCode, arrival, patientName, arrivalTime));
+		}
+	}
+
+	
+	/**
+	 * Add a batch of patients in the given order
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	@Override
+	public void addPatients(int[] priorityCodes, String[] patientNames, int count) {
+		long arrivalTime = System.currentTimeMillis();
+		for (int i = 0; i < count; i++) {
+			addPatient(shardOf(patientNames[i]), priorityCodes[i], patientNames[i], arrivalTime);
+		}
+	}
+
+	
+	/**
+	 * Return the best head of all shards
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient peek() {
+		Patient best = null;
+		for (int i = 0; i < shards.length; i++) {
+			Patient head = peekShard(i);
+			if (head != null && (best == null || comesBefore(head, best))) {
+				best = head;
+			}
+		}
+		return best;
+	}
+
+	
+	/**
+	 * Return the next k patients dequeue() would take, by merging the next k
+	 * of every shard
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	@Override
+	public ArrayList<Patient> peek(int k) {
+		ArrayList<Patient> next = new ArrayList<Patient>();
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				next.addAll(shard.peek(k));
+			}
+		}
+		next.sort(ShardedTriageQueue::compare);
+		if (next.size() > k) {
+			next.subList(Math.max(0, k), next.size()).clear();
+		}
+		return next;
+	}
+
+	
+	/**
+	 * Remove the best head of all shards
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient dequeue() {
+		while (true) {
+			int bestShard = -1;
+			Patient best = null;
+			for (int i = 0; i < shards.length; i++) {
+				Patient head = peekShard(i);
+				if (head != null && (best == null || comesBefore(head, best))) {
+					bestShard = i;
+					best = head;
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			if (takeHead(bestShard, best)) {
+				return best;
+			}
+		}
+	}
+
+	
+	/**
+	 * Remove the next patient of a home shard, or steal the head of another
+	 * shard when the home shard is empty or that head is more urgent
+	 * 
+	 * @param home The clinician's home shard
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	@Override
+	public Patient dequeue(int home) {
+		while (true) {
+			int bestShard = home;
+			Patient best = peekShard(home);
+			for (int i = 0; i < shards.length; i++) {
+				if (i == home) {
+					continue;
+				}
+				Patient head = peekShard(i);
+
+				// Only steal for a more urgent code, ties stay at home
+				if (head != null && (best == null
+						     || head.getPriorityCode() < best.getPriorityCode()
+						     || (bestShard != home && comesBefore(head, best)))) {
+					bestShard = i;
+					best = head;
+				}
+			}
+			if (best == null) {
+				return null;
+			}
+			if (takeHead(bestShard, best)) {
+				return best;
+			}
+		}
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number from whichever shard
+	 * holds it
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	@Override
+	public Patient removeByArrival(int arrivalId) {
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				Patient removed = shard.removeByArrival(arrivalId);
+				if (removed != null) {
+					return removed;
+				}
+			}
+		}
+		return null;
+	}
+
+	
+	/**
+	 * Remove a batch of patients. Each shard is locked once and removes the
+	 * patients of the batch it holds.
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	@Override
+	public ArrayList<Patient> removeByArrival(int[] arrivalIds, int count) {
+		ArrayList<Patient> removed = new ArrayList<Patient>();
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				removed.addAll(shard.removeByArrival(arrivalIds, count));
+			}
+		}
+		return removed;
+	}
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	@Override
+	public boolean changeByArrival(int arrivalId, int newPriority) {
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				if (shard.changeByArrival(arrivalId, newPriority)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	@Override
+	public Patient findByArrival(int arrivalId) {
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				Patient patient = shard.findByArrival(arrivalId);
+				if (patient != null) {
+					return patient;
+				}
+			}
+		}
+		return null;
+	}
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces, by merging the matches of every shard
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	@Override
+	public ArrayList<Patient> findByName(String prefix, int limit) {
+		ArrayList<Patient> found = new ArrayList<Patient>();
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				found.addAll(shard.findByName(prefix, limit));
+			}
+		}
+		found.sort(Comparator.comparing((Patient patient) -> NameIndex.normalize(patient.getName()))
+				     .thenComparingInt(Patient::getArrivalOrder));
+		if (found.size() > limit) {
+			found.subList(Math.max(0, limit), found.size()).clear();
+		}
+		return found;
+	}
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	@Override
+	public int size() {
+		int size = 0;
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				size += shard.size();
+			}
+		}
+		return size;
+	}
+
+	
+	/**
+	 * Return a copy of the waiting patients, shard by shard in heap order
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	@Override
+	public ArrayList<Patient> getCopyList() {
+		ArrayList<Patient> temp = new ArrayList<Patient>();
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				temp.addAll(shard.getCopyList());
+			}
+		}
+		return temp;
+	}
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived, as a snapshot
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalOrder() {
+		return arrivalSnapshot();
+	}
+
+	
+	/**
+	 * Return a snapshot of the waiting patients in arrival order. Each shard
+	 * is snapshotted under its lock, one shard at a time, and the snapshots
+	 * are merged while iterating, so nothing is copied or sorted.
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	@Override
+	public Iterable<Patient> arrivalSnapshot() {
+		final ArrayList<Iterable<Patient>> parts = new ArrayList<Iterable<Patient>>(shards.length);
+		for (PatientPriorityQueue shard : shards) {
+			synchronized (shard) {
+				parts.add(shard.arrivalSnapshot());
+			}
+		}
+		return () -> new Merger(parts);
+	}
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	@Override
+	public int getNextPatientNumber() {
+		return nextPatientNumber.get();
+	}
+
+	
+	/**
+	 * Replace the contents of the queue with the given patients, keeping their
+	 * arrival numbers and routing each one by the hash of its name. Must not
+	 * run while other threads use the queue.
+	 * 
+	 * @param patients          The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	@Override
+	public void restore(ArrayList<Patient> patients, int nextPatientNumber) {
+		ArrayList<ArrayList<Patient>> routed = new ArrayList<ArrayList<Patient>>();
+		for (int i = 0; i < shards.length; i++) {
+			routed.add(new ArrayList<Patient>());
+		}
+		for (Patient patient : patients) {
+			routed.get(shardOf(patient.getName())).add(patient);
+		}
+		for (int i = 0; i < shards.length; i++) {
+			synchronized (shards[i]) {
+				shards[i].restore(routed.get(i), nextPatientNumber);
+			}
+		}
+		this.nextPatientNumber.set(nextPatientNumber);
+	}
+
+	
+	/**
+	 * Return the metrics the shards record into
+	 * 
+	 * @return Return the metrics, Return null if the shards are not instrumented
+	 */
+	@Override
+	public QueueMetrics getMetrics() {
+		return shards[0].getMetrics();
+	}
+
+	
+	/**
+	 * Return the head of a shard
+	 * 
+	 * @param shard The shard index
+	 * @return Return the head, Return null if the shard is empty
+	 */
+	private Patient peekShard(int shard) {
+		synchronized (shards[shard]) {
+			return shards[shard].peek();
+		}
+	}
+
+	
+	/**
+	 * Remove the head of a shard if it is still the expected patient
+	 * 
+	 * @param shard    The shard index
+	 * @param expected The head seen when the shard was picked
+	 * @return Return true if the patient was removed, false if the head
+	 *         changed in the meantime
+	 */
+	private boolean takeHead(int shard, Patient expected) {
+		synchronized (shards[shard]) {
+			if (shards[shard].peek() != expected) {
+				return false;
+			}
+			shards[shard].dequeue();
+			return true;
+		}
+	}
+
+	
+	/**
+	 * Check if a patient must be seen before another one
+	 * 
+	 * @param first  The first patient
+	 * @param second The second patient
+	 * @return Return true if first is seen before second, otherwise false
+	 */
+	private static boolean comesBefore(Patient first, Patient second) {
+		return compare(first, second) < 0;
+	}
+
+	
+	/**
+	 * Compare two patients in service order: by priority code and then by
+	 * arrival number, which is unique across shards, so only a patient
+	 * compares equal to itself
+	 * 
+	 * @param first  The first patient
+	 * @param second The second patient
+	 * @return Return a negative number if first is seen first, a positive
+	 *         number if second is, and 0 if they are the same patient
+	 */
+	private static int compare(Patient first, Patient second) {
+		if (first.getPriorityCode() != second.getPriorityCode()) {
+			return Integer.compare(first.getPriorityCode(), second.getPriorityCode());
+		}
+		return Integer.compare(first.getArrivalOrder(), second.getArrivalOrder());
+	}
+
+	
+	/**
+	 * This is an iterator that merges iterators that are each in arrival
+	 * order by always taking the earliest of their next patients.
+	 */
+	private static class Merger implements Iterator<Patient> {
+
+		private final ArrayList<Iterator<Patient>> cursors; // one per shard
+		private final Patient[] heads; // next patient of each shard, null when done
+
+		
+		/**
+		 * Creates an iterator over the merged patients.
+		 * 
+		 * @param parts The patients of each shard in arrival order
+		 */
+		private Merger(ArrayList<Iterable<Patient>> parts) {
+			this.cursors = new ArrayList<Iterator<Patient>>(parts.size());
+			this.heads = new Patient[parts.size()];
+			for (int i = 0; i < parts.size(); i++) {
+				Iterator<Patient> cursor = parts.get(i).iterator();
+				cursors.add(cursor);
+				heads[i] = cursor.hasNext() ? cursor.next() : null;
+			}
+		}
+
+		
+		/**
+		 * Check if any shard has another patient
+		 * 
+		 * @return Return true if there is another patient, otherwise false
+		 */
+		@Override
+		public boolean hasNext() {
+			for (Patient head : heads) {
+				if (head != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		
+		/**
+		 * Return the patient that arrived first among the shards' next ones
+		 * 
+		 * @return Return the next patient
+		 */
+		@Override
+		public Patient next() {
+			int first = -1;
+			for (int i = 0; i < heads.length; i++) {
+				if (heads[i] != null
+				    && (first == -1 || heads[i].getArrivalOrder() < heads[first].getArrivalOrder())) {
+					first = i;
+				}
+			}
+			if (first == -1) {
+				throw new NoSuchElementException();
+			}
+			Patient patient = heads[first];
+			Iterator<Patient> cursor = cursors.get(first);
+			heads[first] = cursor.hasNext() ? cursor.next() : null;
+			return patient;
+		}
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This is a load client for the triage server. Every connection sends a
+ * pipeline of add, peek and next commands, waits for all of their answers,
+ * and repeats until the time is up. The client then reports the commands per
+ * second and the latency of a command, from sending its pipeline to receiving
+ * its answer.
+ * 
+ * Usage: TriageLoadClient host port [connections] [seconds] [pipeline]
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class TriageLoadClient {
+
+	private static final byte[] PROMPT = TriageServer.PROMPT.getBytes(StandardCharsets.UTF_8);
+
+	
+	/**
+	 * Entry point of the load client
+	 * 
+	 * @param args host, port, and optionally the number of connections,
+	 *             seconds to run and commands per pipeline
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: TriageLoadClient host port [connections] [seconds] [pipeline]");
+			return;
+		}
+		final InetSocketAddress address = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+		int connections = args.length > 2 ? Integer.parseInt(args[2]) : 16;
+		int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+		final int pipeline = args.length > 4 ? Integer.parseInt(args[4]) : 16;
+
+		final LatencyHistogram latency = new LatencyHistogram(); // microseconds
+		final LongAdder commands = new LongAdder();
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+		Thread[] clients = new Thread[connections];
+		for (int i = 0; i < connections; i++) {
+			final int client = i;
+			clients[i] = new Thread(() -> {
+				try {
+					runClient(address, client, pipeline, deadline, latency, commands);
+				} catch (IOException e) {
+					System.out.println("Error: client " + client + ": " + e.getMessage());
+				}
+			});
+			clients[i].start();
+		}
+		long start = System.nanoTime();
+		for (Thread client : clients) {
+			client.join();
+		}
+		double elapsed = (System.nanoTime() - start) / 1e9;
+
+		LatencyHistogram.Snapshot stats = latency.snapshot();
+		System.out.printf("%d connections, pipeline %d: %d commands in %.1f s, %.0f commands/s%n",
+				  connections, pipeline, commands.sum(), elapsed, commands.sum() / elapsed);
+		System.out.printf("latency (us): p50 %d  p99 %d  p99.9 %d  max %d%n",
+				  stats.getPercentile(50), stats.getPercentile(99),
+				  stats.getPercentile(99.9), stats.getMax());
+	}
+
+	
+	/**
+	 * Run one connection until the deadline
+	 * 
+	 * @param address  The server's address
+	 * @param client   Number of the connection
+	 * @param pipeline Commands sent before reading the answers
+	 * @param deadline System.nanoTime() at which to stop
+	 * @param latency  Where to record the latency of each command
+	 * @param commands Where to count the answered commands
+	 * @throws IOException
+	 */
+	private static void runClient(InetSocketAddress address, int client, int pipeline, long deadline,
+				      LatencyHistogram latency, LongAdder commands) throws IOException {
+		SocketChannel channel = SocketChannel.open(address);
+		try {
+			channel.socket().setTcpNoDelay(true);
+			ByteBuffer in = ByteBuffer.allocateDirect(64 * 1024);
+			int[] matched = new int[1]; // bytes of the prompt matched so far
+			awaitPrompts(channel, in, 1, matched, 0, null); // the greeting
+
+			StringBuilder batch = new StringBuilder();
+			int sent = 0;
+			while (System.nanoTime() < deadline) {
+				batch.setLength(0);
+				for (int i = 0; i < pipeline; i++, sent++) {
+					if (sent % 3 == 0) {
+						batch.append("add ").append(CommandTokenizer.priorityWord((sent / 3 + client) % 4 + 1))
+						     .append(" Load Client ").append(client).append('\n');
+					} else if (sent % 3 == 1) {
+						batch.append("peek\n");
+					} else {
+						batch.append("next\n");
+					}
+				}
+				ByteBuffer out = ByteBuffer.wrap(batch.toString().getBytes(StandardCharsets.UTF_8));
+				long start = System.nanoTime();
+				while (out.hasRemaining()) {
+					channel.write(out);
+				}
+				awaitPrompts(channel, in, pipeline, matched, start, latency);
+				commands.add(pipeline);
+			}
+			channel.write(ByteBuffer.wrap("quit\n".getBytes(StandardCharsets.UTF_8)));
+		} finally {
+			channel.close();
+		}
+	}
+
+	
+	/**
+	 * Read answers until the given number of prompts arrived
+	 * 
+	 * @param channel The connection
+	 * @param in      Buffer to read into
+	 * @param count   Number of prompts to wait for
+	 * @param matched Bytes of the prompt matched by the previous read
+	 * @param start   System.nanoTime() at which the commands were sent
+	 * @param latency Where to record the latency of each answer, null for none
+	 * @throws IOException if the server closes the connection
+	 */
+	private static void awaitPrompts(SocketChannel channel, ByteBuffer in, int count, int[] matched,
+					 long start, LatencyHistogram latency) throws IOException {
+		while (count > 0) {
+			in.clear();
+			if (channel.read(in) < 0) {
+				throw new IOException("server closed the connection");
+			}
+			long now = System.nanoTime();
+			in.flip();
+			while (in.hasRemaining()) {
+				byte b = in.get();
+				if (b == PROMPT[matched[0]]) {
+					matched[0]++;
+				} else {
+					matched[0] = b == PROMPT[0] ? 1 : 0;
+				}
+				if (matched[0] == PROMPT.length) {
+					matched[0] = 0;
+					count--;
+					if (latency != null) {
+						latency.record(TimeUnit.NANOSECONDS.toMicros(now - start));
+					}
+				}
+			}
+		}
+	}
+
+}
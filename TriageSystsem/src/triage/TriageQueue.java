@@ -0,0 +1,210 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.util.ArrayList;
+
+/**
+ * This is the set of operations the triage system needs from a waiting room
+ * queue, so that different queue engines can be selected behind it.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public interface TriageQueue {
+
+	/**
+	 * Add a Patient to the queue
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 */
+	void addPatient(int priorityCode, String patientName);
+
+	
+	/**
+	 * Add a Patient to the queue that arrived at the given time, such as one
+	 * replayed from a journal
+	 * 
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	void addPatient(int priorityCode, String patientName, long arrivalTime);
+
+	
+	/**
+	 * Add a batch of patients in the given order
+	 * 
+	 * @param priorityCodes The patients' priority codes
+	 * @param patientNames  The patients' names
+	 * @param count         Number of patients to take from the arrays
+	 */
+	void addPatients(int[] priorityCodes, String[] patientNames, int count);
+
+	
+	/**
+	 * Return the patient that will be seen next, but keep it in the queue
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	Patient peek();
+
+	
+	/**
+	 * Return the next patients in the order they will be seen, but keep them
+	 * in the queue
+	 * 
+	 * @param k Number of patients to return
+	 * @return Return up to k patients, the next one first
+	 */
+	ArrayList<Patient> peek(int k);
+
+	
+	/**
+	 * Remove the patient that will be seen next from the queue
+	 * 
+	 * @return Return the next patient, Return null if the queue is empty
+	 */
+	Patient dequeue();
+
+	
+	/**
+	 * Remove the next patient of a clinician's home shard, or the head of
+	 * another shard when the home shard is empty or that head has a more
+	 * urgent priority code. Only sharded queues have shards.
+	 * 
+	 * @param home The clinician's home shard, from 0 to getShardCount() - 1
+	 * @return Return the next patient, Return null if the queue is empty
+	 * @throws UnsupportedOperationException if the queue is not sharded
+	 */
+	default Patient dequeue(int home) {
+		throw new UnsupportedOperationException("the queue is not sharded");
+	}
+
+	
+	/**
+	 * Return the number of shards dequeue(home) accepts
+	 * 
+	 * @return Return the number of shards, Return 0 if the queue is not sharded
+	 */
+	default int getShardCount() {
+		return 0;
+	}
+
+	
+	/**
+	 * Remove the patient with the given arrival number without seeing it, such
+	 * as a patient who left or was transferred
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the removed patient, Return null if no such patient is
+	 *         waiting
+	 */
+	Patient removeByArrival(int arrivalId);
+
+	
+	/**
+	 * Remove a batch of patients without seeing them. Arrival numbers that are
+	 * not waiting are skipped.
+	 * 
+	 * @param arrivalIds The patients' arrival numbers
+	 * @param count      Number of arrival numbers to take from the array
+	 * @return Return the removed patients
+	 */
+	ArrayList<Patient> removeByArrival(int[] arrivalIds, int count);
+
+	
+	/**
+	 * Change priorityCode of the patient with the given arrival number
+	 * 
+	 * @param arrivalId   The patient's arrival number
+	 * @param newPriority The patient's new priority code
+	 * @return Return true if the patient was found, otherwise false
+	 */
+	boolean changeByArrival(int arrivalId, int newPriority);
+
+	
+	/**
+	 * Return the waiting patient with the given arrival number
+	 * 
+	 * @param arrivalId The patient's arrival number
+	 * @return Return the patient, Return null if no such patient is waiting
+	 */
+	Patient findByArrival(int arrivalId);
+
+	
+	/**
+	 * Return the waiting patients whose name starts with a prefix, ignoring
+	 * case and extra spaces
+	 * 
+	 * @param prefix The start of the name
+	 * @param limit  Most patients to return
+	 * @return Return the matching patients sorted by name and then arrival
+	 */
+	ArrayList<Patient> findByName(String prefix, int limit);
+
+	
+	/**
+	 * Return the number of waiting patients
+	 * 
+	 * @return Return the number of waiting patients
+	 */
+	int size();
+
+	
+	/**
+	 * Return a copy of the waiting patients
+	 * 
+	 * @return Return a copy of the waiting patients
+	 */
+	ArrayList<Patient> getCopyList();
+
+	
+	/**
+	 * Return the waiting patients in the order they arrived. The view is kept
+	 * up to date by the queue, so iterating it needs no copy or sort.
+	 * 
+	 * @return Return the waiting patients in arrival order
+	 */
+	Iterable<Patient> arrivalOrder();
+
+	
+	/**
+	 * Return the waiting patients in arrival order as they are now. Changes
+	 * made after this returns do not show up in the snapshot, so it can be
+	 * iterated while other threads keep adding and taking patients.
+	 * 
+	 * @return Return a point-in-time view of the waiting patients in arrival order
+	 */
+	Iterable<Patient> arrivalSnapshot();
+
+	
+	/**
+	 * Return the arrival number the next added patient will get
+	 * 
+	 * @return Return the next arrival number
+	 */
+	int getNextPatientNumber();
+
+	
+	/**
+	 * Replace the contents of the queue with the given patients, keeping their
+	 * arrival numbers. The patients may be in the order getCopyList() returned
+	 * them, which lets an engine skip rebuilding its structure.
+	 * 
+	 * @param patients          The waiting patients
+	 * @param nextPatientNumber The arrival number the next added patient gets
+	 */
+	void restore(ArrayList<Patient> patients, int nextPatientNumber);
+
+	
+	/**
+	 * Return the metrics the queue records
+	 * 
+	 * @return Return the metrics, Return null if the queue is not instrumented
+	 */
+	QueueMetrics getMetrics();
+
+}
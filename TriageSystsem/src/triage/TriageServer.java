@@ -0,0 +1,468 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+
+/**
+ * This is a network server for intake terminals. Clients connect over TCP and
+ * type the same commands as at the console, one per line, and the server
+ * answers each command followed by the "triage> " prompt.
+ * 
+ * One thread runs a selector over all connections, so an idle terminal costs
+ * only its socket and a small buffer, and commands run one at a time against
+ * the queue without any locking. A client may send many commands before
+ * reading the answers: every complete line that arrived is executed, and the
+ * answers are collected in the connection's buffer and written back in one
+ * go. A client that does not read its answers is not read from until its
+ * buffer drains.
+ * 
+ * The commands load and save are refused, since they would work on the
+ * server's files, and quit closes the connection instead of the server.
+ * 
+ * A waiting room display sends watch to get a line for every change of the
+ * queue, and unwatch to stop. Events are delivered on the selector thread
+ * and only requested while the display reads its answers, so a display that
+ * stalls loses events and is told so instead of slowing the queue down.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class TriageServer {
+
+	static final String PROMPT = "\ntriage> ";
+	private static final int READ_BYTES = 16 * 1024;         // bytes read at once
+	private static final int MAX_LINE_BYTES = 64 * 1024;     // longest accepted command
+	private static final int MAX_PENDING_BYTES = 1024 * 1024; // unread answers per client
+	private static final int WATCH_EVENTS = 64;              // events requested ahead per display
+
+	private ObservableTriageQueue priQueue; // queue all connections operate on
+	private ConcurrentLinkedQueue<Runnable> tasks; // work to run on the selector thread
+	private ArrayList<Connection> unflushed; // displays that got events since the last flush
+	private volatile Thread serving;    // thread running the selector, null before run()
+	private ServerSocketChannel server; // listening socket
+	private Selector selector;          // readiness of all sockets
+	private CommandTokenizer tokens;    // tokenizer reused for every line
+	private ByteBuffer readBuffer;      // buffer reused for every read
+	private volatile boolean running;   // false once stop() was called
+
+	
+	/**
+	 * Creates a server listening on the given port.
+	 * 
+	 * @param priQueue Priority queue the clients operate on
+	 * @param port     The port, 0 to pick a free one
+	 * @throws IOException
+	 */
+	public TriageServer(TriageQueue priQueue, int port) throws IOException {
+		this.priQueue = new ObservableTriageQueue(priQueue, this::runLater,
+							  ObservableTriageQueue.DEFAULT_BUFFER_EVENTS);
+		this.tasks = new ConcurrentLinkedQueue<>();
+		this.unflushed = new ArrayList<>();
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.bind(new InetSocketAddress(port));
+		this.server.configureBlocking(false);
+		this.server.register(selector, SelectionKey.OP_ACCEPT);
+		this.tokens = new CommandTokenizer();
+		this.readBuffer = ByteBuffer.allocateDirect(READ_BYTES);
+		this.running = true;
+	}
+
+	
+	/**
+	 * Return the port the server listens on
+	 * 
+	 * @return Return the port
+	 */
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	
+	/**
+	 * Serve clients until stop() is called
+	 * 
+	 * @throws IOException if the listening socket fails
+	 */
+	public void run() throws IOException {
+		serving = Thread.currentThread();
+		try {
+			while (running) {
+				runTasks();
+				selector.select();
+				Iterator<SelectionKey> ready = selector.selectedKeys().iterator();
+				while (ready.hasNext()) {
+					SelectionKey key = ready.next();
+					ready.remove();
+					if (!key.isValid()) {
+						continue;
+					} else if (key.isAcceptable()) {
+						accept();
+						continue;
+					}
+
+					// A failing client is dropped without stopping the server
+					try {
+						if (key.isReadable()) {
+							read(key);
+						}
+						if (key.isValid() && key.isWritable()) {
+							write(key);
+						}
+					} catch (IOException e) {
+						close(key);
+					}
+				}
+			}
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				key.channel().close();
+			}
+			selector.close();
+		}
+	}
+
+	
+	/**
+	 * Run a task on the selector thread. May be called from any thread.
+	 * 
+	 * @param task The task
+	 */
+	private void runLater(Runnable task) {
+		tasks.add(task);
+		if (Thread.currentThread() != serving) {
+			selector.wakeup();
+		}
+	}
+
+	
+	/**
+	 * Run the tasks queued for the selector thread, including the ones they
+	 * queue, then write the events they gave to displays
+	 */
+	private void runTasks() {
+		Runnable task = tasks.poll();
+		while (task != null) {
+			task.run();
+			task = tasks.poll();
+		}
+		for (Connection connection : unflushed) {
+			connection.unflushed = false;
+			if (connection.key.isValid()) {
+				try {
+					write(connection.key);
+				} catch (IOException e) {
+					close(connection.key);
+				}
+			}
+		}
+		unflushed.clear();
+	}
+
+	
+	/**
+	 * Stop the server. May be called from any thread.
+	 */
+	public void stop() {
+		running = false;
+		selector.wakeup();
+	}
+
+	
+	/**
+	 * Accept a new client and greet it
+	 * 
+	 * @throws IOException
+	 */
+	private void accept() throws IOException {
+		SocketChannel channel = server.accept();
+		if (channel == null) {
+			return;
+		}
+		channel.configureBlocking(false);
+		channel.socket().setTcpNoDelay(true);
+		Connection connection = new Connection();
+		connection.out.print(TriageSystem.MSG_WELCOME);
+		connection.out.print(PROMPT);
+		SelectionKey key = channel.register(selector, SelectionKey.OP_READ, connection);
+		connection.key = key;
+		write(key);
+	}
+
+	
+	/**
+	 * Read what a client sent and execute every complete line
+	 * 
+	 * @param key The client's key
+	 * @throws IOException
+	 */
+	private void read(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		readBuffer.clear();
+		if (channel.read(readBuffer) < 0) {
+			close(key);
+			return;
+		}
+		readBuffer.flip();
+		while (readBuffer.hasRemaining() && !connection.closing) {
+			byte b = readBuffer.get();
+			if (b == '\n') {
+				int length = connection.lineLength;
+				if (length > 0 && connection.line[length - 1] == '\r') {
+					length--;
+				}
+				execute(connection, new String(connection.line, 0, length, StandardCharsets.UTF_8));
+				connection.lineLength = 0;
+			} else if (connection.lineLength == MAX_LINE_BYTES) {
+				connection.out.print("Error: command is too long");
+				connection.closing = true;
+			} else {
+				if (connection.lineLength == connection.line.length) {
+					connection.line = Arrays.copyOf(connection.line, connection.line.length * 2);
+				}
+				connection.line[connection.lineLength++] = b;
+			}
+		}
+		write(key);
+	}
+
+	
+	/**
+	 * Execute one line for a client, writing the answer to its buffer
+	 * 
+	 * @param connection The client's connection
+	 * @param line       The command to execute
+	 * @throws IOException
+	 */
+	private void execute(Connection connection, String line) throws IOException {
+		PrintStream out = connection.out;
+		if (tokens.reset(line).next() && tokens.tokenEquals("quit")) {
+			out.println(TriageSystem.MSG_GOODBYE);
+			connection.closing = true;
+			return;
+		} else if (tokens.tokenEquals("load") || tokens.tokenEquals("save")) {
+			out.println("Error: load and save are not available to network clients");
+		} else if (tokens.tokenEquals("watch") && !tokens.hasNext()) {
+			if (connection.display != null) {
+				out.println("Error: already watching the waiting area");
+			} else {
+				out.println("Watching the waiting area, send unwatch to stop");
+				connection.display = new Display(connection);
+				priQueue.subscribe(connection.display);
+			}
+		} else if (tokens.tokenEquals("unwatch") && !tokens.hasNext()) {
+			if (connection.display == null) {
+				out.println("Error: not watching the waiting area");
+			} else {
+				out.println("Stopped watching the waiting area");
+				connection.display.stop();
+				connection.display = null;
+			}
+		} else {
+			TriageSystem.processLine(line, priQueue, tokens, out);
+		}
+		out.print(PROMPT);
+	}
+
+	
+	/**
+	 * Write as much of a client's answers as the socket takes, and only keep
+	 * reading from the client while its unwritten answers are small
+	 * 
+	 * @param key The client's key
+	 * @throws IOException
+	 */
+	private void write(SelectionKey key) throws IOException {
+		SocketChannel channel = (SocketChannel) key.channel();
+		Connection connection = (Connection) key.attachment();
+		while (true) {
+			if (!connection.pending.hasRemaining()) {
+				connection.out.flush();
+				if (connection.output.size() == 0) {
+					break;
+				}
+				connection.pending = ByteBuffer.wrap(connection.output.toByteArray());
+				connection.output.reset();
+			}
+			channel.write(connection.pending);
+			if (connection.pending.hasRemaining()) {
+				break;
+			}
+		}
+
+		boolean drained = !connection.pending.hasRemaining() && connection.output.size() == 0;
+		if (drained && connection.closing) {
+			close(key);
+			return;
+		}
+		int unwritten = connection.pending.remaining() + connection.output.size();
+		int ops = drained ? 0 : SelectionKey.OP_WRITE;
+		if (unwritten < MAX_PENDING_BYTES && !connection.closing) {
+			ops |= SelectionKey.OP_READ;
+			if (connection.display != null) {
+				connection.display.refill();
+			}
+		}
+		key.interestOps(ops);
+	}
+
+	
+	/**
+	 * Close a client's connection
+	 * 
+	 * @param key The client's key
+	 */
+	private void close(SelectionKey key) {
+		Connection connection = (Connection) key.attachment();
+		if (connection != null && connection.display != null) {
+			connection.display.stop();
+			connection.display = null;
+		}
+		key.cancel();
+		try {
+			key.channel().close();
+		} catch (IOException e) {
+			// The connection is gone either way
+		}
+	}
+
+	
+	/**
+	 * This is the state of one client connection.
+	 */
+	private static class Connection {
+
+		private byte[] line = new byte[256];  // bytes of the unfinished line
+		private int lineLength;               // number of bytes in line
+		private ByteArrayOutputStream output = new ByteArrayOutputStream(); // unsent answers
+		private PrintStream out = new PrintStream(output, false, StandardCharsets.UTF_8);
+		private ByteBuffer pending = ByteBuffer.allocate(0); // answers being written
+		private boolean closing;              // close once the answers are written
+		private Display display;              // events of the queue, null if not watching
+		private SelectionKey key;             // the connection's key
+		private boolean unflushed;            // true if events were written since the last flush
+	}
+
+	
+	/**
+	 * This is a waiting room display that writes the queue's events to its
+	 * connection. It runs on the selector thread and keeps up to
+	 * WATCH_EVENTS events requested while the connection's answers drain.
+	 */
+	private class Display implements Flow.Subscriber<QueueEvent> {
+
+		private Connection connection;          // where the events are written
+		private Flow.Subscription subscription; // null until subscribed
+		private int requested;                  // events requested and not yet received
+		private boolean stopped;                // true once the display was stopped
+
+		
+		/**
+		 * Creates a display for a connection.
+		 * 
+		 * @param connection Where the events are written
+		 */
+		private Display(Connection connection) {
+			this.connection = connection;
+		}
+
+		
+		/**
+		 * Start requesting events
+		 * 
+		 * @param newSubscription The subscription
+		 */
+		@Override
+		public void onSubscribe(Flow.Subscription newSubscription) {
+			subscription = newSubscription;
+			if (stopped) {
+				subscription.cancel();
+			} else {
+				refill();
+			}
+		}
+
+		
+		/**
+		 * Write an event to the connection
+		 * 
+		 * @param event The event
+		 */
+		@Override
+		public void onNext(QueueEvent event) {
+			requested--;
+			if (stopped) {
+				return;
+			}
+			connection.out.print("[event] ");
+			connection.out.println(event);
+			if (!connection.unflushed) {
+				connection.unflushed = true;
+				unflushed.add(connection);
+			}
+		}
+
+		
+		/**
+		 * Stop the display when its subscription failed. Events that are
+		 * still delivered are not written and no more are requested, but the
+		 * connection stays open for commands.
+		 * 
+		 * @param error The error
+		 */
+		@Override
+		public void onError(Throwable error) {
+			stopped = true;
+		}
+
+		
+		/**
+		 * Stop the display when the queue was closed and has no more events.
+		 * The connection stays open for commands.
+		 */
+		@Override
+		public void onComplete() {
+			stopped = true;
+		}
+
+		
+		/**
+		 * Request events up to WATCH_EVENTS
+		 */
+		private void refill() {
+			if (subscription != null && !stopped && requested < WATCH_EVENTS / 2) {
+				subscription.request(WATCH_EVENTS - requested);
+				requested = WATCH_EVENTS;
+			}
+		}
+
+		
+		/**
+		 * Stop getting events
+		 */
+		private void stop() {
+			stopped = true;
+			if (subscription != null) {
+				subscription.cancel();
+			}
+		}
+	}
+
+}
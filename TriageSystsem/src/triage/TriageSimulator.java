@@ -0,0 +1,438 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+
+/**
+ * This is a simulation of a waiting room for capacity planning. Patients
+ * arrive as a Poisson process with priority codes drawn from a mix, some of
+ * them are re-triaged while they wait, and a number of clinicians take the
+ * next patient from the queue whenever they are free, each visit lasting an
+ * exponentially distributed time with a mean per priority code.
+ * 
+ * The simulation runs in virtual time: it jumps from one event to the next,
+ * so a month of a busy emergency room takes well under a second. Every draw
+ * comes from one random generator with a fixed seed, so a run can be
+ * repeated exactly, and since every engine sees patients in the same order
+ * the results are the same whichever engine is simulated.
+ * 
+ * Usage: TriageSimulator [engine] [--mapped directory] [--seed n] [--hours h]
+ * [--arrivals per-hour] [--clinicians n] [--mix w1,w2,w3,w4]
+ * [--service m1,m2,m3,m4] [--retriage fraction] [--retriage-minutes m]
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class TriageSimulator {
+
+	private static final double MINUTE_MILLIS = 60 * 1000.0;
+	private static final double HOUR_MILLIS = 60 * MINUTE_MILLIS;
+	
+	// Constant for the number of patient names, reused so that engines that
+	// keep every name they saw, like the heap with a name arena, stay small
+	private static final int NAMES = 1024;
+
+	private TriageQueue priQueue;        // queue under simulation
+	private SplittableRandom random;     // source of every draw
+	private double arrivalsPerHour;      // mean number of arrivals per hour
+	private int clinicians;              // number of clinicians seeing patients
+	private int[] mix;                   // weight of each priority code
+	private double[] serviceMinutes;     // mean visit length of each priority code
+	private double retriageFraction;     // fraction of patients re-triaged while waiting
+	private double retriageMinutes;      // mean time from arrival to re-triage
+
+	private LatencyHistogram[] waits;    // wait in seconds of each priority code
+	private long arrived;                // patients added
+	private long seen;                   // patients taken by a clinician
+	private long retriaged;              // patients whose priority code changed
+	private long events;                 // events simulated
+	private int waiting;                 // patients waiting now
+	private int maxDepth;                // most patients waiting at once
+	private double hours;                // virtual hours simulated
+	private double busyMillis;           // virtual time clinicians spent with patients
+	private long wallNanos;              // real time the run took
+
+	
+	/**
+	 * Creates a simulation of an empty waiting room with 30 arrivals per
+	 * hour in the mix of the sample patients, 12 clinicians, visits of 30,
+	 * 20, 15 and 10 minutes from immediate to minimal, and one patient in ten
+	 * re-triaged after 30 minutes on average.
+	 * 
+	 * @param priQueue The queue to simulate
+	 * @param seed     The seed of the random generator
+	 */
+	public TriageSimulator(TriageQueue priQueue, long seed) {
+		this.priQueue = priQueue;
+		this.random = new SplittableRandom(seed);
+		this.arrivalsPerHour = 30;
+		this.clinicians = 12;
+		this.mix = new int[] {4, 4, 1, 4};
+		this.serviceMinutes = new double[] {30, 20, 15, 10};
+		this.retriageFraction = 0.1;
+		this.retriageMinutes = 30;
+	}
+
+	
+	/**
+	 * Set the mean number of arrivals per hour
+	 * 
+	 * @param arrivalsPerHour The mean number of arrivals per hour
+	 */
+	public void setArrivalsPerHour(double arrivalsPerHour) {
+		if (!(arrivalsPerHour > 0)) {
+			throw new IllegalArgumentException("arrivals per hour must be positive: " + arrivalsPerHour);
+		}
+		this.arrivalsPerHour = arrivalsPerHour;
+	}
+
+	
+	/**
+	 * Set the number of clinicians seeing patients
+	 * 
+	 * @param clinicians The number of clinicians
+	 */
+	public void setClinicians(int clinicians) {
+		if (clinicians <= 0) {
+			throw new IllegalArgumentException("there must be at least one clinician: " + clinicians);
+		}
+		this.clinicians = clinicians;
+	}
+
+	
+	/**
+	 * Set the priority mix as a weight for each priority code, so 4,4,1,4
+	 * makes one patient in thirteen urgent
+	 * 
+	 * @param mix The weights of immediate, emergency, urgent and minimal
+	 */
+	public void setPriorityMix(int[] mix) {
+		int total = 0;
+		for (int weight : mix) {
+			if (weight < 0) {
+				throw new IllegalArgumentException("weights cannot be negative: " + weight);
+			}
+			total += weight;
+		}
+		if (mix.length != 4 || total == 0) {
+			throw new IllegalArgumentException("the mix needs 4 weights that are not all 0");
+		}
+		this.mix = mix.clone();
+	}
+
+	
+	/**
+	 * Set the mean length of a visit for each priority code
+	 * 
+	 * @param serviceMinutes The mean minutes of immediate, emergency, urgent
+	 *                       and minimal visits
+	 */
+	public void setServiceMinutes(double[] serviceMinutes) {
+		if (serviceMinutes.length != 4) {
+			throw new IllegalArgumentException("there must be 4 visit lengths");
+		}
+		for (double minutes : serviceMinutes) {
+			if (!(minutes > 0)) {
+				throw new IllegalArgumentException("visit lengths must be positive: " + minutes);
+			}
+		}
+		this.serviceMinutes = serviceMinutes.clone();
+	}
+
+	
+	/**
+	 * Set how many patients are re-triaged and when. A re-triaged patient
+	 * gets a new priority code drawn from the mix if it is still waiting.
+	 * 
+	 * @param fraction The fraction of patients re-triaged, from 0 to 1
+	 * @param minutes  The mean minutes from arrival to re-triage
+	 */
+	public void setRetriage(double fraction, double minutes) {
+		if (!(fraction >= 0 && fraction <= 1) || !(minutes > 0)) {
+			throw new IllegalArgumentException("invalid re-triage: " + fraction + " after " + minutes);
+		}
+		this.retriageFraction = fraction;
+		this.retriageMinutes = minutes;
+	}
+
+	
+	/**
+	 * Simulate the waiting room for the given number of virtual hours. No
+	 * patient arrives after that, and patients still waiting are not seen.
+	 * 
+	 * @param hours Virtual hours to simulate
+	 */
+	public void run(double hours) {
+		long start = System.nanoTime();
+		double end = hours * HOUR_MILLIS;
+		double arrivalGap = HOUR_MILLIS / arrivalsPerHour;
+		PriorityQueue<Double> busy = new PriorityQueue<Double>(clinicians); // when each busy clinician is free
+		PriorityQueue<Retriage> retriages = new PriorityQueue<Retriage>();
+		waits = new LatencyHistogram[4];
+		for (int i = 0; i < 4; i++) {
+			waits[i] = new LatencyHistogram();
+		}
+		arrived = 0;
+		seen = 0;
+		retriaged = 0;
+		events = 0;
+		waiting = priQueue.size();
+		maxDepth = waiting;
+		busyMillis = 0;
+		this.hours = hours;
+
+		String[] names = new String[NAMES];
+		for (int i = 0; i < NAMES; i++) {
+			names[i] = "Patient " + i;
+		}
+		int idle = clinicians;
+		double nextArrival = exponential(arrivalGap);
+		while (true) {
+			double nextFree = busy.isEmpty() ? Double.POSITIVE_INFINITY : busy.peek();
+			double nextRetriage = retriages.isEmpty() ? Double.POSITIVE_INFINITY : retriages.peek().time;
+			double now = Math.min(nextArrival, Math.min(nextFree, nextRetriage));
+			if (now > end) {
+				break;
+			}
+			events++;
+			if (now == nextFree) {
+				busy.poll();
+				idle++;
+			} else if (now == nextRetriage) {
+				Retriage due = retriages.poll();
+				Patient patient = priQueue.findByArrival(due.arrival);
+				int priorityCode = nextPriority();
+				if (patient != null && patient.getPriorityCode() != priorityCode) {
+					priQueue.changeByArrival(due.arrival, priorityCode);
+					retriaged++;
+				}
+			} else {
+				int arrival = priQueue.getNextPatientNumber();
+				priQueue.addPatient(nextPriority(), names[arrival % NAMES], (long) now);
+				arrived++;
+				waiting++;
+				maxDepth = Math.max(maxDepth, waiting);
+				if (random.nextDouble() < retriageFraction) {
+					retriages.add(new Retriage(now + exponential(retriageMinutes * MINUTE_MILLIS), arrival));
+				}
+				nextArrival += exponential(arrivalGap);
+			}
+
+			// Every free clinician takes the next patient
+			Patient next;
+			while (idle > 0 && (next = priQueue.dequeue()) != null) {
+				int priorityCode = next.getPriorityCode();
+				double visit = exponential(serviceMinutes[priorityCode - 1] * MINUTE_MILLIS);
+				waits[priorityCode - 1].record(Math.round(((long) now - next.getArrivalTime()) / 1000.0));
+				busy.add(now + visit);
+				busyMillis += Math.min(visit, end - now);
+				idle--;
+				waiting--;
+				seen++;
+			}
+		}
+		wallNanos = System.nanoTime() - start;
+	}
+
+	
+	/**
+	 * Print the results of the last run: throughput, how busy the clinicians
+	 * were, the largest queue, and the distribution of waits per priority code
+	 * 
+	 * @param out Where to print the results
+	 */
+	public void report(PrintStream out) {
+		double wallMillis = wallNanos / 1e6;
+		out.printf("Simulated %.1f hours with %d clinicians and %.1f arrivals per hour%n",
+			   hours, clinicians, arrivalsPerHour);
+		out.printf("  %d arrived, %d seen, %d still waiting, %d re-triaged%n",
+			   arrived, seen, waiting, retriaged);
+		out.printf("  throughput %.2f patients/hour, clinicians busy %.1f%%, max queue depth %d%n",
+			   seen / hours, 100 * busyMillis / (clinicians * hours * HOUR_MILLIS), maxDepth);
+		out.printf("  %d events in %.0f ms (%.0f events/s)%n%n", events, wallMillis,
+			   events / Math.max(wallMillis, 1e-3) * 1000);
+		out.println("  Wait (min)         Seen       Mean        p50        p90        p99        Max\n"
+			    + "+------------+----------+----------+----------+----------+----------+----------+");
+		for (int code = 1; code <= 4; code++) {
+			LatencyHistogram.Snapshot wait = waits[code - 1].snapshot();
+			out.printf("  %-10s %10d %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+				   CommandTokenizer.priorityWord(code), wait.getCount(), wait.getMean() / 60,
+				   wait.getPercentile(50) / 60.0, wait.getPercentile(90) / 60.0,
+				   wait.getPercentile(99) / 60.0, wait.getMax() / 60.0);
+		}
+	}
+
+	
+	/**
+	 * Return the next priority code of the mix
+	 * 
+	 * @return Return a priority code from 1 to 4
+	 */
+	private int nextPriority() {
+		int total = mix[0] + mix[1] + mix[2] + mix[3];
+		int pick = random.nextInt(total);
+		int code = 0;
+		while (pick >= mix[code]) {
+			pick -= mix[code];
+			code++;
+		}
+		return code + 1;
+	}
+
+	
+	/**
+	 * Return an exponentially distributed time
+	 * 
+	 * @param mean The mean time
+	 * @return Return the time
+	 */
+	private double exponential(double mean) {
+		return -mean * Math.log(1 - random.nextDouble());
+	}
+
+	
+	/**
+	 * Entry point of the simulator
+	 * 
+	 * @param args optional queue engine to simulate, heap by default, or
+	 *             --mapped <directory> for a mapped heap, and the options
+	 *             listed in the usage. A mapped heap must be empty, so the
+	 *             patients of a real queue are neither served nor counted
+	 *             in the wait times.
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		String engine = "heap";       // name of the queue engine
+		String mappedDir = null;      // directory of a mapped heap, null for none
+		long seed = 42;               // seed of the random generator
+		double hours = 24 * 30;       // virtual hours to simulate
+		String[] options = {"--seed", "--hours", "--arrivals", "--clinicians", "--mix", "--service",
+				    "--retriage", "--retriage-minutes"};
+		String[] values = new String[options.length];
+		for (int i = 0; i < args.length; i++) {
+			int option = Arrays.asList(options).indexOf(args[i]);
+			if (args[i].equals("--mapped") && i + 1 < args.length) {
+				mappedDir = args[++i];
+				engine = "mapped";
+			} else if (option >= 0 && i + 1 < args.length) {
+				values[option] = args[++i];
+			} else if (args[i].startsWith("--")) {
+				System.out.println("Usage: TriageSimulator [engine] [--mapped directory] [--seed n] [--hours h]\n"
+						   + "       [--arrivals per-hour] [--clinicians n] [--mix w1,w2,w3,w4]\n"
+						   + "       [--service m1,m2,m3,m4] [--retriage fraction] [--retriage-minutes m]");
+				return;
+			} else {
+				engine = args[i];
+			}
+		}
+
+		TriageQueue priQueue;
+		MappedPatientQueue mapped = null;
+		if (mappedDir != null) {
+			mapped = MappedPatientQueue.open(Paths.get(mappedDir));
+			if (mapped.size() > 0) {
+				System.out.println("Error: the mapped heap in " + mappedDir + " has " + mapped.size()
+						   + " waiting patients; simulate in an empty directory");
+				mapped.close();
+				return;
+			}
+			priQueue = mapped;
+		} else {
+			priQueue = TriageSystem.createQueue(engine);
+		}
+		if (priQueue == null) {
+			System.out.println("Error: unrecognized queue engine: " + engine);
+			return;
+		}
+		try {
+			if (values[0] != null) {
+				seed = Long.parseLong(values[0]);
+			}
+			TriageSimulator simulator = new TriageSimulator(priQueue, seed);
+			if (values[1] != null) {
+				hours = Double.parseDouble(values[1]);
+			}
+			if (values[2] != null) {
+				simulator.setArrivalsPerHour(Double.parseDouble(values[2]));
+			}
+			if (values[3] != null) {
+				simulator.setClinicians(Integer.parseInt(values[3]));
+			}
+			if (values[4] != null) {
+				String[] weights = values[4].split(",");
+				int[] mix = new int[weights.length];
+				for (int i = 0; i < weights.length; i++) {
+					mix[i] = Integer.parseInt(weights[i].trim());
+				}
+				simulator.setPriorityMix(mix);
+			}
+			if (values[5] != null) {
+				String[] lengths = values[5].split(",");
+				double[] minutes = new double[lengths.length];
+				for (int i = 0; i < lengths.length; i++) {
+					minutes[i] = Double.parseDouble(lengths[i].trim());
+				}
+				simulator.setServiceMinutes(minutes);
+			}
+			if (values[6] != null || values[7] != null) {
+				simulator.setRetriage(values[6] == null ? 0.1 : Double.parseDouble(values[6]),
+						      values[7] == null ? 30 : Double.parseDouble(values[7]));
+			}
+			if (!(hours > 0)) {
+				throw new IllegalArgumentException("hours must be positive: " + hours);
+			}
+			simulator.run(hours);
+			System.out.println("Engine " + engine + ", seed " + seed);
+			simulator.report(System.out);
+		} catch (IllegalArgumentException e) {
+			System.out.println("Error: " + e.getMessage());
+		} finally {
+			if (mapped != null) {
+				mapped.close();
+			}
+		}
+	}
+
+	
+	/**
+	 * This is a re-triage due at a virtual time.
+	 */
+	private static class Retriage implements Comparable<Retriage> {
+
+		private final double time;  // virtual time of the re-triage
+		private final int arrival;  // arrival number of the patient
+
+	
+		/**
+		 * Creates a re-triage.
+		 * 
+		 * @param time    Virtual time of the re-triage
+		 * @param arrival Arrival number of the patient
+		 */
+		private Retriage(double time, int arrival) {
+			this.time = time;
+			this.arrival = arrival;
+		}
+
+	
+		/**
+		 * Compare by virtual time
+		 * 
+		 * @param other The other re-triage
+		 * @return Return a negative number if this one is due first, a
+		 *         positive number if the other one is, otherwise 0
+		 */
+		@Override
+		public int compareTo(Retriage other) {
+			return Double.compare(time, other.time);
+		}
+	}
+
+}
@@ -3,13 +3,18 @@
  * Triage System
  */
 package triage;
-import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.Scanner;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 
 /**
@@ -23,12 +28,24 @@ public class TriageSystem {
 	// Constant to do this program
 	private static boolean keepAsking = true;
 		
+	// Constant for the number of add commands handed to the queue at once
+	private static final int ADD_BATCH_SIZE = 65536;
+	
+	// Constant for the number of characters of list output written at once
+	private static final int LIST_BUFFER_CHARS = 65536;
+	
+	// Constant for the priority words shown by list
+	private static final String[] LIST_PRIORITY_WORDS = {"immdediate", "emergency", "urgent", "minimal"};
+	
+	// Constant for the table of commands
+	private static final CommandRegistry COMMANDS = createCommands();
+	
 	// Constant for welcome message
-	private static final String MSG_WELCOME = "Welcome to Triage System!" 
+	static final String MSG_WELCOME = "Welcome to Triage System!" 
 						  + "\nEnter help to display commands.";
 	
 	// Constant for goodbye message
-	private static final String MSG_GOODBYE = "\nThank you for using this " + "program!";
+	static final String MSG_GOODBYE = "\nThank you for using this " + "program!";
 	
 	// Constant for help message
 	private static final String MSG_HELP = "add <priority-code> <patient-name>\r\n"
@@ -36,16 +53,39 @@ public class TriageSystem {
 			+ "            <priority-code> must be one of the " + "4 accepted priority codes:\r\n"
 			+ "                1. immediate 2. emergency 3. urgent 4. minimal\r\n"
 			+ "            <patient-name>: patient's full " + "legal name (may contain spaces)\r\n"
+			+ "remove <arrivalID> [<arrivalID> ...]\r\n"
+			+ "            Removes patients who left or were transferred without\r\n"
+			+ "            being seen\r\n"
+			+ "find <name-prefix>\r\n"
+			+ "            Displays the waiting patients whose name starts with\r\n"
+			+ "            the prefix, ignoring case, with their arrival numbers.\r\n"
+			+ "            A trailing space ends the word: \"john \" skips Johnson\r\n"
 			+ "change <arrivalID> <newPriority>\r\n" + "            Change patient's priority\r\n"
 			+ "            <arrivalID>: patient's arrival number\r\n"
 			+ "            <newPriority>: changed priority code\r\n"
 			+ "next        Announces the patient to be seen next. " + "Takes into account the\r\n"
 			+ "            type of emergency and the " + "patient's arrival order.\r\n"
+			+ "next <shard>\r\n"
+			+ "            With the sharded engine, takes the next patient of a home\r\n"
+			+ "            shard, or a more urgent patient from another shard\r\n"
 			+ "peek        Displays the patient that is next " + "in line, but keeps in queue\r\n"
+			+ "peek <k>    Displays the next k patients in the order " + "they will be called\r\n"
 			+ "list        Displays the list of all patients " + "that are still waiting\r\n"
 			+ "            in the order that they have arrived.\r\n"
+			+ "list [offset] [limit] [--priority <code>] [--count]\r\n"
+			+ "            Displays up to <limit> waiting patients after skipping\r\n"
+			+ "            <offset>, only patients with one priority code, or only\r\n"
+			+ "            the number of waiting patients\r\n"
 			+ "save <file> Save the patient list to a file\r\n"
+			+ "save --binary <file>\r\n"
+			+ "            Save a binary image of the queue, keeping arrival numbers\r\n"
 			+ "load <file> Reads the file and executes " + "the command on each line\r\n"
+			+ "load --quiet <file>\r\n"
+			+ "            Executes the file without echoing each line\r\n"
+			+ "load --binary <file>\r\n"
+			+ "            Restores a binary image into an empty queue\r\n"
+			+ "stats       Displays operation latencies, wait times and the number\r\n"
+			+ "            of waiting patients per priority code\r\n"
 			+ "help        Displays this menu\r\n" + "quit        Exits the program";
 
 	
@@ -53,211 +93,722 @@ public class TriageSystem {
 	/**
 	 * Entry point of the program
 	 * 
-	 * @param args not used
+	 * @param args optional queue engine to use: heap (default), arena (the
+	 *             heap with names in an off-heap arena, for waiting rooms
+	 *             that see few distinct names), primitive, bucket,
+	 *             concurrent, sharded or pairing, optionally --journal <directory>
+	 *             to recover from and journal to a write-ahead journal,
+	 *             optionally --no-metrics to turn off instrumentation, and
+	 *             optionally --aging <minutes> to move a waiting patient up
+	 *             one priority level every given number of minutes, and
+	 *             optionally --serve <port> to serve network clients instead
+	 *             of the console, or --mapped <directory> instead of an engine
+	 *             to keep the heap in memory-mapped files in the directory
 	 * @throws IOException
 	 */
 	public static void main(String[] args) throws IOException {
+		String engine = "heap";       // name of the queue engine
+		String journalDir = null;     // journal directory, null if not journaling
+		String mappedDir = null;      // directory of a mapped heap, null for none
+		boolean instrumented = true;  // whether the queue records metrics
+		long agingMinutes = 0;        // minutes to move up one level, 0 for no aging
+		int port = -1;                // port to serve clients on, -1 for the console
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--journal") && i + 1 < args.length) {
+				journalDir = args[++i];
+			} else if (args[i].equals("--mapped") && i + 1 < args.length) {
+				mappedDir = args[++i];
+				engine = "mapped";
+			} else if (args[i].equals("--aging") && i + 1 < args.length) {
+				try {
+					agingMinutes = Long.parseLong(args[++i]);
+				} catch (NumberFormatException e) {
+					agingMinutes = -1;
+				}
+				if (agingMinutes <= 0) {
+					System.out.println("Error: aging must be a positive number of minutes");
+					return;
+				}
+			} else if (args[i].equals("--serve") && i + 1 < args.length) {
+				try {
+					port = Integer.parseInt(args[++i]);
+				} catch (NumberFormatException e) {
+					port = -1;
+				}
+				if (port < 0 || port > 65535) {
+					System.out.println("Error: invalid port number");
+					return;
+				}
+			} else if (args[i].equals("--no-metrics")) {
+				instrumented = false;
+			} else {
+				engine = args[i];
+			}
+		}
+		
+		TriageQueue priQueue;
+		MappedPatientQueue mapped = null;
+		if (mappedDir != null) {
+			if (journalDir != null) {
+				System.out.println("Error: a mapped heap is already persistent and cannot be journaled");
+				return;
+			} else if (agingMinutes > 0 || !instrumented) {
+				System.out.println("Error: a mapped heap supports neither aging nor metrics options");
+				return;
+			}
+			long start = System.nanoTime();
+			mapped = MappedPatientQueue.open(Paths.get(mappedDir));
+			System.out.printf("Mapped %d patients from %s in %d ms%s%n", mapped.size(), mappedDir,
+					  TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+					  mapped.wasVerified() ? " (not closed cleanly, checked)" : "");
+			priQueue = mapped;
+		} else {
+			priQueue = createQueue(engine, instrumented ? new QueueMetrics() : null,
+					       TimeUnit.MINUTES.toMillis(agingMinutes));
+		}
+		if (priQueue == null) {
+			System.out.println("Error: unrecognized queue engine: " + engine);
+			return;
+		} else if (agingMinutes > 0 && !engine.equals("heap") && !engine.equals("arena")) {
+			System.out.println("Error: aging is only supported by the heap and arena engines");
+			return;
+		}
+		JournaledTriageQueue journaled = null;
+		if (journalDir != null) {
+			journaled = JournaledTriageQueue.open(priQueue, Paths.get(journalDir));
+			System.out.printf("Recovered %d patients from %s (%d journal operations) in %d ms%n",
+					  journaled.size(), journalDir, journaled.getRecoveredOperations(),
+					  journaled.getRecoveryMillis());
+			priQueue = journaled;
+		}
+		if (port >= 0) {
+			serve(priQueue, port, journaled, mapped);
+			return;
+		}
 		System.out.println(MSG_WELCOME);
 
 		Scanner console = new Scanner(System.in);
-		PatientPriorityQueue priQueue = new PatientPriorityQueue();
+		CommandTokenizer tokens = new CommandTokenizer();
 		while (keepAsking) {
 			System.out.print("\ntriage> ");
 			String line = console.nextLine();
-			processLine(line, priQueue);
+			processLine(line, priQueue, tokens, System.out);
 		}
 		console.close();
+		if (journaled != null) {
+			journaled.close();
+		}
+		if (mapped != null) {
+			mapped.close();
+		}
 		System.out.println(MSG_GOODBYE);
 	}
 	
 
+	/**
+	 * Serve network clients until the program is interrupted, then close the
+	 * journal or the mapped heap
+	 * 
+	 * @param priQueue  Priority queue the clients operate on
+	 * @param port      The port to listen on
+	 * @param journaled The journal to close, null if not journaling
+	 * @param mapped    The mapped heap to close, null if not mapped
+	 * @throws IOException
+	 */
+	private static void serve(TriageQueue priQueue, int port, JournaledTriageQueue journaled,
+				  MappedPatientQueue mapped) throws IOException {
+		final TriageServer server = new TriageServer(priQueue, port);
+		final Thread serving = Thread.currentThread();
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			server.stop();
+			try {
+				serving.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}));
+		System.out.println("Serving triage clients on port " + server.getPort());
+		try {
+			server.run();
+		} finally {
+			if (journaled != null) {
+				journaled.close();
+			}
+			if (mapped != null) {
+				mapped.close();
+			}
+			System.out.println(MSG_GOODBYE);
+		}
+	}
+	
+
+	/**
+	 * Create the queue engine with the given name
+	 * 
+	 * @param engine Name of the queue engine
+	 * @return Return a new empty queue, Return null if the name is not known
+	 */
+	static TriageQueue createQueue(String engine) {
+		return createQueue(engine, null, 0);
+	}
+	
+
+	/**
+	 * Create the queue engine with the given name. Only the heap, arena,
+	 * sharded and pairing engines are instrumented and only the heap and
+	 * arena engines age patients, the other engines ignore the metrics and
+	 * aging.
+	 * 
+	 * @param engine      Name of the queue engine
+	 * @param metrics     The metrics to record into, null to record nothing
+	 * @param agingMillis Time to move up one level, 0 for no aging
+	 * @return Return a new empty queue, Return null if the name is not known
+	 */
+	static TriageQueue createQueue(String engine, QueueMetrics metrics, long agingMillis) {
+		if (engine.equals("heap")) {
+			return new PatientPriorityQueue(metrics, agingMillis, null);
+		} else if (engine.equals("arena")) {
+			return new PatientPriorityQueue(metrics, agingMillis, new NameArena());
+		} else if (engine.equals("primitive")) {
+			return new PrimitivePatientPriorityQueue();
+		} else if (engine.equals("bucket")) {
+			return new BucketPatientQueue();
+		} else if (engine.equals("concurrent")) {
+			return new ConcurrentTriageQueue();
+		} else if (engine.equals("sharded")) {
+			return new ShardedTriageQueue(ShardedTriageQueue.DEFAULT_SHARDS, metrics);
+		} else if (engine.equals("pairing")) {
+			return new PairingPatientQueue(metrics);
+		} else {
+			return null;
+		}
+	}
+	
+
+	/**
+	 * Create the table of commands
+	 * 
+	 * @return Return the table of commands
+	 */
+	private static CommandRegistry createCommands() {
+		return new CommandRegistry()
+				.register("help", (args, priQueue, out) -> out.println(MSG_HELP))
+				.register("add", TriageSystem::addPatient)
+				.register("peek", TriageSystem::peekNextPatient)
+				.register("next", TriageSystem::dequeueNextPatient)
+				.register("list", TriageSystem::showPatientList)
+				.register("load", TriageSystem::executeCommandsFromFile)
+				.register("debug", (args, priQueue, out) -> out.println(priQueue.toString()))
+				.register("change", TriageSystem::executeChange)
+				.register("remove", TriageSystem::removePatients)
+				.register("find", TriageSystem::findPatients)
+				.register("save", TriageSystem::executeSave)
+				.register("stats", (args, priQueue, out) -> showStats(priQueue, out))
+				.register("quit", (args, priQueue, out) -> keepAsking = false);
+	}
+	
+
 	/**
 	 * Process the line entered from the user or read from the file
 	 * 
-	 * @param line      String command to execute
+	 * @param line      Command to execute
 	 * @param priQueue  Priority Queue to operate on
+	 * @param tokens    Tokenizer to reuse for the line
+	 * @param out       Where to write the command's output
 	 * @throws IOException
 	 */
-	private static void processLine(String line, PatientPriorityQueue priQueue) throws IOException {
-		if (!line.isEmpty()) {
-			Scanner lineScanner = new Scanner(line);  // Scanner to extract words
-			String cmd = lineScanner.next(); 	  // The first is user's command
-
-			// A switch statement could be used on strings, but not all have JDK7
-			if (cmd.equals("help")) {
-				System.out.println(MSG_HELP);
-			} else if (cmd.equals("add")) {
-				addPatient(lineScanner, priQueue);
-			} else if (cmd.equals("peek")) {
-				peekNextPatient(priQueue);
-			} else if (cmd.equals("next")) {
-				dequeueNextPatient(priQueue);
-			} else if (cmd.equals("list")) {
-				showPatientList(priQueue);
-			} else if (cmd.equals("load")) {
-				executeCommandsFromFile(lineScanner, priQueue);
-			} else if (cmd.equals("debug")) {
-				System.out.println(priQueue.toString());
-			} else if (cmd.equals("change")) {
-				executeChange(lineScanner, priQueue);
-			} else if (cmd.equals("save")) {
-				executeSave(lineScanner, priQueue);
-			} else if (cmd.equals("quit")) {
-				keepAsking = false;
-			// Error message
-			} else {
-				System.out.println("Error: unrecognized command: " + line);
-			}
+	static void processLine(CharSequence line, TriageQueue priQueue, CommandTokenizer tokens,
+				PrintStream out) throws IOException {
+		CommandHandler handler = null;
+		if (tokens.reset(line).next()) {
+			handler = COMMANDS.find(tokens);
+		}
+		if (handler != null) {
+			handler.execute(tokens, priQueue, out);
 		// Error message
 		} else {
-			System.out.println("Error: unrecognized command: " + line);
+			out.println("Error: unrecognized command: " + line);
 		}
 	}
 	
 
 	/**
 	 * Reads a text file with each command on a separate line and executes the lines
-	 * as if they were typed into the command prompt.
+	 * as if they were typed into the command prompt. The file is parsed in
+	 * parallel in chunks, and the commands are applied in file order on this
+	 * thread. Runs of valid add commands are collected and added to the queue
+	 * as one batch. With --quiet the lines are not echoed.
 	 * 
-	 * @param lineScanner  Scanner remaining characters after the command `load`
-	 * @param priQueue     priority queue to operate on
+	 * @param args      Tokenizer positioned on the command `load`
+	 * @param priQueue  priority queue to operate on
+	 * @param out       Where to write the output
 	 * @throws IOException
 	 */
-	private static void executeCommandsFromFile(Scanner lineScanner, PatientPriorityQueue priQueue) throws IOException {
+	private static void executeCommandsFromFile(CommandTokenizer args, TriageQueue priQueue,
+						    PrintStream out) throws IOException {
 		// read the rest of the line into a single string
-		String fileName = lineScanner.nextLine().trim();
+		String fileName = args.rest().trim();
+		if (fileName.startsWith("--binary ")) {
+			loadBinary(fileName.substring(9).trim(), priQueue, out);
+			return;
+		}
+		boolean quiet = fileName.startsWith("--quiet ");
+		if (quiet) {
+			fileName = fileName.substring(8).trim();
+		}
 
+		CommandFileReader file;
 		try {
-			Scanner file = new Scanner(new File(fileName));
-			while (file.hasNext()) {
-				final String line = file.nextLine();
-				System.out.println("\ntriage> " + line);
-				processLine(line, priQueue);
+			file = new CommandFileReader(Paths.get(fileName), Charset.defaultCharset(),
+						     ForkJoinPool.commonPool());
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			out.printf("File %s was not found.%n", fileName);
+			return;
+		} catch (IOException e) {
+			out.printf("File %s could not be read: %s%n", fileName, e.getMessage());
+			return;
+		}
+		
+		long start = System.nanoTime();
+		CommandTokenizer tokens = new CommandTokenizer();     // reused for every line
+		int[] priorityCodes = new int[ADD_BATCH_SIZE];      // batched priority codes
+		String[] patientNames = new String[ADD_BATCH_SIZE]; // batched names
+		int count = 0;                                      // patients in the batch
+		int total = 0;                                      // patients in this run
+		long lines = 0;                                     // lines applied
+		try {
+			CommandFileReader.Chunk chunk = file.next();
+			while (chunk != null) {
+				for (int i = 0; i < chunk.size(); i++) {
+					if (chunk.kind(i) == CommandFileReader.ADD) {
+						// Collect the add command
+						priorityCodes[count] = chunk.code(i);
+						patientNames[count] = chunk.text(i);
+						count++;
+						total++;
+						if (count == ADD_BATCH_SIZE) {
+							priQueue.addPatients(priorityCodes, patientNames, count);
+							count = 0;
+						}
+						continue;
+					}
+					
+					// Any other line ends the run of add commands
+					total = flushAdds(priQueue, priorityCodes, patientNames, count, total, out);
+					count = 0;
+					if (!quiet) {
+						out.println("\ntriage> " + chunk.text(i));
+					}
+					if (chunk.kind(i) == CommandFileReader.NEXT) {
+						announceNextPatient(priQueue.dequeue(), out);
+					} else if (chunk.kind(i) == CommandFileReader.CHANGE) {
+						int arrivalNum = chunk.arrival(i);
+						int priorityCode = chunk.code(i);
+						if (getPatientToUpdate(arrivalNum, priorityCode, priQueue, out) != -1) {
+							priQueue.changeByArrival(arrivalNum, priorityCode);
+						}
+					} else {
+						processLine(chunk.text(i), priQueue, tokens, out);
+					}
+				}
+				lines += chunk.size();
+				chunk = file.next();
 			}
+			flushAdds(priQueue, priorityCodes, patientNames, count, total, out);
+		} finally {
 			file.close();
-		} catch (FileNotFoundException e) {
-			System.out.printf("File %s was not found.%n", fileName);
 		}
+		long nanos = Math.max(1, System.nanoTime() - start);
+		out.printf("%nRead %d lines from %s in %d ms (%.0f lines/s)%n", lines, fileName,
+			   TimeUnit.NANOSECONDS.toMillis(nanos), lines * 1e9 / nanos);
+	}
+
+	
+	/**
+	 * Add the batched patients and report the run of add commands
+	 * 
+	 * @param priQueue      priority queue to operate on
+	 * @param priorityCodes The batched priority codes
+	 * @param patientNames  The batched names
+	 * @param count         Number of patients in the batch
+	 * @param total         Number of patients in the whole run
+	 * @param out           Where to write the output
+	 * @return Return 0, the size of the next run
+	 */
+	private static int flushAdds(TriageQueue priQueue, int[] priorityCodes, String[] patientNames,
+				     int count, int total, PrintStream out) {
+		if (count > 0) {
+			priQueue.addPatients(priorityCodes, patientNames, count);
+		}
+		if (total > 0) {
+			out.println("\nAdded " + total + " patients to the priority system");
+		}
+		return 0;
 	}
 
 	
 	/**
 	 * Save patients information in the file
 	 * 
-	 * @param lineScanner  Scanner remaining characters after the command `load`
-	 * @param priQueue     priority queue to operate on
+	 * @param args      Tokenizer positioned on the command `save`
+	 * @param priQueue  priority queue to operate on
+	 * @param out       Where to write the output
 	 * @throws IOException
 	 */
-	private static void executeSave(Scanner lineScanner, PatientPriorityQueue priQueue) throws IOException {
+	private static void executeSave(CommandTokenizer args, TriageQueue priQueue, PrintStream out)
+			throws IOException {
 		// Check if the line has next
-		if (lineScanner.hasNext()) {
-			// Scanner to extract words
-			String priorityCode = lineScanner.nextLine();
-			
-			// Create String array of priorityCode
-			String[] arrName = priorityCode.split(" ");
+		if (args.next()) {
+			boolean binary = args.tokenEquals("--binary") && args.next();
 			
 			// File name
-			String fileName = arrName[1];
-			
-			// ArrayLists to sort
-			ArrayList<Patient> arr = priQueue.getCopyList();
-			
-			// To change priority number to word
-			String priorityWord;
+			String fileName = args.token();
 
-			if (arrName.length == 2) {
-				Collections.sort(arr);
+			if (args.hasNext()) {
+				out.println("Error: not valid file name");
+			} else if (binary) {
+				saveBinary(fileName, priQueue, out);
+			} else {
 				try {
 					PrintWriter printFile = new PrintWriter(fileName);
-					for (int i = 0; i < arr.size(); i++) {
-						if (arr.get(i).getPriorityCode() == 1) {
-							priorityWord = "immediate";
-							printFile.println("add " + priorityWord + " " + arr.get(i).getName());
-						} else if (arr.get(i).getPriorityCode() == 2) {
-							priorityWord = "emergency";
-							printFile.println("add " + priorityWord + " " + arr.get(i).getName());
-						} else if (arr.get(i).getPriorityCode() == 3) {
-							priorityWord = "urgent";
-							printFile.println("add " + priorityWord + " " + arr.get(i).getName());
-						} else if (arr.get(i).getPriorityCode() == 4) {
-							priorityWord = "minimal";
-							printFile.println("add " + priorityWord + " " + arr.get(i).getName());
-						}
+					int saved = 0;
+					// A snapshot in arrival order, so the queue can change while writing
+					for (Patient patient : priQueue.arrivalSnapshot()) {
+						printFile.println("add " + CommandTokenizer.priorityWord(patient.getPriorityCode())
+								  + " " + patient.getName());
+						saved++;
 					}
 					printFile.close();
-					System.out.println("Saved " + arr.size() + " patients to file " + fileName);
+					out.println("Saved " + saved + " patients to file " + fileName);
 				// throwing exception
 				} catch (FileNotFoundException e) {
-					System.out.printf("File %s was not found.%n", fileName);
+					out.printf("File %s was not found.%n", fileName);
 				}
-			// Error message
-			} else {
-				System.out.println("Error: not valid file name");
 			}
 		// Error message
 		} else {
-			System.out.println("Error: not valid file name");
+			out.println("Error: not valid file name");
+		}
+	}
+
+	
+	/**
+	 * Save a binary image of the queue in the file
+	 * 
+	 * @param fileName  Name of the file to write
+	 * @param priQueue  priority queue to operate on
+	 * @param out       Where to write the output
+	 */
+	private static void saveBinary(String fileName, TriageQueue priQueue, PrintStream out) {
+		QueueSnapshot snapshot = QueueSnapshot.of(priQueue);
+		try {
+			snapshot.write(Paths.get(fileName));
+			out.println("Saved " + snapshot.getPatients().size() + " patients to file " + fileName);
+		} catch (IOException e) {
+			out.printf("File %s could not be written: %s%n", fileName, e.getMessage());
+		}
+	}
+
+	
+	/**
+	 * Restore a binary image of a queue from the file. Arrival numbers are
+	 * kept, so the queue must be empty.
+	 * 
+	 * @param fileName  Name of the file to read
+	 * @param priQueue  priority queue to operate on
+	 * @param out       Where to write the output
+	 */
+	private static void loadBinary(String fileName, TriageQueue priQueue, PrintStream out) {
+		if (priQueue.size() != 0) {
+			out.println("Error: binary load needs an empty waiting area");
+			return;
+		}
+		try {
+			QueueSnapshot snapshot = QueueSnapshot.read(Paths.get(fileName));
+			snapshot.restoreInto(priQueue);
+			out.println("Loaded " + snapshot.getPatients().size() + " patients from file " + fileName);
+		} catch (NoSuchFileException e) {
+			out.printf("File %s was not found.%n", fileName);
+		} catch (IOException e) {
+			out.printf("File %s could not be read: %s%n", fileName, e.getMessage());
 		}
 	}
 
 	
 	/**
-	 * Displays the next patient in the waiting room that will be called.
+	 * Displays the next patient in the waiting room that will be called, or
+	 * the next k patients in the order they will be called.
 	 * 
+	 * @param args     Tokenizer positioned on the command `peek`, followed by
+	 *                 an optional number of patients
 	 * @param priQueue priority queue to operate on
+	 * @param out      Where to write the output
 	 */
-	private static void peekNextPatient(PatientPriorityQueue priQueue) {
-		if (priQueue.peek() == null) {
-			System.out.println("There are no patients in the waiting area.");
+	private static void peekNextPatient(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		if (args.next()) {
+			int k = args.tokenAsInt();
+			if (k < 1) {
+				out.println("Error: invalid number of patients");
+				return;
+			}
+			ArrayList<Patient> next = priQueue.peek(k);
+			out.println("Next " + next.size() + " patients to be called:\n");
+			out.println("  Arrival #   Priority Code   Patient Name\n" 
+				    + "+-----------+---------------+--------------+");
+			StringBuilder rows = new StringBuilder();
+			for (Patient patient : next) {
+				appendRow(rows, patient);
+			}
+			out.append(rows);
+			return;
+		}
+		Patient next = priQueue.peek();
+		if (next == null) {
+			out.println("There are no patients in the waiting area.");
 		} else {
-			System.out.println("Highest priority patient to be called next: "
-					    + priQueue.peek().getName());
+			out.print("Highest priority patient to be called next: ");
+			out.println(next.getName());
 		}
 	}
 	
 
 	/**
-	 * Displays the list of patients in the waiting room.
+	 * Displays the list of patients in the waiting room in arrival order.
+	 * The rows are collected in one buffer and written in large chunks, so
+	 * a huge waiting room does not cost one write per patient. The list is
+	 * read from a snapshot, so the queue can change while it is written.
 	 * 
+	 * @param args     Tokenizer positioned on the command `list`, followed
+	 *                 by an optional offset and limit, --priority <code> to
+	 *                 show one priority code, and --count to only count
 	 * @param priQueue priority queue to operate on
+	 * @param out      Where to write the output
 	 */
-	private static void showPatientList(PatientPriorityQueue priQueue) {
-		String priorityWord = ""; // To change priority number to word
-		System.out.println("# patients waiting: " + priQueue.size() + "\n");
-		System.out.println("  Arrival #   Priority Code   Patient Name\n" 
-				    + "+-----------+---------------+--------------+");
-		ArrayList<Patient> temp = priQueue.getPatientList();
-
-		// Change priority codes to words
-		for (int i = 0; i < temp.size(); i++) {
-			if (temp.get(i).getPriorityCode() == 1) {
-				priorityWord = "immdediate";
-			} else if (temp.get(i).getPriorityCode() == 2) {
-				priorityWord = "emergency";
-			} else if (temp.get(i).getPriorityCode() == 3) {
-				priorityWord = "urgent";
-			} else if (temp.get(i).getPriorityCode() == 4) {
-				priorityWord = "minimal";
+	private static void showPatientList(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		int priorityCode = 0;          // only show this code, 0 for all codes
+		int offset = 0;                // matching patients to skip
+		int limit = Integer.MAX_VALUE; // most patients to show
+		int numbers = 0;               // number of offset and limit arguments
+		boolean countOnly = false;     // only show the number of patients
+		while (args.next()) {
+			if (args.tokenEquals("--count")) {
+				countOnly = true;
+			} else if (args.tokenEquals("--priority")) {
+				priorityCode = args.next() ? args.priorityCode() : -1;
+				if (priorityCode == -1 && args.tokenAsInt() >= 1 && args.tokenAsInt() <= 4) {
+					priorityCode = args.tokenAsInt();
+				}
+				if (priorityCode == -1) {
+					out.println("Error: invalid priority level code");
+					return;
+				}
+			} else if (args.tokenAsInt() != -1 && numbers < 2) {
+				if (numbers == 0) {
+					offset = args.tokenAsInt();
+				} else {
+					limit = args.tokenAsInt();
+				}
+				numbers++;
+			// Error Message
+			} else {
+				out.println("Error: invalid list option: " + args.token());
+				return;
+			}
+		}
+
+		// Count the patients with the code, the queue knows the total
+		Iterable<Patient> waiting = countOnly && priorityCode == 0 ? null : priQueue.arrivalSnapshot();
+		int matching = priQueue.size();
+		if (priorityCode != 0) {
+			matching = 0;
+			for (Patient patient : waiting) {
+				if (patient.getPriorityCode() == priorityCode) {
+					matching++;
+				}
+			}
+		}
+		if (priorityCode == 0) {
+			out.println("# patients waiting: " + matching + (countOnly ? "" : "\n"));
+		} else {
+			out.println("# " + CommandTokenizer.priorityWord(priorityCode) + " patients waiting: "
+				    + matching + (countOnly ? "" : "\n"));
+		}
+		if (countOnly) {
+			return;
+		}
+		out.println("  Arrival #   Priority Code   Patient Name\n" 
+			    + "+-----------+---------------+--------------+");
+
+		StringBuilder rows = new StringBuilder(LIST_BUFFER_CHARS + 128);
+		int index = 0; // matching patients passed so far
+		int shown = 0; // patients written so far
+		for (Patient patient : waiting) {
+			if (shown == limit) {
+				break;
+			} else if (priorityCode != 0 && patient.getPriorityCode() != priorityCode) {
+				continue;
+			} else if (index++ < offset) {
+				continue;
 			}
-			System.out.printf("     %-2d       %-10s      %-50s\n", 
-					   temp.get(i).getArrivalOrder(), priorityWord,
-					   temp.get(i).getName());
+			appendRow(rows, patient);
+			shown++;
+			if (rows.length() >= LIST_BUFFER_CHARS) {
+				out.append(rows);
+				rows.setLength(0);
+			}
+		}
+		out.append(rows);
+		if (numbers > 0) {
+			out.println("\nShowing " + shown + " of " + matching + " patients from offset " + offset);
+		}
+	}
+
+	
+	/**
+	 * Displays the waiting patients whose name starts with a prefix.
+	 * 
+	 * @param args     Tokenizer positioned on the command `find`
+	 * @param priQueue priority queue to operate on
+	 * @param out      Where to write the output
+	 */
+	private static void findPatients(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		String prefix = args.rest(true);
+		if (NameIndex.normalize(prefix).isEmpty()) {
+			out.println("Error: No patient name provided");
+			return;
+		}
+		ArrayList<Patient> found = priQueue.findByName(prefix, Integer.MAX_VALUE);
+		out.println("# patients matching \"" + prefix + "\": " + found.size() + "\n");
+		out.println("  Arrival #   Priority Code   Patient Name\n" 
+			    + "+-----------+---------------+--------------+");
+		StringBuilder rows = new StringBuilder();
+		for (Patient patient : found) {
+			appendRow(rows, patient);
+			if (rows.length() >= LIST_BUFFER_CHARS) {
+				out.append(rows);
+				rows.setLength(0);
+			}
+		}
+		out.append(rows);
+	}
+
+	
+	/**
+	 * Append the row of a patient in the table of patients
+	 * 
+	 * @param rows    Where to append the row
+	 * @param patient The patient
+	 */
+	private static void appendRow(StringBuilder rows, Patient patient) {
+		rows.append("     ");
+		appendPadded(rows, Integer.toString(patient.getArrivalOrder()), 2);
+		rows.append("       ");
+		appendPadded(rows, LIST_PRIORITY_WORDS[patient.getPriorityCode() - 1], 10);
+		rows.append("      ");
+		appendPadded(rows, patient.getName(), 50);
+		rows.append('\n');
+	}
+
+	
+	/**
+	 * Append text padded with spaces to the given width
+	 * 
+	 * @param row   Where to append the text
+	 * @param text  The text
+	 * @param width Width to pad the text to
+	 */
+	private static void appendPadded(StringBuilder row, String text, int width) {
+		row.append(text);
+		for (int i = text.length(); i < width; i++) {
+			row.append(' ');
 		}
 	}
 
 	
+	/**
+	 * Displays the metrics the queue recorded.
+	 * 
+	 * @param priQueue priority queue to operate on
+	 * @param out      Where to write the output
+	 */
+	private static void showStats(TriageQueue priQueue, PrintStream out) {
+		QueueMetrics metrics = priQueue.getMetrics();
+		if (metrics == null) {
+			out.println("Metrics are disabled for this queue");
+			return;
+		}
+		QueueMetrics.Snapshot stats = metrics.snapshot();
+		out.println("# patients waiting: " + priQueue.size() + "\n");
+		out.println("  Priority Code   Waiting\n" 
+			    + "+---------------+-----------+");
+		for (int code = 1; code <= 4; code++) {
+			out.printf("  %-10s      %d%n", CommandTokenizer.priorityWord(code),
+				   stats.getDepth(code));
+		}
+		out.println();
+		out.println("  Operation        Count       Mean        p50        p99      p99.9        Max\n"
+			    + "+------------+----------+----------+----------+----------+----------+----------+");
+		showHistogram("add (ns)", stats.getAddNanos(), out);
+		showHistogram("next (ns)", stats.getDequeueNanos(), out);
+		showHistogram("change (ns)", stats.getChangeNanos(), out);
+		showHistogram("sift steps", stats.getSiftSteps(), out);
+		showHistogram("wait (ms)", stats.getWaitMillis(), out);
+	}
+
+	
+	/**
+	 * Displays one row of the metrics table.
+	 * 
+	 * @param label     Name of the row
+	 * @param histogram The histogram to display
+	 * @param out       Where to write the output
+	 */
+	private static void showHistogram(String label, LatencyHistogram.Snapshot histogram,
+					  PrintStream out) {
+		out.printf("  %-12s %9d %10.1f %10d %10d %10d %10d%n", label, histogram.getCount(),
+			   histogram.getMean(), histogram.getPercentile(50), histogram.getPercentile(99),
+			   histogram.getPercentile(99.9), histogram.getMax());
+	}
+
+	
 	/**
 	 * Removes a patient from the waiting room and displays the name on the screen.
 	 * 
+	 * @param args      Tokenizer positioned on the command `next`
 	 * @param priQueue  Priority queue to operate on
+	 * @param out       Where to write the output
+	 */
+	private static void dequeueNextPatient(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		Patient next;
+		if (args.next()) {
+			int shard = args.tokenAsInt();
+			if (priQueue.getShardCount() == 0) {
+				out.println("Error: the queue is not sharded");
+				return;
+			} else if (shard < 0 || shard >= priQueue.getShardCount()) {
+				out.println("Error: invalid shard number");
+				return;
+			}
+			next = priQueue.dequeue(shard);
+		} else {
+			next = priQueue.dequeue();
+		}
+		announceNextPatient(next, out);
+	}
+
+	
+	/**
+	 * Displays the name of the patient who will now be seen.
+	 * 
+	 * @param next      The patient taken from the queue, null if there was none
+	 * @param out       Where to write the output
 	 */
-	private static void dequeueNextPatient(PatientPriorityQueue priQueue) {
-		if (priQueue.size() == 0) {
-			System.out.println("There are no patients in the waiting area.");
+	private static void announceNextPatient(Patient next, PrintStream out) {
+		if (next == null) {
+			out.println("There are no patients in the waiting area.");
 		} else {
-			System.out.println("This patient will now be seen: " 
-					   + priQueue.dequeue().getName());
+			out.print("This patient will now be seen: ");
+			out.println(next.getName());
 		}
 	}
 
@@ -265,60 +816,35 @@ public class TriageSystem {
 	/**
 	 * Adds the patient to the waiting room.
 	 * 
-	 * @param lineScanner  Scanner with remaining chars after the command
-	 * @param priQueue     priority queue to operate on
+	 * @param args      Tokenizer positioned on the command `add`
+	 * @param priQueue  priority queue to operate on
+	 * @param out       Where to write the output
 	 */
-	private static void addPatient(Scanner lineScanner, PatientPriorityQueue priQueue) {
-		if (lineScanner.hasNext()) {
-			// Get a String line
-			String priorityCode = lineScanner.nextLine();
+	private static void addPatient(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		if (args.next()) {
+			int priorityCode = args.priorityCode();
 			
-			// Put the line in the array
-			String[] arr = priorityCode.split(" ");
-			
-			// To store patient name
-			String patientName = "";
-			
-			boolean printName = false;
+			// Get patient name
+			String patientName = args.rest();
 
-			if (arr.length >= 3) {
-				// Get patient name
-				for (int i = 2; i < arr.length; i++) {
-					if (i != arr.length - 1) {
-						patientName += arr[i] + " ";
-					} else {
-						patientName += arr[i];
-					}
-				}
+			if (!patientName.isEmpty()) {
 				// Add new patients
-				if (arr[1].toLowerCase().equals("immediate")) {
-					priQueue.addPatient(1, patientName);
-					printName = true;
-				} else if (arr[1].toLowerCase().equals("emergency")) {
-					priQueue.addPatient(2, patientName);
-					printName = true;
-				} else if (arr[1].toLowerCase().equals("urgent")) {
-					priQueue.addPatient(3, patientName);
-					printName = true;
-				} else if (arr[1].toLowerCase().equals("minimal")) {
-					priQueue.addPatient(4, patientName);
-					printName = true;
+				if (priorityCode != -1) {
+					priQueue.addPatient(priorityCode, patientName);
+					out.print("Added patient \"");
+					out.print(patientName);
+					out.println("\" to the priority system");
 				// Error Message
 				} else {
-					System.out.println("Error: invalid priority level code");
-					printName = false;
-				}
-				if (printName) {
-					System.out.println("Added patient \"" + patientName 
-							    + "\" to the priority system");
+					out.println("Error: invalid priority level code");
 				}
 			// Error Message
 			} else {
-				System.out.println("Error: No patient name provided");
+				out.println("Error: No patient name provided");
 			}
 		// Error Message
 		} else {
-			System.out.println("Error: No priority level code provided");
+			out.println("Error: No priority level code provided");
 		}
 	}
 
@@ -326,105 +852,106 @@ public class TriageSystem {
 	/**
 	 * Change priorityCode of a Patient object
 	 * 
-	 * @param lineScanner  Scanner with remaining chars after the command
-	 * @param priQueue     Priority queue to operate on
+	 * @param args      Tokenizer positioned on the command `change`
+	 * @param priQueue  Priority queue to operate on
+	 * @param out       Where to write the output
 	 */
-	private static void executeChange(Scanner lineScanner, PatientPriorityQueue priQueue) {
-		if (lineScanner.hasNext()) {
-			// Get a String line
-			String priorityCode = lineScanner.nextLine();
-			
-			// Put the line in the array
-			String[] arr = priorityCode.split(" ");
-			
-			// Get shallow copy
-			ArrayList<Patient> temp = priQueue.getPatientList();
+	private static void executeChange(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		if (args.next()) {
+			// Get the arrival number
+			int arrivalNum = args.tokenAsInt();
 
-			if (arr.length >= 3) {
-				// Get the target's index in the ArrayList
-				int patientNum = getPatientToUpdate(arr, temp);
+			if (args.next()) {
+				int priorityCode = args.priorityCode();
 				
 				// Change the object
-				if (patientNum != -1) {
-					// Get the arrival number
-					int arrivalNum = Integer.parseInt(arr[1]);
-					if (arr[2].toLowerCase().equals("immediate")) {
-						priQueue.change(patientNum, 1, arrivalNum);
-					} else if (arr[2].toLowerCase().equals("emergency")) {
-						priQueue.change(patientNum, 2, arrivalNum);
-					} else if (arr[2].toLowerCase().equals("urgent")) {
-						priQueue.change(patientNum, 3, arrivalNum);
-					} else if (arr[2].toLowerCase().equals("minimal")) {
-						priQueue.change(patientNum, 4, arrivalNum);
-					}
+				if (getPatientToUpdate(arrivalNum, priorityCode, priQueue, out) != -1) {
+					priQueue.changeByArrival(arrivalNum, priorityCode);
 				}
 			// Error message
 			} else {
-				System.out.println("Error: No priority code given.");
+				out.println("Error: No priority code given.");
 			}
 		// Error message
 		} else {
-			System.out.println("Error: No patient id provided");
+			out.println("Error: No patient id provided");
 		}
 	}
 
 	
 	/**
-	 * Get the index of patient that needs to update
+	 * Remove patients who left without being seen. Several arrival numbers
+	 * are removed as one batch.
 	 * 
-	 * @param arr   Clue to find the patient that needs to update
-	 * @param temp  Shallow copy of patients arraylist
-	 * @return Return the index of patient that needs to update, Return -1 if cannot
-	 *         find
+	 * @param args      Tokenizer positioned on the command `remove`
+	 * @param priQueue  Priority queue to operate on
+	 * @param out       Where to write the output
 	 */
-	private static int getPatientToUpdate(String[] arr, ArrayList<Patient> temp) {
-		boolean stopLoop = true;  // To stop the loop
-		int arrivalOrder;   	  // Arrival order
-		int targetPatient = -1;   // index of the target patient
-
-		// Check error
-		if (Character.isLetter(arr[1].charAt(0))) {
-			System.out.println("Error: no patient with the given id was found");
-			return -1;
+	private static void removePatients(CommandTokenizer args, TriageQueue priQueue, PrintStream out) {
+		int[] arrivalIds = new int[8];
+		int count = 0;
+		while (args.next()) {
+			int arrivalNum = args.tokenAsInt();
+			if (arrivalNum == -1) {
+				out.println("Error: invalid patient id: " + args.token());
+				return;
+			}
+			if (count == arrivalIds.length) {
+				arrivalIds = Arrays.copyOf(arrivalIds, count * 2);
+			}
+			arrivalIds[count++] = arrivalNum;
 		}
 		
-		// Get the arrival order
-		arrivalOrder = Integer.parseInt(arr[1]);
-		
-		// Find the target patient
-		for (int i = 0; i < temp.size() && stopLoop; i++) {
-			if (arrivalOrder == temp.get(i).getArrivalOrder()) {
-				stopLoop = false;
-				targetPatient = i;
+		if (count == 0) {
+			out.println("Error: No patient id provided");
+		} else if (count == 1) {
+			Patient removed = priQueue.removeByArrival(arrivalIds[0]);
+			if (removed != null) {
+				out.print("Removed patient \"");
+				out.print(removed.getName());
+				out.println("\" from the priority system");
+			// Error message
+			} else {
+				out.println("Error: no patient with the given id was found");
 			}
+		} else {
+			ArrayList<Patient> removed = priQueue.removeByArrival(arrivalIds, count);
+			out.println("Removed " + removed.size() + " of " + count + " patients from the priority system");
 		}
+	}
+
+	
+	/**
+	 * Get the arrival number of patient that needs to update
+	 * 
+	 * @param arrivalNum    Arrival number given by the user, -1 if not a number
+	 * @param priorityCode  New priority code, -1 if the word was not valid
+	 * @param priQueue      Priority queue to look the patient up in
+	 * @param out           Where to write the output
+	 * @return Return the arrival number of patient that needs to update, Return -1
+	 *         if cannot find
+	 */
+	private static int getPatientToUpdate(int arrivalNum, int priorityCode, TriageQueue priQueue,
+					      PrintStream out) {
+		// Find the target patient through the position index
+		Patient target = arrivalNum == -1 ? null : priQueue.findByArrival(arrivalNum);
 		
-		// Return the index of the target patient
-		if (stopLoop == false) {
-			if (arr[2].toLowerCase().equals("immediate")) {
-				System.out.println("Changed patient \"" + temp.get(targetPatient).getName() 
-									+ "\"\'s priority to immediate");
-				return targetPatient;
-			} else if (arr[2].toLowerCase().equals("emergency")) {
-				System.out.println("Changed patient \"" + temp.get(targetPatient).getName() 
-									+ "\"\'s priority to emergency");
-				return targetPatient;
-			} else if (arr[2].toLowerCase().equals("urgent")) {
-				System.out.println("Changed patient \"" + temp.get(targetPatient).getName() 
-									+ "\"\'s priority to urgent");
-				return targetPatient;
-			} else if (arr[2].toLowerCase().equals("minimal")) {
-				System.out.println("Changed patient \"" + temp.get(targetPatient).getName() 
-									+ "\"\'s priority to minimal");
-				return targetPatient;
+		// Return the arrival number of the target patient
+		if (target != null) {
+			if (priorityCode != -1) {
+				out.print("Changed patient \"");
+				out.print(target.getName());
+				out.print("\"\'s priority to ");
+				out.println(CommandTokenizer.priorityWord(priorityCode));
+				return arrivalNum;
 			// Error message
 			} else {
-				System.out.println("Error: invalid priority level code");
+				out.println("Error: invalid priority level code");
 				return -1;
 			}
 		// Error message
 		} else {
-			System.out.println("Error: no patient with the given id was found");
+			out.println("Error: no patient with the given id was found");
 			return -1;
 		}
 	}
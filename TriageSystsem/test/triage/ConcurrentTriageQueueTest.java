@@ -0,0 +1,172 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This is a stress test of the lock-free queue. Intake desks, clinicians and
+ * a re-triage nurse run on their own threads against one queue, and every
+ * patient that was added must leave it exactly once, either seen by a
+ * clinician or removed.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class ConcurrentTriageQueueTest {
+
+	private static final int PRODUCERS = 8;
+	private static final int CONSUMERS = 8;
+	private static final int PATIENTS_PER_PRODUCER = 20000;
+
+	
+	/**
+	 * Every added patient is seen or removed once, no patient is seen twice,
+	 * and nothing is left in the queue
+	 * 
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void everyPatientLeavesExactlyOnce() throws InterruptedException {
+		final ConcurrentTriageQueue queue = new ConcurrentTriageQueue();
+		final Set<String> added = ConcurrentHashMap.newKeySet();
+		final Set<String> left = ConcurrentHashMap.newKeySet();
+		final AtomicInteger duplicates = new AtomicInteger();
+		final AtomicInteger producing = new AtomicInteger(PRODUCERS);
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Throwable> failures = new ArrayList<Throwable>();
+		List<Thread> threads = new ArrayList<Thread>();
+
+		for (int p = 0; p < PRODUCERS; p++) {
+			final int desk = p;
+			threads.add(new Thread(() -> {
+				SplittableRandom random = new SplittableRandom(desk);
+				await(start);
+				int[] codes = new int[16];
+				String[] names = new String[16];
+				for (int i = 0; i < PATIENTS_PER_PRODUCER; i += codes.length) {
+					for (int j = 0; j < codes.length; j++) {
+						codes[j] = 1 + random.nextInt(4);
+						names[j] = "Desk " + desk + " Patient " + (i + j);
+						added.add(names[j]);
+					}
+					if (random.nextBoolean()) {
+						queue.addPatients(codes, names, codes.length);
+					} else {
+						for (int j = 0; j < codes.length; j++) {
+							queue.addPatient(codes[j], names[j]);
+						}
+					}
+				}
+				producing.decrementAndGet();
+			}));
+		}
+		for (int c = 0; c < CONSUMERS; c++) {
+			threads.add(new Thread(() -> {
+				await(start);
+				while (true) {
+					Patient next = queue.dequeue();
+					if (next != null) {
+						if (!left.add(next.getName())) {
+							duplicates.incrementAndGet();
+						}
+					} else if (producing.get() == 0 && queue.size() == 0) {
+						return;
+					}
+				}
+			}));
+		}
+		threads.add(new Thread(() -> {
+			SplittableRandom random = new SplittableRandom(99);
+			await(start);
+			while (producing.get() > 0) {
+				int arrival = 1 + random.nextInt(Math.max(1, queue.getNextPatientNumber() - 1));
+				if (random.nextInt(4) == 0) {
+					Patient removed = queue.removeByArrival(arrival);
+					if (removed != null && !left.add(removed.getName())) {
+						duplicates.incrementAndGet();
+					}
+				} else {
+					queue.changeByArrival(arrival, 1 + random.nextInt(4));
+				}
+			}
+		}));
+
+		for (Thread thread : threads) {
+			thread.setUncaughtExceptionHandler((t, e) -> {
+				synchronized (failures) {
+					failures.add(e);
+				}
+			});
+			thread.start();
+		}
+		start.countDown();
+		for (Thread thread : threads) {
+			thread.join();
+		}
+
+		assertTrue(failures.isEmpty(), () -> "a thread failed: " + failures);
+		assertEquals(0, duplicates.get(), "patients seen more than once");
+		assertEquals(PRODUCERS * PATIENTS_PER_PRODUCER, added.size());
+		assertEquals(added, new HashSet<String>(left), "patients lost or made up");
+		assertEquals(0, queue.size());
+		assertNull(queue.dequeue());
+	}
+
+	
+	/**
+	 * Without overlapping operations, patients are seen by priority code and
+	 * then arrival, like with the other engines
+	 */
+	@Test
+	public void sequentialOrderMatchesTheHeap() {
+		ConcurrentTriageQueue queue = new ConcurrentTriageQueue();
+		PatientPriorityQueue heap = new PatientPriorityQueue();
+		SplittableRandom random = new SplittableRandom(7);
+		for (int i = 0; i < 5000; i++) {
+			int code = 1 + random.nextInt(4);
+			queue.addPatient(code, "Patient " + i);
+			heap.addPatient(code, "Patient " + i);
+			if (random.nextInt(5) == 0) {
+				int arrival = 1 + random.nextInt(i + 1);
+				int newCode = 1 + random.nextInt(4);
+				assertEquals(heap.changeByArrival(arrival, newCode), queue.changeByArrival(arrival, newCode));
+			}
+			if (random.nextInt(3) == 0) {
+				assertEquals(String.valueOf(heap.dequeue()), String.valueOf(queue.dequeue()));
+			}
+		}
+		while (heap.size() > 0) {
+			assertEquals(String.valueOf(heap.dequeue()), String.valueOf(queue.dequeue()));
+		}
+		assertNull(queue.dequeue());
+	}
+
+	
+	/**
+	 * Wait for the start signal so all threads begin together
+	 * 
+	 * @param start The start signal
+	 */
+	private static void await(CountDownLatch start) {
+		try {
+			start.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,146 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This is a test of recovering a queue from its journal: a group cut off by
+ * a crash is dropped, and the journals of every generation after the newest
+ * checkpoint are replayed.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class JournaledTriageQueueTest {
+
+	@TempDir
+	Path directory; // journal directory
+
+	
+	/**
+	 * A group that was cut off in the middle is dropped with the rest of the
+	 * file, and groups appended later follow the last whole one
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void replayDropsAGroupCutOffByACrash() throws IOException {
+		Path file = directory.resolve("journal-1.log");
+		QueueJournal journal = new QueueJournal(file, 4096);
+		journal.add(3, 1, "Wilford Hatheway", 1000);
+		journal.add(1, 2, "Brenton Jamison", 2000);
+		journal.add(2, 3, "Kylie Carter", 3000);
+		journal.commit();
+		long firstGroupEnd = Files.size(file);
+		journal.add(4, 4, "Marvin Sherwood", 4000);
+		journal.dequeue(2);
+		journal.close();
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+			channel.truncate(Files.size(file) - 3);
+		}
+
+		PatientPriorityQueue queue = new PatientPriorityQueue();
+		assertEquals(3, QueueJournal.replay(file, queue));
+		assertEquals(3, queue.size());
+		assertEquals(firstGroupEnd, Files.size(file));
+
+		journal = new QueueJournal(file, 4096);
+		journal.add(4, 4, "Marvin Sherwood", 4000);
+		journal.close();
+		PatientPriorityQueue again = new PatientPriorityQueue();
+		assertEquals(4, QueueJournal.replay(file, again));
+		assertEquals(names(queue, "4 4 Marvin Sherwood"), names(again));
+	}
+
+	
+	/**
+	 * A crash after a new generation was started but before its checkpoint
+	 * was written recovers from the older checkpoint and replays both
+	 * journals
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void recoveryReplaysEveryGenerationAfterTheCheckpoint() throws IOException {
+		PatientPriorityQueue expected = new PatientPriorityQueue();
+		for (int i = 1; i <= 5; i++) {
+			expected.addPatient(1 + i % 4, "Patient " + i, i * 1000L);
+		}
+		QueueSnapshot.of(expected).write(directory.resolve("checkpoint-1.bin"));
+
+		QueueJournal first = new QueueJournal(directory.resolve("journal-1.log"), 4096);
+		add(expected, first, 2, "Patient 6", 6000);
+		add(expected, first, 4, "Patient 7", 7000);
+		expected.changeByArrival(7, 1);
+		first.change(7, 1);
+		first.dequeue(expected.dequeue().getArrivalOrder());
+		first.close();
+
+		QueueJournal second = new QueueJournal(directory.resolve("journal-2.log"), 4096);
+		add(expected, second, 3, "Patient 8", 8000);
+		expected.removeByArrival(3);
+		second.remove(3);
+		second.dequeue(expected.dequeue().getArrivalOrder());
+		second.close();
+
+		JournaledTriageQueue recovered = JournaledTriageQueue.open(new PatientPriorityQueue(), directory);
+		assertEquals(7, recovered.getRecoveredOperations());
+		assertEquals(names(expected), names(recovered));
+		assertEquals(expected.getNextPatientNumber(), recovered.getNextPatientNumber());
+		recovered.close();
+
+		JournaledTriageQueue reopened = JournaledTriageQueue.open(new PatientPriorityQueue(), directory);
+		assertEquals(0, reopened.getRecoveredOperations());
+		assertEquals(names(expected), names(reopened));
+		reopened.close();
+	}
+
+	
+	/**
+	 * Add a patient to a queue and record it in a journal
+	 * 
+	 * @param queue        The queue
+	 * @param journal      The journal
+	 * @param priorityCode The patient's priority code
+	 * @param patientName  The patient's name
+	 * @param arrivalTime  The time the patient arrived, in milliseconds
+	 */
+	private static void add(TriageQueue queue, QueueJournal journal, int priorityCode, String patientName,
+				long arrivalTime) {
+		journal.add(priorityCode, queue.getNextPatientNumber(), patientName, arrivalTime);
+		queue.addPatient(priorityCode, patientName, arrivalTime);
+	}
+
+	
+	/**
+	 * Return the waiting patients of a queue as text, in arrival order,
+	 * followed by more entries
+	 * 
+	 * @param queue The queue
+	 * @param more  Entries to append
+	 * @return Return one entry per waiting patient
+	 */
+	private static List<String> names(TriageQueue queue, String... more) {
+		List<String> names = new ArrayList<String>();
+		for (Patient patient : queue.arrivalSnapshot()) {
+			names.add(patient.getArrivalOrder() + " " + patient.getPriorityCode() + " " + patient.getName());
+		}
+		for (String entry : more) {
+			names.add(entry);
+		}
+		return names;
+	}
+
+}
@@ -0,0 +1,155 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This is a test of the files of the mapped queue: a clean close keeps the
+ * queue for the next open, files left open are checked and refused if a sift
+ * was cut off, and close() compacts what patients who left take up.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class MappedPatientQueueTest {
+
+	private static final long HEADER_BYTES = 64; // header of heap.dat
+	private static final int HEAP_RECORD = 16;   // key, name offset
+
+	@TempDir
+	Path directory; // queue directory
+
+	
+	/**
+	 * A queue that was closed cleanly is opened again without being checked
+	 * and serves the same patients in the same order
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void cleanCloseAndReopenKeepTheQueue() throws IOException {
+		MappedPatientQueue queue = MappedPatientQueue.open(directory);
+		fill(queue, 20);
+		queue.dequeue();
+		queue.changeByArrival(13, 1);
+		queue.removeByArrival(5);
+		List<String> waiting = names(queue);
+		int next = queue.getNextPatientNumber();
+		queue.close();
+
+		MappedPatientQueue reopened = MappedPatientQueue.open(directory);
+		assertFalse(reopened.wasVerified());
+		assertEquals(waiting, names(reopened));
+		assertEquals(next, reopened.getNextPatientNumber());
+		assertEquals(8, reopened.dequeue().getArrivalOrder());
+		reopened.addPatient(1, "Marvin Sherwood", 30000);
+		assertEquals(next, reopened.findByName("marvin", 1).get(0).getArrivalOrder());
+		reopened.close();
+	}
+
+	
+	/**
+	 * Files that were left open are checked on the next open. They are used
+	 * if they are whole, and refused if a sift was cut off after moving a
+	 * record down but before the record it displaced was put back.
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void filesLeftOpenAndHalfSiftedAreRefused() throws IOException {
+		MappedPatientQueue crashed = MappedPatientQueue.open(directory);
+		fill(crashed, 10);
+		crashed.dequeue();
+		List<String> waiting = names(crashed);
+
+		MappedPatientQueue checked = MappedPatientQueue.open(directory);
+		assertTrue(checked.wasVerified());
+		assertEquals(waiting, names(checked));
+
+		try (FileChannel heap = FileChannel.open(directory.resolve("heap.dat"), StandardOpenOption.READ,
+				StandardOpenOption.WRITE)) {
+			ByteBuffer root = ByteBuffer.allocate(HEAP_RECORD);
+			heap.read(root, HEADER_BYTES);
+			root.flip();
+			heap.write(root, HEADER_BYTES + HEAP_RECORD);
+		}
+		assertThrows(IOException.class, () -> MappedPatientQueue.open(directory));
+	}
+
+	
+	/**
+	 * Closing a queue most of whose patients left compacts names.dat and
+	 * index.dat, and the compacted files are whole when they are checked
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void closeCompactsWhatPatientsWhoLeftTakeUp() throws IOException {
+		MappedPatientQueue queue = MappedPatientQueue.open(directory);
+		fill(queue, 10000);
+		while (queue.size() > 10) {
+			queue.dequeue();
+		}
+		List<String> waiting = names(queue);
+		long namesBefore = Files.size(directory.resolve("names.dat"));
+		long indexBefore = Files.size(directory.resolve("index.dat"));
+		queue.close();
+		assertTrue(Files.size(directory.resolve("names.dat")) < namesBefore);
+		assertTrue(Files.size(directory.resolve("index.dat")) < indexBefore);
+
+		MappedPatientQueue reopened = MappedPatientQueue.open(directory);
+		assertEquals(waiting, names(reopened));
+		reopened.addPatient(1, "Marvin Sherwood", 30000);
+		waiting.add("10001 1 Marvin Sherwood");
+
+		MappedPatientQueue checked = MappedPatientQueue.open(directory);
+		assertTrue(checked.wasVerified());
+		assertEquals(waiting, names(checked));
+		assertEquals(10001, checked.dequeue().getArrivalOrder());
+	}
+
+	
+	/**
+	 * Add patients with long names, one arrival per second
+	 * 
+	 * @param queue The queue
+	 * @param count Number of patients to add
+	 */
+	private static void fill(TriageQueue queue, int count) {
+		for (int i = 1; i <= count; i++) {
+			queue.addPatient(1 + i % 4, "Patient " + i + " with a name long enough to fill names.dat", i * 1000L);
+		}
+	}
+
+	
+	/**
+	 * Return the waiting patients of a queue as text, in arrival order
+	 * 
+	 * @param queue The queue
+	 * @return Return one entry per waiting patient
+	 */
+	private static List<String> names(TriageQueue queue) {
+		List<String> names = new ArrayList<String>();
+		for (Patient patient : queue.arrivalSnapshot()) {
+			names.add(patient.getArrivalOrder() + " " + patient.getPriorityCode() + " " + patient.getName());
+		}
+		return names;
+	}
+
+}
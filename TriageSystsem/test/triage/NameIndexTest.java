@@ -0,0 +1,38 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+/**
+ * This is a test of looking patients up by the start of their name.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class NameIndexTest {
+
+	
+	/**
+	 * A prefix that ends in a space only matches names with a word break
+	 * there, while leading spaces and runs of spaces are ignored
+	 */
+	@Test
+	public void trailingSpaceEndsTheWord() {
+		NameIndex index = new NameIndex(false);
+		index.add("John  Smith", 1);
+		index.add("Johnson Carter", 2);
+		index.add("john", 3);
+
+		assertEquals(Arrays.asList(3, 1, 2), index.find("  JOHN", 10));
+		assertEquals(Arrays.asList(1), index.find("john ", 10));
+		assertEquals(Arrays.asList(1), index.find(" john\t \t", 10));
+		assertEquals(Arrays.asList(1), index.find("john   sm", 10));
+		assertEquals(Arrays.asList(3, 1, 2), index.find("   ", 10));
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * JungBok Cho
+ * Triage System
+ */
+package triage;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * This is a test of the ordering guarantees of the sharded queue: the rule
+ * dequeue(home) uses to steal from other shards, and the order of dequeue()
+ * when operations do not overlap.
+ * 
+ * @author JungBok Cho
+ * @version 1.0
+ */
+public class ShardedTriageQueueTest {
+
+	@TempDir
+	Path directory; // journal directory of the journaled test
+
+	
+	/**
+	 * A head of another shard with a strictly more urgent code is stolen
+	 */
+	@Test
+	public void moreUrgentHeadOnAnotherShardIsStolen() {
+		ShardedTriageQueue queue = new ShardedTriageQueue(4, null);
+		queue.addPatient(0, 3, "Home Urgent", 0);
+		queue.addPatient(2, 1, "Away Immediate", 0);
+		assertEquals("Away Immediate", queue.dequeue(0).getName());
+		assertEquals("Home Urgent", queue.dequeue(0).getName());
+	}
+
+	
+	/**
+	 * A head of another shard with the same code is not stolen while the
+	 * home shard has patients, even if it arrived earlier, and neither is a
+	 * less urgent one
+	 */
+	@Test
+	public void equalOrLessUrgentHeadIsNotStolenWhileHomeHasPatients() {
+		ShardedTriageQueue queue = new ShardedTriageQueue(4, null);
+		queue.addPatient(1, 2, "Away Emergency", 0);
+		queue.addPatient(3, 4, "Away Minimal", 0);
+		queue.addPatient(0, 2, "First Home Emergency", 0);
+		queue.addPatient(0, 2, "Second Home Emergency", 0);
+		assertEquals("First Home Emergency", queue.dequeue(0).getName());
+		assertEquals("Second Home Emergency", queue.dequeue(0).getName());
+		assertEquals("Away Emergency", queue.dequeue(0).getName());
+		assertEquals("Away Minimal", queue.dequeue(0).getName());
+	}
+
+	
+	/**
+	 * An empty home shard takes the best head of all shards, by code and then
+	 * arrival
+	 */
+	@Test
+	public void emptyHomeTakesGlobalBest() {
+		ShardedTriageQueue queue = new ShardedTriageQueue(4, null);
+		queue.addPatient(1, 3, "Urgent", 0);
+		queue.addPatient(3, 2, "Earlier Emergency", 0);
+		queue.addPatient(2, 2, "Later Emergency", 0);
+		queue.addPatient(2, 1, "Immediate", 0);
+		assertEquals("Immediate", queue.dequeue(0).getName());
+		assertEquals("Earlier Emergency", queue.dequeue(0).getName());
+		assertEquals("Later Emergency", queue.dequeue(0).getName());
+		assertEquals("Urgent", queue.dequeue(0).getName());
+		assertNull(queue.dequeue(0));
+	}
+
+	
+	/**
+	 * Without overlapping operations, dequeue() follows the order of a single
+	 * heap whichever shards the patients are in
+	 */
+	@Test
+	public void dequeueMatchesTheHeap() {
+		ShardedTriageQueue queue = new ShardedTriageQueue(4, null);
+		PatientPriorityQueue heap = new PatientPriorityQueue();
+		SplittableRandom random = new SplittableRandom(13);
+		for (int i = 0; i < 5000; i++) {
+			int code = 1 + random.nextInt(4);
+			queue.addPatient(code, "Patient " + i);
+			heap.addPatient(code, "Patient " + i);
+			if (random.nextInt(3) == 0) {
+				assertEquals(heap.dequeue().getName(), queue.dequeue().getName());
+			}
+		}
+		while (heap.size() > 0) {
+			assertEquals(heap.dequeue().getName(), queue.dequeue().getName());
+		}
+		assertNull(queue.dequeue());
+	}
+
+	
+	/**
+	 * next with a shard works through a journal, and recovery gives back the
+	 * same waiting patients
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void nextWithShardWorksThroughTheJournal() throws IOException {
+		JournaledTriageQueue journaled = JournaledTriageQueue.open(new ShardedTriageQueue(4, null), directory);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(output, true);
+		CommandTokenizer tokens = new CommandTokenizer();
+		for (int i = 0; i < 40; i++) {
+			TriageSystem.processLine("add " + CommandTokenizer.priorityWord(1 + i % 4) + " Patient " + i,
+						 journaled, tokens, out);
+		}
+		output.reset();
+		for (int i = 0; i < 12; i++) {
+			TriageSystem.processLine("next " + i % 4, journaled, tokens, out);
+		}
+		assertEquals(12, output.toString().split("will now be seen", -1).length - 1, output.toString());
+		List<String> before = names(journaled);
+		journaled.close();
+
+		JournaledTriageQueue recovered = JournaledTriageQueue.open(new ShardedTriageQueue(4, null), directory);
+		assertEquals(before, names(recovered));
+		recovered.close();
+	}
+
+	
+	/**
+	 * next with a shard works through the queue the server observes
+	 * 
+	 * @throws IOException
+	 */
+	@Test
+	public void nextWithShardWorksWhenObserved() throws IOException {
+		ObservableTriageQueue observed = new ObservableTriageQueue(new ShardedTriageQueue(4, null), Runnable::run,
+									   ObservableTriageQueue.DEFAULT_BUFFER_EVENTS);
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(output, true);
+		CommandTokenizer tokens = new CommandTokenizer();
+		TriageSystem.processLine("add urgent Wilford Hatheway", observed, tokens, out);
+		TriageSystem.processLine("add immediate Brenton Jamison", observed, tokens, out);
+		output.reset();
+		TriageSystem.processLine("next 3", observed, tokens, out);
+		assertTrue(output.toString().contains("Brenton Jamison"), output.toString());
+		assertEquals(1, observed.size());
+	}
+
+	
+	/**
+	 * Return the waiting patients of a queue as text, in arrival order
+	 * 
+	 * @param queue The queue
+	 * @return Return one entry per waiting patient
+	 */
+	private static List<String> names(TriageQueue queue) {
+		List<String> names = new ArrayList<String>();
+		for (Patient patient : queue.arrivalSnapshot()) {
+			names.add(patient.getArrivalOrder() + " " + patient.getPriorityCode() + " " + patient.getName());
+		}
+		return names;
+	}
+
+}